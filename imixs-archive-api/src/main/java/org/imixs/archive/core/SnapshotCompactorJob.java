@@ -28,14 +28,16 @@
 package org.imixs.archive.core;
 
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Calendar;
-import java.util.Date;
 import java.util.List;
+import java.util.Set;
 import java.util.logging.Logger;
 
 import org.imixs.archive.core.cassandra.ArchiveRemoteService;
 import org.imixs.melman.RestAPIException;
 import org.imixs.workflow.ItemCollection;
+import org.imixs.workflow.WorkflowKernel;
 import org.imixs.workflow.engine.DocumentService;
 import org.imixs.workflow.exceptions.AccessDeniedException;
 
@@ -46,6 +48,9 @@ import jakarta.ejb.LocalBean;
 import jakarta.ejb.Stateless;
 import jakarta.ejb.TransactionAttribute;
 import jakarta.ejb.TransactionAttributeType;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.TypedQuery;
 
 /**
  * The SnapshotCompactorJob deletes snapshot entities in a separate transaction.
@@ -62,108 +67,172 @@ public class SnapshotCompactorJob {
 
     private static Logger logger = Logger.getLogger(SnapshotCompactorService.class.getName());
 
+    private static final String SNAPSHOT_TYPES = "('snapshot-workitemarchive', 'snapshot-workitemarchivedeleted', 'snapshot-workitemdeleted')";
+
     @EJB
     DocumentService documentService;
 
     @EJB
     ArchiveRemoteService archiveRemoteService;
 
+    @PersistenceContext(unitName = "org.imixs.workflow.jpa")
+    private EntityManager manager;
+
     /**
      * Start a new transaction to isolate multiple iterations.
+     * <p>
+     * The method processes the next batch of snapshots modified before the given
+     * compact date. The batch starts after the given checkpoint defined by the
+     * modified date and the id of the last processed snapshot. So snapshots which
+     * are not deleted (e.g. not yet archived) are not selected again within the
+     * same run.
+     * <p>
+     * The method returns the items 'snapshots.processed', 'snapshots.deleted',
+     * 'snapshots.refreshed' and the new checkpoint 'checkpoint.modified' and
+     * 'checkpoint.id'.
      * 
-     * @param period
+     * @param compactDate  - max modified date
+     * @param lastModified - modified date of the last processed snapshot
+     * @param lastID       - id of the last processed snapshot
      * @param batchSize
      * @param doDelete
      */
     @TransactionAttribute(value = TransactionAttributeType.REQUIRES_NEW)
-    public ItemCollection processSnapshotBatchWithFinding(int period, int batchSize, boolean doDelete) {
-        if (period < 1) {
-            throw new SnapshotException(SnapshotCompactorService.SNAPSHOT_COMPACTOR_ERROR,
-                    "Grace period must not be below 1 year!");
-        }
-
+    public ItemCollection processSnapshotBatchWithFinding(Calendar compactDate, Calendar lastModified, String lastID,
+            int batchSize, boolean doDelete) {
         ItemCollection metaData = new ItemCollection();
 
-        Calendar calendar = Calendar.getInstance();
-        calendar.add(Calendar.YEAR, -period);
-        Date gracePeriodDate = calendar.getTime();
-        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
-        String compactDate = dateFormat.format(gracePeriodDate);
-        logger.info("│   ├── Compact Date < " + compactDate);
-
         // process in one Transaktion
-        List<ItemCollection> snapshots = findAllSnapshotsByGracePeriod(compactDate, batchSize);
+        List<ItemCollection> snapshots = findSnapshotsByGracePeriod(compactDate, lastModified, lastID, batchSize);
         if (snapshots.size() == 0) {
             // no more data
             return metaData;
         }
+        ItemCollection last = snapshots.get(snapshots.size() - 1);
+        metaData.setItemValue("checkpoint.modified", last.getItemValueDate(WorkflowKernel.MODIFIED));
+        metaData.setItemValue("checkpoint.id", last.getUniqueID());
         metaData.setItemValue("snapshots.processed", snapshots.size());
-        int deletions = processSnapshotBatch(snapshots, doDelete);
-        metaData.setItemValue("snapshots.deleted", deletions);
+        processSnapshotBatch(snapshots, doDelete, metaData);
         return metaData;
     }
 
+    /**
+     * Returns the number of snapshots modified before the given compact date.
+     * 
+     * @param compactDate
+     * @return number of compactable snapshots
+     */
+    public long countSnapshotsByGracePeriod(Calendar compactDate) {
+        TypedQuery<Long> q = manager.createQuery(
+                "SELECT COUNT(document) FROM Document AS document WHERE document.type IN " + SNAPSHOT_TYPES
+                        + " AND document.modified < :compactDate",
+                Long.class);
+        q.setParameter("compactDate", compactDate);
+        return q.getSingleResult();
+    }
+
     /**
      * Process a smaller batch of snapshots
      */
     // @TransactionAttribute(value = TransactionAttributeType.REQUIRES_NEW)
-    private int processSnapshotBatch(List<ItemCollection> snapshots, boolean doDelete) {
+    private void processSnapshotBatch(List<ItemCollection> snapshots, boolean doDelete, ItemCollection metaData) {
         int deletions = 0;
+        int refreshes = 0;
         SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
+        // verify the whole batch in one request
+        Set<String> archivedIDs = null;
+        try {
+            List<String> ids = new ArrayList<String>();
+            for (ItemCollection snapshot : snapshots) {
+                ids.add(snapshot.getUniqueID());
+            }
+            archivedIDs = archiveRemoteService.existSnapshotsInArchive(ids);
+        } catch (RestAPIException e) {
+            logger.warning("│   │   ├── Failed to verify snapshot batch: " + e.getMessage());
+            return;
+        }
         for (ItemCollection snapshot : snapshots) {
 
             String id = snapshot.getUniqueID();
             boolean snapshotExists = false;
             try {
-                List<ItemCollection> remoteSnapshot = archiveRemoteService.loadSnapshotFromArchive(id);
-                snapshotExists = (remoteSnapshot != null && remoteSnapshot.size() > 0);
+                if (archivedIDs != null) {
+                    snapshotExists = archivedIDs.contains(id);
+                } else {
+                    // fallback for archive services without batch support
+                    List<ItemCollection> remoteSnapshot = archiveRemoteService.loadSnapshotFromArchive(id);
+                    snapshotExists = (remoteSnapshot != null && remoteSnapshot.size() > 0);
+                }
                 if (snapshotExists) {
                     String lastModifiedDate = dateFormat.format(snapshot.getItemValueDate("$modified"));
                     logger.info("│   │   ├── Snapshot " + id + " -> " + lastModifiedDate
                             + " will be deleted now...");
                     if (doDelete) {
+                        // the entity is loaded by the DocumentService - release it after the removal
                         documentService.remove(snapshot);
+                        manager.flush();
+                        manager.clear();
                         deletions++;
                     }
                 } else {
                     logger.warning("│   │   ├── Snapshot " + id
                             + " not found in archive! Snapshot data will be refreshed!");
-                    String originId = id.substring(id.lastIndexOf("-") + 1);
+                    String originId = id.substring(0, id.lastIndexOf("-"));
                     ItemCollection originWorkitem = documentService.load(originId);
                     if (originWorkitem == null) {
                         logger.severe("│   │   ├── Fatal Error - origin workitem '" + originId + "' does not exist!");
                     } else {
                         // force snapshot creation by saving the origin data...
                         documentService.save(originWorkitem);
-                        // short delay (5s)....
-                        Thread.sleep(5000);
+                        refreshes++;
                     }
                 }
-            } catch (AccessDeniedException | RestAPIException | InterruptedException e) {
+            } catch (AccessDeniedException | RestAPIException e) {
                 logger.warning("│   │   ├── Failed to process snapshot " + id + " : " + e.getMessage());
             }
         }
-        return deletions;
+        metaData.setItemValue("snapshots.deleted", deletions);
+        metaData.setItemValue("snapshots.refreshed", refreshes);
     }
 
     /**
-     * This method returns all existing Snapshot-workitems after a given grace
-     * period.
+     * This method returns the next batch of Snapshot-workitems after a given grace
+     * period ordered by the modified date.
      * 
      * The method selects only archive, archivedeleted and workitemdeleted.
+     * <p>
+     * To keep the memory of a batch small, the snapshot data is not loaded. Each
+     * returned snapshot contains only the items '$uniqueid', 'type', '$modified'
+     * and '$noindex'.
      * 
-     * 
-     * @param uniqueid
-     * @return
+     * @param compactDate  - max modified date
+     * @param lastModified - checkpoint modified date
+     * @param lastID       - checkpoint id
+     * @param maxCount
+     * @return list of snapshot headers
      */
-    // @TransactionAttribute(value = TransactionAttributeType.REQUIRES_NEW)
-    private List<ItemCollection> findAllSnapshotsByGracePeriod(String compactDate, int maxCount) {
-
-        String query = "SELECT document FROM Document AS document WHERE "
-                + "(document.type = 'snapshot-workitemarchive' OR document.type = 'snapshot-workitemarchivedeleted'  OR document.type = 'snapshot-workitemdeleted' )"
-                + "  AND document.modified <'" + compactDate
-                + "' ORDER BY document.modified ASC";
-        return documentService.getDocumentsByQuery(query, maxCount);
+    private List<ItemCollection> findSnapshotsByGracePeriod(Calendar compactDate, Calendar lastModified,
+            String lastID, int maxCount) {
+        String query = "SELECT document.id, document.type, document.modified FROM Document AS document"
+                + " WHERE document.type IN " + SNAPSHOT_TYPES + " AND document.modified < :compactDate"
+                + " AND (document.modified > :modified OR (document.modified = :modified AND document.id > :id))"
+                + " ORDER BY document.modified ASC, document.id ASC";
+        TypedQuery<Object[]> q = manager.createQuery(query, Object[].class);
+        q.setParameter("compactDate", compactDate);
+        q.setParameter("modified", lastModified);
+        q.setParameter("id", lastID);
+        q.setMaxResults(maxCount);
+        List<ItemCollection> result = new ArrayList<ItemCollection>();
+        for (Object[] row : q.getResultList()) {
+            ItemCollection snapshot = new ItemCollection();
+            snapshot.setItemValue(WorkflowKernel.UNIQUEID, row[0]);
+            snapshot.setItemValue(WorkflowKernel.TYPE, row[1]);
+            snapshot.setItemValue(WorkflowKernel.MODIFIED, ((Calendar) row[2]).getTime());
+            // snapshots are not part of the search index
+            snapshot.setItemValue(DocumentService.NOINDEX, true);
+            result.add(snapshot);
+        }
+        return result;
     }
 
-}
\ No newline at end of file
+}
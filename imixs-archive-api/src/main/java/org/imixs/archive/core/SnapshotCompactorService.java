@@ -27,7 +27,10 @@
 
 package org.imixs.archive.core;
 
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Logger;
 
 import org.eclipse.microprofile.config.inject.ConfigProperty;
@@ -40,6 +43,8 @@ import jakarta.annotation.Resource;
 import jakarta.annotation.security.DeclareRoles;
 import jakarta.annotation.security.RunAs;
 import jakarta.ejb.EJBException;
+import jakarta.ejb.Lock;
+import jakarta.ejb.LockType;
 import jakarta.ejb.SessionContext;
 import jakarta.ejb.Singleton;
 import jakarta.ejb.Startup;
@@ -47,6 +52,8 @@ import jakarta.ejb.Timeout;
 import jakarta.ejb.Timer;
 import jakarta.ejb.TimerConfig;
 import jakarta.ejb.TimerService;
+import jakarta.ejb.TransactionAttribute;
+import jakarta.ejb.TransactionAttributeType;
 import jakarta.inject.Inject;
 import jakarta.ws.rs.GET;
 import jakarta.ws.rs.Path;
@@ -63,8 +70,14 @@ import jakarta.ws.rs.PathParam;
  * ARCHIVE_SNAPSHOT_COMPACTOR_ENABLED=true
  * ARCHIVE_SNAPSHOT_COMPACTOR_INTERVAL=14400
  * ARCHIVE_SNAPSHOT_COMPACTOR_INITIALDELAY=30
+ * ARCHIVE_SNAPSHOT_COMPACTOR_BUDGET=600
+ * ARCHIVE_SNAPSHOT_COMPACTOR_LOAD=0.5
+ * ARCHIVE_SNAPSHOT_COMPACTOR_LATENCY=2000
  * </pre>
  * <p>
+ * A run of the timer can take up to the time budget. For this reason the
+ * singleton uses a read lock, so a dry run is not blocked by a running timer.
+ * Overlapping timer runs are skipped.
  * 
  * 
  * @version 1.0
@@ -72,6 +85,8 @@ import jakarta.ws.rs.PathParam;
  */
 @Singleton
 @Startup
+@TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+@Lock(LockType.READ)
 @DeclareRoles({ "org.imixs.ACCESSLEVEL.MANAGERACCESS" })
 @RunAs("org.imixs.ACCESSLEVEL.MANAGERACCESS")
 @Path("/snapshot/compactor")
@@ -82,6 +97,12 @@ public class SnapshotCompactorService {
     public static final String ARCHIVE_SNAPSHOT_COMPACTOR_ENABLED = "archive.snapshot.compactor.enabled";
     public static final String ARCHIVE_SNAPSHOT_COMPACTOR_INTERVAL = "archive.snapshot.compactor.interval";
     public static final String ARCHIVE_SNAPSHOT_COMPACTOR_INITIALDELAY = "archive.snapshot.compactor.intialdelay";
+    public static final String ARCHIVE_SNAPSHOT_COMPACTOR_BUDGET = "archive.snapshot.compactor.budget";
+    public static final String ARCHIVE_SNAPSHOT_COMPACTOR_LOAD = "archive.snapshot.compactor.load";
+    public static final String ARCHIVE_SNAPSHOT_COMPACTOR_LATENCY = "archive.snapshot.compactor.latency";
+
+    static final int MIN_BATCH_SIZE = 10;
+    static final int MAX_BATCH_SIZE = 500;
 
     public static final String SNAPSHOT_COMPACTOR_ERROR = "SNAPSHOT_COMPACTOR_ERROR";
 
@@ -107,6 +128,21 @@ public class SnapshotCompactorService {
     @ConfigProperty(name = ARCHIVE_SNAPSHOT_COMPACTOR_INITIALDELAY, defaultValue = "30") // sec
     long initialDelay;
 
+    // max run time per interval
+    @Inject
+    @ConfigProperty(name = ARCHIVE_SNAPSHOT_COMPACTOR_BUDGET, defaultValue = "600") // sec
+    long compactorBudget;
+
+    // share of the run time spent in transactions
+    @Inject
+    @ConfigProperty(name = ARCHIVE_SNAPSHOT_COMPACTOR_LOAD, defaultValue = "0.5")
+    double compactorLoad;
+
+    // target latency of a single batch transaction
+    @Inject
+    @ConfigProperty(name = ARCHIVE_SNAPSHOT_COMPACTOR_LATENCY, defaultValue = "2000") // ms
+    long compactorLatency;
+
     @Inject
     @ConfigProperty(name = SnapshotService.ENV_ARCHIVE_SERVICE_ENDPOINT)
     Optional<String> archiveServiceEndpoint;
@@ -116,6 +152,12 @@ public class SnapshotCompactorService {
 
     Timer timer = null;
 
+    volatile int batchSize = MIN_BATCH_SIZE;
+    // the last processed snapshot
+    private volatile Calendar checkpointModified = null;
+    private volatile String checkpointID = "";
+    private final AtomicBoolean running = new AtomicBoolean(false);
+
     @PostConstruct
     public void init() {
         // init timer....
@@ -126,6 +168,7 @@ public class SnapshotCompactorService {
                 logger.info("│   ├── grace period=" + compactorGracePeriod + " years");
                 logger.info("│   ├── initialDelay=" + initialDelay + "sec");
                 logger.info("│   ├── interval=" + compactorInterval + " sec");
+                logger.info("│   ├── budget=" + compactorBudget + " sec");
                 // Registering a non-persistent Timer Service.
                 final TimerConfig timerConfig = new TimerConfig();
                 timerConfig.setInfo("ARCHIVE_SNAPSHOT_COMPACTOR");
@@ -144,15 +187,21 @@ public class SnapshotCompactorService {
      * snapshots into the archive service.
      * <p>
      * Each eventLogEntry is locked to guaranty exclusive processing.
-     *
+     * 
      * @throws RestAPIException
      **/
     @Timeout
     public void onTimeout(jakarta.ejb.Timer _timer) {
+        if (!running.compareAndSet(false, true)) {
+            logger.info("├── compactSnapshots skipped - previous run still active");
+            return;
+        }
         try {
-            compactSnapshots(compactorGracePeriod, 100, true);
+            compactSnapshots(compactorGracePeriod, Integer.MAX_VALUE, true);
         } catch (InvalidAccessException | EJBException e) {
             logger.warning("processing EventLog failed: " + e.getMessage());
+        } finally {
+            running.set(false);
         }
     }
 
@@ -165,45 +214,121 @@ public class SnapshotCompactorService {
      * <li>If not, the method saves the parent to fix a missing-snapshot issue.
      * </ul>
      * 
-     * The method processes the snapshot in smaller batches
+     * The method processes the snapshots in batches, each in its own transaction,
+     * until the time budget is exhausted or no more snapshots are found. The batch
+     * size is adapted to the observed transaction latency. After each batch the
+     * method pauses so that the transactions use only the configured share of the
+     * time (load budget).
+     * <p>
+     * Snapshots which were not deleted are skipped until a run finds no more data.
+     * Finally the method reports the throughput and the remaining backlog.
      * 
-     * @param period
+     * @param period   - grace period in years
+     * @param maxCount - max snapshots to be processed
+     * @param doDelete - false for a dry run
      */
-    // @TransactionAttribute(value = TransactionAttributeType.NOT_SUPPORTED)
     public void compactSnapshots(int period, int maxCount, boolean doDelete) {
-        int batchSize = 10;
+        if (period < 1) {
+            throw new SnapshotException(SnapshotCompactorService.SNAPSHOT_COMPACTOR_ERROR,
+                    "Grace period must not be below 1 year!");
+        }
+        Calendar compactDate = Calendar.getInstance();
+        compactDate.add(Calendar.YEAR, -period);
+        // a dry run starts with the oldest snapshot and does not move the checkpoint
+        // or the batch size
+        Calendar lastModified = doDelete ? checkpointModified : null;
+        String lastID = doDelete ? checkpointID : "";
+        int currentBatchSize = doDelete ? batchSize : MIN_BATCH_SIZE;
+        if (lastModified == null) {
+            lastModified = Calendar.getInstance();
+            lastModified.setTimeInMillis(0);
+        }
+        double load = Math.min(1.0, Math.max(0.1, compactorLoad));
+        long startTime = System.currentTimeMillis();
+        long deadline = startTime + compactorBudget * 1000;
         int totalCount = 0;
         int totalDeletions = 0;
+        int totalRefreshes = 0;
         logger.info("├── Started compactSnapshots:");
         logger.info("│   ├── grace period=" + period);
+        logger.info("│   ├── Compact Date < " + new SimpleDateFormat("yyyy-MM-dd").format(compactDate.getTime()));
         logger.info("│   ├── max count=" + maxCount);
-        // compute batch count
-        int totalPages = (int) Math.ceil((double) maxCount / batchSize);
+        logger.info("│   ├── budget=" + compactorBudget + " sec, load=" + load);
         try {
-            for (int pageIndex = 0; pageIndex < totalPages; pageIndex++) {
-                // load snapshot batch...
-                ItemCollection metaData = snapshotCompactorJob.processSnapshotBatchWithFinding(period, batchSize,
-                        doDelete);
+            while (totalCount < maxCount && System.currentTimeMillis() < deadline) {
+                int size = Math.min(currentBatchSize, maxCount - totalCount);
+                long batchStart = System.currentTimeMillis();
+                ItemCollection metaData = snapshotCompactorJob.processSnapshotBatchWithFinding(compactDate,
+                        lastModified, lastID, size, doDelete);
+                long duration = System.currentTimeMillis() - batchStart;
                 int processed = metaData.getItemValueInteger("snapshots.processed");
-                int deletions = metaData.getItemValueInteger("snapshots.deleted");
-                totalCount = totalCount + processed;
-                totalDeletions = totalDeletions + deletions;
-                logger.info("│   ├── Processed " + totalCount + " snapshots - " + totalDeletions + " deletions");
                 if (processed == 0) {
-                    // no more data
+                    // no more data - the next run starts with the oldest snapshot again
+                    if (doDelete) {
+                        checkpointModified = null;
+                        checkpointID = "";
+                    }
                     break;
                 }
-                // short break...
-                Thread.sleep(500);
+                lastModified = Calendar.getInstance();
+                lastModified.setTime(metaData.getItemValueDate("checkpoint.modified"));
+                lastID = metaData.getItemValueString("checkpoint.id");
+                if (doDelete) {
+                    checkpointModified = lastModified;
+                    checkpointID = lastID;
+                }
+                totalCount = totalCount + processed;
+                totalDeletions = totalDeletions + metaData.getItemValueInteger("snapshots.deleted");
+                totalRefreshes = totalRefreshes + metaData.getItemValueInteger("snapshots.refreshed");
+                logger.info("│   ├── Processed " + totalCount + " snapshots - " + totalDeletions + " deletions ("
+                        + processed + " in " + duration + "ms)");
+                if (processed == size) {
+                    currentBatchSize = adaptBatchSize(currentBatchSize, duration);
+                    if (doDelete) {
+                        batchSize = currentBatchSize;
+                    }
+                }
+                // pause to meet the load budget
+                long pause = (long) (duration * (1 - load) / load);
+                pause = Math.min(pause, deadline - System.currentTimeMillis());
+                if (pause > 0) {
+                    Thread.sleep(pause);
+                }
             }
-            logger.info("├── compactSnapshots completed:");
-            logger.info("│   ├── snapshots processed = " + totalCount);
-            logger.info("│   ├── snapshots deleted   = " + totalDeletions);
-            logger.info("├── Finished!");
         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
             logger.warning("├── Failed to process snapshots : " + e.getMessage());
         }
+        long elapsed = System.currentTimeMillis() - startTime;
+        logger.info("├── compactSnapshots completed:");
+        logger.info("│   ├── snapshots processed = " + totalCount);
+        logger.info("│   ├── snapshots deleted   = " + totalDeletions);
+        logger.info("│   ├── snapshots refreshed = " + totalRefreshes);
+        logger.info("│   ├── throughput          = " + (elapsed > 0 ? totalCount * 1000L / elapsed : totalCount)
+                + " snapshots/sec");
+        try {
+            logger.info(
+                    "│   ├── remaining backlog   = " + snapshotCompactorJob.countSnapshotsByGracePeriod(compactDate));
+        } catch (EJBException e) {
+            logger.warning("│   ├── unable to count remaining backlog: " + e.getMessage());
+        }
+        logger.info("├── Finished in " + elapsed + "ms");
+    }
 
+    /**
+     * Computes the next batch size based on the latency of the last transaction.
+     * The size is scaled by the ratio of the target latency to the observed
+     * latency, but changes at most by the factor 2 per batch.
+     * 
+     * @param size     - current batch size
+     * @param duration - observed latency in ms
+     * @return new batch size
+     */
+    int adaptBatchSize(int size, long duration) {
+        double factor = (double) compactorLatency / Math.max(1, duration);
+        factor = Math.min(2.0, Math.max(0.5, factor));
+        int newSize = (int) Math.round(size * factor);
+        return Math.min(MAX_BATCH_SIZE, Math.max(MIN_BATCH_SIZE, newSize));
     }
 
     /**
@@ -0,0 +1,137 @@
+/*******************************************************************************
+ * Imixs-Workflow Archive 
+ * Copyright (C) 2001-2018 Imixs Software Solutions GmbH,  
+ * http://www.imixs.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ *
+ * Project: 
+ * 	http://www.imixs.org
+ *
+ * Contributors:  
+ * 	Imixs Software Solutions GmbH - initial API and implementation
+ * 	Ralph Soika - Software Developer
+ *******************************************************************************/
+
+package org.imixs.archive.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+import org.imixs.workflow.ItemCollection;
+import org.imixs.workflow.engine.EventLogService;
+import org.imixs.workflow.engine.jpa.EventLog;
+
+import jakarta.annotation.security.DeclareRoles;
+import jakarta.annotation.security.RunAs;
+import jakarta.ejb.EJB;
+import jakarta.ejb.LocalBean;
+import jakarta.ejb.Stateless;
+import jakarta.ejb.TransactionAttribute;
+import jakarta.ejb.TransactionAttributeType;
+
+/**
+ * The SnapshotHistoryJob removes deprecated snapshots and the snapshots of
+ * deleted documents in a separate transaction. The service is used by the
+ * SnapshotHistoryService class.
+ * 
+ * @version 1.0
+ * @author rsoika
+ */
+@Stateless
+@LocalBean
+@DeclareRoles({ "org.imixs.ACCESSLEVEL.MANAGERACCESS" })
+@RunAs("org.imixs.ACCESSLEVEL.MANAGERACCESS")
+public class SnapshotHistoryJob {
+
+    private static Logger logger = Logger.getLogger(SnapshotHistoryJob.class.getName());
+
+    @EJB
+    SnapshotService snapshotService;
+
+    @EJB
+    EventLogService eventLogService;
+
+    /**
+     * Processes the 'snapshot.history' event log entries of a single document in a
+     * new transaction. The history of the document is cleaned once based on the
+     * given latest snapshot. The method returns the items 'events.processed' and
+     * 'snapshots.deleted'.
+     * 
+     * @param eventLogEntries - event log entries of the document
+     * @param snapshotID      - latest snapshot of the document or null
+     * @return result
+     */
+    @TransactionAttribute(value = TransactionAttributeType.REQUIRES_NEW)
+    public ItemCollection processEventLogEntries(List<EventLog> eventLogEntries, String snapshotID) {
+        ItemCollection result = new ItemCollection();
+        List<EventLog> lockedEntries = new ArrayList<EventLog>();
+        for (EventLog eventLog : eventLogEntries) {
+            // lock the entry to avoid concurrent processing by another cluster node
+            if (eventLogService.lock(eventLog)) {
+                lockedEntries.add(eventLog);
+            }
+        }
+        int deletions = 0;
+        if (!lockedEntries.isEmpty() && snapshotID != null) {
+            deletions = snapshotService.cleanSnaphostHistory(snapshotID);
+        }
+        for (EventLog eventLog : lockedEntries) {
+            eventLogService.removeEvent(eventLog.getId());
+        }
+        if (deletions > 0) {
+            logger.fine("......" + deletions + " deprecated snapshots removed");
+        }
+        result.setItemValue("events.processed", lockedEntries.size());
+        result.setItemValue("snapshots.deleted", deletions);
+        return result;
+    }
+
+    /**
+     * Removes a list of event log entries in a new transaction. The method is
+     * called for the entries of a document which could not be processed.
+     * 
+     * @param eventLogEntries
+     */
+    @TransactionAttribute(value = TransactionAttributeType.REQUIRES_NEW)
+    public void removeEventLogEntries(List<EventLog> eventLogEntries) {
+        for (EventLog eventLog : eventLogEntries) {
+            eventLogService.removeEvent(eventLog.getId());
+        }
+    }
+
+    /**
+     * Deletes a chunk of snapshots of a deleted document in a new transaction. The
+     * ref of a 'snapshot.delete' event log entry is the uniqueid of the document
+     * suffixed with the deletion time. Only snapshots with a lower id are deleted,
+     * so snapshots created after the deletion (e.g. by a restore) are kept.
+     * 
+     * @param ref       - ref of the event log entry
+     * @param chunkSize - max number of snapshots to be deleted
+     * @return number of deleted snapshots
+     */
+    @TransactionAttribute(value = TransactionAttributeType.REQUIRES_NEW)
+    public int deleteSnapshotChunk(String ref, int chunkSize) {
+        int pos = ref.lastIndexOf('-');
+        if (pos <= 0) {
+            logger.warning("invalid snapshot.delete ref: " + ref);
+            return 0;
+        }
+        List<String> snapshotIDs = snapshotService.findSnapshotIDs(ref.substring(0, pos), ref, chunkSize);
+        return snapshotService.deleteSnapshots(snapshotIDs);
+    }
+
+}
@@ -0,0 +1,313 @@
+/*******************************************************************************
+ * Imixs-Workflow Archive 
+ * Copyright (C) 2001-2018 Imixs Software Solutions GmbH,  
+ * http://www.imixs.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ *
+ * Project: 
+ * 	http://www.imixs.org
+ *
+ * Contributors:  
+ * 	Imixs Software Solutions GmbH - initial API and implementation
+ * 	Ralph Soika - Software Developer
+ *******************************************************************************/
+
+package org.imixs.archive.core;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.imixs.workflow.ItemCollection;
+import org.imixs.workflow.engine.EventLogService;
+import org.imixs.workflow.engine.jpa.EventLog;
+import org.imixs.workflow.exceptions.InvalidAccessException;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.Resource;
+import jakarta.annotation.security.DeclareRoles;
+import jakarta.annotation.security.RunAs;
+import jakarta.ejb.EJBException;
+import jakarta.ejb.Singleton;
+import jakarta.ejb.Startup;
+import jakarta.ejb.Timeout;
+import jakarta.ejb.TimerConfig;
+import jakarta.ejb.TimerService;
+import jakarta.ejb.TransactionAttribute;
+import jakarta.ejb.TransactionAttributeType;
+import jakarta.inject.Inject;
+
+/**
+ * This service removes deprecated snapshots in the background. The
+ * SnapshotService does not clean the snapshot history within the transaction
+ * of a save but creates an event log entry 'snapshot.history' for each new
+ * snapshot. The service processes these entries in batches. The entries of
+ * each document are processed in their own transaction.
+ * <p>
+ * The service also deletes the snapshots of deleted documents with a large
+ * number of snapshots. For these documents the SnapshotService creates an event
+ * log entry 'snapshot.delete'. The snapshots are deleted in chunks, each chunk
+ * in its own transaction.
+ * <p>
+ * The throughput is limited by the max number of snapshots removed per second.
+ * 
+ * Configuration:
+ * 
+ * <pre>
+ * SNAPSHOT_HISTORY_DEFERRED=true
+ * SNAPSHOT_HISTORY_INTERVAL=60
+ * SNAPSHOT_HISTORY_INITIALDELAY=30
+ * SNAPSHOT_HISTORY_BATCHSIZE=100
+ * SNAPSHOT_HISTORY_THROUGHPUT=100
+ * SNAPSHOT_HISTORY_DEADLOCK=300
+ * SNAPSHOT_DELETE_THRESHOLD=100
+ * </pre>
+ * 
+ * @version 1.0
+ * @author rsoika
+ */
+@Singleton
+@Startup
+@TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+@DeclareRoles({ "org.imixs.ACCESSLEVEL.MANAGERACCESS" })
+@RunAs("org.imixs.ACCESSLEVEL.MANAGERACCESS")
+public class SnapshotHistoryService {
+    private static Logger logger = Logger.getLogger(SnapshotHistoryService.class.getName());
+
+    public static final String SNAPSHOT_HISTORY_INTERVAL = "snapshot.history.interval";
+    public static final String SNAPSHOT_HISTORY_INITIALDELAY = "snapshot.history.initialdelay";
+    public static final String SNAPSHOT_HISTORY_BATCHSIZE = "snapshot.history.batchsize";
+    public static final String SNAPSHOT_HISTORY_THROUGHPUT = "snapshot.history.throughput";
+    public static final String SNAPSHOT_HISTORY_DEADLOCK = "snapshot.history.deadlock";
+
+    @Inject
+    SnapshotHistoryJob snapshotHistoryJob;
+
+    @Inject
+    EventLogService eventLogService;
+
+    @Inject
+    @ConfigProperty(name = SnapshotService.PROPERTY_SNAPSHOT_HISTORY_DEFERRED, defaultValue = "true")
+    boolean deferredHistory;
+
+    @Inject
+    @ConfigProperty(name = SnapshotService.PROPERTY_SNAPSHOT_HISTORY, defaultValue = "1")
+    int snapshotHistory;
+
+    @Inject
+    @ConfigProperty(name = SNAPSHOT_HISTORY_INTERVAL, defaultValue = "60") // sec
+    int interval;
+
+    @Inject
+    @ConfigProperty(name = SNAPSHOT_HISTORY_INITIALDELAY, defaultValue = "30") // sec
+    long initialDelay;
+
+    // event log entries processed in one transaction
+    @Inject
+    @ConfigProperty(name = SNAPSHOT_HISTORY_BATCHSIZE, defaultValue = "100")
+    int batchSize;
+
+    // max snapshots removed per second
+    @Inject
+    @ConfigProperty(name = SNAPSHOT_HISTORY_THROUGHPUT, defaultValue = "100")
+    int throughput;
+
+    // timeout for locked 'snapshot.delete' event log entries
+    @Inject
+    @ConfigProperty(name = SNAPSHOT_HISTORY_DEADLOCK, defaultValue = "300") // sec
+    long deadLockTimeout;
+
+    @Inject
+    @ConfigProperty(name = SnapshotService.PROPERTY_SNAPSHOT_DELETE_THRESHOLD, defaultValue = "100")
+    int deleteThreshold;
+
+    @Resource
+    TimerService timerService;
+
+    @PostConstruct
+    public void init() {
+        // init timer....
+        if ((deferredHistory && snapshotHistory > 0) || deleteThreshold > 0) {
+            try {
+                logger.info("├── Scheduling SnapshotHistoryService:");
+                logger.info("│   ├── initialDelay=" + initialDelay + "sec");
+                logger.info("│   ├── interval=" + interval + " sec");
+                logger.info("│   ├── throughput=" + throughput + " snapshots/sec");
+                // Registering a non-persistent Timer Service.
+                final TimerConfig timerConfig = new TimerConfig();
+                timerConfig.setInfo("SNAPSHOT_HISTORY");
+                timerConfig.setPersistent(false);
+                timerService.createIntervalTimer(initialDelay * 1000, interval * 1000, timerConfig);
+            } catch (IllegalArgumentException | IllegalStateException | EJBException e) {
+                logger.warning("Failed to init scheduler: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Processes all 'snapshot.history' and 'snapshot.delete' event log entries in
+     * batches until no more entries exist.
+     * 
+     * @param _timer
+     */
+    @Timeout
+    public void onTimeout(jakarta.ejb.Timer _timer) {
+        try {
+            cleanSnapshotHistory();
+            deleteSnapshots();
+        } catch (InvalidAccessException | EJBException e) {
+            logger.warning("processing snapshot history failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Processes the event log entries in batches. The entries of a batch are
+     * collapsed per document and each document is processed in its own
+     * transaction. If a document fails, its entries are removed so that the
+     * cleanup does not stall. The history of the document is cleaned again with
+     * its next snapshot. After each batch the method pauses if the number of
+     * removed snapshots exceeds the throughput limit.
+     */
+    void cleanSnapshotHistory() {
+        long startTime = System.currentTimeMillis();
+        int totalEvents = 0;
+        int totalDeletions = 0;
+        int totalErrors = 0;
+        try {
+            while (true) {
+                List<EventLog> eventLogEntries = eventLogService.findEventsByTopic(batchSize,
+                        SnapshotService.EVENTLOG_TOPIC_HISTORY);
+                if (eventLogEntries.isEmpty()) {
+                    // no more data
+                    break;
+                }
+                // collect the entries and the latest snapshot of each document
+                Map<String, List<EventLog>> documentEntries = new LinkedHashMap<String, List<EventLog>>();
+                Map<String, String> latestSnapshots = new HashMap<String, String>();
+                for (EventLog eventLog : eventLogEntries) {
+                    String snapshotID = eventLog.getRef();
+                    int pos = snapshotID.lastIndexOf('-');
+                    String uniqueID = (pos > 0) ? snapshotID.substring(0, pos) : snapshotID;
+                    documentEntries.computeIfAbsent(uniqueID, k -> new ArrayList<EventLog>()).add(eventLog);
+                    String latestID = latestSnapshots.get(uniqueID);
+                    if (pos > 0 && (latestID == null || latestID.compareTo(snapshotID) < 0)) {
+                        latestSnapshots.put(uniqueID, snapshotID);
+                    }
+                }
+                int processed = 0;
+                for (Map.Entry<String, List<EventLog>> entry : documentEntries.entrySet()) {
+                    try {
+                        ItemCollection result = snapshotHistoryJob.processEventLogEntries(entry.getValue(),
+                                latestSnapshots.get(entry.getKey()));
+                        processed = processed + result.getItemValueInteger("events.processed");
+                        totalDeletions = totalDeletions + result.getItemValueInteger("snapshots.deleted");
+                    } catch (RuntimeException e) {
+                        logger.warning("processing snapshot history of '" + entry.getKey() + "' failed: "
+                                + e.getMessage());
+                        snapshotHistoryJob.removeEventLogEntries(entry.getValue());
+                        processed = processed + entry.getValue().size();
+                        totalErrors++;
+                    }
+                }
+                totalEvents = totalEvents + processed;
+                if (processed == 0) {
+                    // all entries are processed by another cluster node
+                    break;
+                }
+                // throttle to the max throughput
+                if (throughput > 0) {
+                    long minDuration = totalDeletions * 1000L / throughput;
+                    long duration = System.currentTimeMillis() - startTime;
+                    if (duration < minDuration) {
+                        Thread.sleep(minDuration - duration);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.warning("processing snapshot history interrupted: " + e.getMessage());
+        }
+        if (totalEvents > 0) {
+            logger.info("...snapshot history: " + totalEvents + " events processed, " + totalDeletions
+                    + " snapshots removed, " + totalErrors + " errors in " + (System.currentTimeMillis() - startTime)
+                    + "ms");
+        }
+    }
+
+    /**
+     * Deletes the snapshots of deleted documents. Each 'snapshot.delete' event log
+     * entry is locked and its snapshots are deleted in chunks of the batch size.
+     * The entry is removed after all snapshots are deleted. The deletion is
+     * throttled to the same throughput as the history cleanup.
+     */
+    void deleteSnapshots() {
+        long startTime = System.currentTimeMillis();
+        int totalEvents = 0;
+        int totalDeletions = 0;
+        // release entries of a cluster node which failed during the deletion
+        eventLogService.releaseDeadLocks(deadLockTimeout * 1000, SnapshotService.EVENTLOG_TOPIC_DELETE);
+        try {
+            while (true) {
+                List<EventLog> eventLogEntries = eventLogService.findEventsByTopic(batchSize,
+                        SnapshotService.EVENTLOG_TOPIC_DELETE);
+                if (eventLogEntries.isEmpty()) {
+                    // no more data
+                    break;
+                }
+                int lockedEvents = 0;
+                for (EventLog eventLog : eventLogEntries) {
+                    if (!eventLogService.lock(eventLog)) {
+                        continue;
+                    }
+                    lockedEvents++;
+                    while (true) {
+                        int deleted = snapshotHistoryJob.deleteSnapshotChunk(eventLog.getRef(), batchSize);
+                        totalDeletions = totalDeletions + deleted;
+                        if (deleted < batchSize) {
+                            break;
+                        }
+                        // throttle to the max throughput
+                        if (throughput > 0) {
+                            long minDuration = totalDeletions * 1000L / throughput;
+                            long duration = System.currentTimeMillis() - startTime;
+                            if (duration < minDuration) {
+                                Thread.sleep(minDuration - duration);
+                            }
+                        }
+                    }
+                    eventLogService.removeEvent(eventLog.getId());
+                    totalEvents++;
+                }
+                if (lockedEvents == 0) {
+                    // all entries are processed by another cluster node
+                    break;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.warning("deleting snapshots interrupted: " + e.getMessage());
+        }
+        if (totalEvents > 0) {
+            logger.info("...snapshot deletion: " + totalEvents + " documents processed, " + totalDeletions
+                    + " snapshots removed in " + (System.currentTimeMillis() - startTime) + "ms");
+        }
+    }
+
+}
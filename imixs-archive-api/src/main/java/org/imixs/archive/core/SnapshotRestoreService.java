@@ -0,0 +1,233 @@
+/*******************************************************************************
+ * Imixs-Workflow Archive 
+ * Copyright (C) 2001-2018 Imixs Software Solutions GmbH,  
+ * http://www.imixs.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ *
+ * Project: 
+ * 	http://www.imixs.org
+ *
+ * Contributors:  
+ * 	Imixs Software Solutions GmbH - initial API and implementation
+ * 	Ralph Soika - Software Developer
+ *******************************************************************************/
+
+package org.imixs.archive.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.logging.Logger;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.imixs.workflow.FileData;
+import org.imixs.workflow.ItemCollection;
+import org.imixs.workflow.WorkflowKernel;
+import org.imixs.workflow.engine.DocumentService;
+import org.imixs.workflow.engine.EventLogService;
+import org.imixs.workflow.exceptions.AccessDeniedException;
+import org.imixs.workflow.exceptions.InvalidAccessException;
+
+import jakarta.annotation.Resource;
+import jakarta.ejb.EJB;
+import jakarta.ejb.EJBException;
+import jakarta.ejb.SessionContext;
+import jakarta.ejb.Stateless;
+import jakarta.ejb.TransactionAttribute;
+import jakarta.ejb.TransactionAttributeType;
+import jakarta.inject.Inject;
+
+/**
+ * The SnapshotRestoreService restores snapshots into the workflow instance. For
+ * each snapshot the snapshot entity is restored if not exists and the origin
+ * document is updated.
+ * <p>
+ * A list of snapshots is restored in chunks. Each chunk is committed in its own
+ * transaction. The chunk size is defined by the property
+ * 'snapshot.restore.chunksize' (default 10). If a chunk fails, the snapshots of
+ * this chunk are restored one by one to report the result of each snapshot.
+ * 
+ * @version 1.0
+ * @author rsoika
+ */
+@Stateless
+public class SnapshotRestoreService {
+
+    public static final String ENV_SNAPSHOT_RESTORE_CHUNKSIZE = "snapshot.restore.chunksize";
+
+    public static final String ITEM_SNAPSHOTID = "$snapshotid";
+    public static final String ITEM_ERROR_CODE = "$error_code";
+    public static final String ITEM_ERROR_MESSAGE = "$error_message";
+
+    private static Logger logger = Logger.getLogger(SnapshotRestoreService.class.getName());
+
+    @Inject
+    @ConfigProperty(name = SnapshotService.ENV_ARCHIVE_SERVICE_ENDPOINT)
+    Optional<String> archiveServiceEndpoint;
+
+    @Inject
+    @ConfigProperty(name = ENV_SNAPSHOT_RESTORE_CHUNKSIZE, defaultValue = "10")
+    int chunkSize;
+
+    @Resource
+    SessionContext ejbCtx;
+
+    @EJB
+    DocumentService documentService;
+
+    @EJB
+    EventLogService eventLogService;
+
+    /**
+     * Restores a list of snapshots in chunks and returns a result for each
+     * snapshot. The result contains the item '$snapshotid' and in case of an
+     * error the items '$error_code' and '$error_message'.
+     * 
+     * @param snapshots
+     * @return list of results
+     */
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public List<ItemCollection> restoreSnapshots(List<ItemCollection> snapshots) {
+        List<ItemCollection> result = new ArrayList<ItemCollection>();
+        SnapshotRestoreService service = ejbCtx.getBusinessObject(SnapshotRestoreService.class);
+        int size = Math.max(1, chunkSize);
+        for (int i = 0; i < snapshots.size(); i = i + size) {
+            List<ItemCollection> chunk = snapshots.subList(i, Math.min(i + size, snapshots.size()));
+            try {
+                service.restoreChunk(chunk);
+                for (ItemCollection snapshot : chunk) {
+                    result.add(createResult(snapshot, null));
+                }
+            } catch (EJBException | InvalidAccessException e) {
+                if (chunk.size() == 1) {
+                    logger.severe("...failed to restore snapshot '" + chunk.get(0).getUniqueID() + "': "
+                            + e.getMessage());
+                    result.add(createResult(chunk.get(0), e));
+                    continue;
+                }
+                // restore each snapshot of the chunk
+                for (ItemCollection snapshot : chunk) {
+                    try {
+                        service.restoreChunk(Collections.singletonList(snapshot));
+                        result.add(createResult(snapshot, null));
+                    } catch (EJBException | InvalidAccessException e1) {
+                        logger.severe("...failed to restore snapshot '" + snapshot.getUniqueID() + "': "
+                                + e1.getMessage());
+                        result.add(createResult(snapshot, e1));
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Restores a chunk of snapshots in a new transaction.
+     * 
+     * @param snapshots
+     */
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public void restoreChunk(List<ItemCollection> snapshots) {
+        for (ItemCollection snapshot : snapshots) {
+            restoreSnapshot(snapshot);
+        }
+    }
+
+    /**
+     * The method restores a single snapshot.
+     * <p>
+     * The method updates the origin document as also the snapshot data if needed.
+     * 
+     * @param snapshot - snapshot to be restored
+     * @return the restored origin document
+     * @throws AccessDeniedException
+     */
+    public ItemCollection restoreSnapshot(ItemCollection snapshot) throws AccessDeniedException {
+        // first we restore the snapshot entity if not exists....
+        if (documentService.load(snapshot.getUniqueID()) == null) {
+            snapshot = documentService.save(snapshot);
+            logger.info("......snapshot '" + snapshot.getUniqueID() + "' restored.");
+        }
+        // now we update the origin document....
+        ItemCollection document = new ItemCollection(snapshot);
+        // modify uniqueid
+        String snapshotID = snapshot.getUniqueID();
+        String originUnqiueID = snapshotID.substring(0, snapshotID.lastIndexOf("-"));
+        document.setItemValue(WorkflowKernel.UNIQUEID, originUnqiueID);
+        // remove version, immutable and noindex flags...
+        document.removeItem(DocumentService.NOINDEX);
+        document.removeItem(DocumentService.IMMUTABLE);
+        document.removeItem(DocumentService.VERSION);
+
+        // remove file content...
+        List<FileData> files = document.getFileData();
+        // empty data...
+        byte[] empty = {};
+        for (FileData fileData : files) {
+            if (fileData.getContent() != null && fileData.getContent().length > 0) {
+                // update the file name with empty data
+                logger.fine("drop content for file '" + fileData.getName() + "'");
+                document.addFileData(new FileData(fileData.getName(), empty, fileData.getContentType(),
+                        fileData.getAttributes()));
+            }
+        }
+        // fix type item - remove snapshot- praefix
+        String type = document.getType();
+        if (type.startsWith(SnapshotService.TYPE_PRAFIX)) {
+            type = type.substring(SnapshotService.TYPE_PRAFIX.length());
+            document.setItemValue("type", type);
+        }
+        // add skipsnapshot flag
+        document.setItemValue(SnapshotService.SKIPSNAPSHOT, true);
+        // update snapshotid...
+        document.setItemValue(SnapshotService.SNAPSHOTID, snapshotID);
+        // remove restore flag if exits...
+        document.removeItem(SnapshotService.ITEM_BACKUPRESTORE);
+        // save origin document...
+        document = documentService.save(document);
+
+        // Explicit write archive event log entry to update ArchiveService...
+        if (archiveServiceEndpoint.isPresent() && !archiveServiceEndpoint.get().isEmpty()) {
+            eventLogService.createEvent(SnapshotService.EVENTLOG_TOPIC_ADD, snapshotID);
+        }
+
+        logger.info("......document '" + originUnqiueID + "' restored.");
+        return document;
+    }
+
+    /**
+     * Creates the result of a single snapshot.
+     */
+    private ItemCollection createResult(ItemCollection snapshot, Exception e) {
+        ItemCollection result = new ItemCollection();
+        result.setItemValue(ITEM_SNAPSHOTID, snapshot.getUniqueID());
+        if (e != null) {
+            Throwable cause = e;
+            if (e instanceof EJBException && e.getCause() != null) {
+                cause = e.getCause();
+            }
+            if (cause instanceof InvalidAccessException) {
+                result.setItemValue(ITEM_ERROR_CODE, ((InvalidAccessException) cause).getErrorCode());
+            } else {
+                result.setItemValue(ITEM_ERROR_CODE, "INTERNAL ERROR");
+            }
+            result.setItemValue(ITEM_ERROR_MESSAGE, cause.getMessage());
+        }
+        return result;
+    }
+
+}
@@ -30,14 +30,23 @@ package org.imixs.archive.core;
 import java.security.NoSuchAlgorithmException;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.TimeZone;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.metrics.Metadata;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.annotation.RegistryScope;
 import org.imixs.archive.core.cassandra.ArchiveRemoteService;
 import org.imixs.melman.RestAPIException;
 import org.imixs.workflow.FileData;
@@ -55,8 +64,12 @@ import jakarta.ejb.EJB;
 import jakarta.ejb.LocalBean;
 import jakarta.ejb.SessionContext;
 import jakarta.ejb.Stateless;
+import jakarta.enterprise.concurrent.ManagedExecutorService;
 import jakarta.enterprise.event.Observes;
 import jakarta.inject.Inject;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.TypedQuery;
 
 /**
  * This service component provides a mechanism to transfer the content of a
@@ -143,7 +156,9 @@ public class SnapshotService {
 
     public static final String PROPERTY_SNAPSHOT_WORKITEMLOB_SUPPORT = "snapshot.workitemlob_suport";
     public static final String PROPERTY_SNAPSHOT_HISTORY = "snapshot.history";
+    public static final String PROPERTY_SNAPSHOT_HISTORY_DEFERRED = "snapshot.history.deferred";
     public static final String PROPERTY_SNAPSHOT_OVERWRITEFILECONTENT = "snapshot.overwriteFileContent";
+    public static final String PROPERTY_SNAPSHOT_DELETE_THRESHOLD = "snapshot.delete.threshold";
 
     // rest service endpoint
     public static final String ENV_ARCHIVE_SERVICE_ENDPOINT = "archive.service.endpoint";
@@ -162,12 +177,24 @@ public class SnapshotService {
     public static final String EVENTLOG_TOPIC_ADD = "snapshot.add";
     public static final String EVENTLOG_TOPIC_REMOVE = "snapshot.remove";
     public static final String EVENTLOG_TOPIC_BACKUP = "snapshot.backup";
+    public static final String EVENTLOG_TOPIC_HISTORY = "snapshot.history";
+    public static final String EVENTLOG_TOPIC_DELETE = "snapshot.delete";
 
     public final static String ITEM_MD5_CHECKSUM = "md5checksum";
+    public final static String ITEM_FILEDATA_TIERED = "$tiered"; // content moved to the archive
+
+    public static final String METRIC_MD5_TIME = "snapshot_md5_time";
+    public static final String METRIC_MD5_BYTES = "snapshot_md5_bytes";
+
+    // max ids per bulk delete statement
+    public static final int DELETE_CHUNK_SIZE = 100;
 
     @Resource
     SessionContext ejbCtx;
 
+    @Resource
+    ManagedExecutorService managedExecutorService;
+
     @EJB
     DocumentService documentService;
 
@@ -177,6 +204,9 @@ public class SnapshotService {
     @EJB
     EventLogService eventLogService;
 
+    @PersistenceContext(unitName = "org.imixs.workflow.jpa")
+    private EntityManager manager;
+
     @Inject
     @ConfigProperty(name = PROPERTY_SNAPSHOT_WORKITEMLOB_SUPPORT, defaultValue = "false")
     boolean allowWorkitemLob;
@@ -189,6 +219,15 @@ public class SnapshotService {
     @ConfigProperty(name = PROPERTY_SNAPSHOT_HISTORY, defaultValue = "1")
     int iSnapshotHistory;
 
+    @Inject
+    @ConfigProperty(name = PROPERTY_SNAPSHOT_HISTORY_DEFERRED, defaultValue = "true")
+    boolean deferredHistory;
+
+    // snapshot count above which the deletion is deferred to the background timer
+    @Inject
+    @ConfigProperty(name = PROPERTY_SNAPSHOT_DELETE_THRESHOLD, defaultValue = "100")
+    int deleteThreshold;
+
     @Inject
     @ConfigProperty(name = ENV_ARCHIVE_SERVICE_ENDPOINT)
     Optional<String> archiveServiceEndpoint;
@@ -197,6 +236,14 @@ public class SnapshotService {
     @ConfigProperty(name = ENV_BACKUP_SERVICE_ENDPOINT)
     Optional<String> backupServiceEndpoint;
 
+    @Inject
+    @ConfigProperty(name = "metrics.enabled", defaultValue = "false")
+    boolean metricsEnabled;
+
+    @Inject
+    @RegistryScope(scope = MetricRegistry.APPLICATION_SCOPE)
+    MetricRegistry metricRegistry;
+
     private static Logger logger = Logger.getLogger(SnapshotService.class.getName());
 
     /**
@@ -262,7 +309,7 @@ public class SnapshotService {
         if (debug) {
             logger.fine("creating new snapshot-workitem.... ");
         }
-        ItemCollection snapshot = (ItemCollection) documentEvent.getDocument().clone();
+        ItemCollection snapshot = createSnapshot(documentEvent.getDocument());
 
         // 2.) compute a snapshot $uniqueId containing a timestamp
         String snapshotUniqueID = documentEvent.getDocument().getUniqueID() + "-" + System.currentTimeMillis();
@@ -290,35 +337,46 @@ public class SnapshotService {
         // returns an empty result as long as the transaction is not closed. But the
         // method docmentService.load() does fetch a newly saved document by its primary
         // key within the same transaction.
-        ItemCollection lastSnapshot = documentService.load(documentEvent.getDocument().getItemValueString(SNAPSHOTID));
+        // The last snapshot is only loaded if the content or the checksum of a file
+        // is needed.
+        ItemCollection lastSnapshot = null;
         boolean isBlobWorkitem = false; // support deprecated $blobWorkitems...
+        if (isLastSnapshotRequired(snapshot, documentEvent.getDocument())) {
+            lastSnapshot = documentService.load(documentEvent.getDocument().getItemValueString(SNAPSHOTID));
 
-        // in case that we have no snapshot but a UNIQUEIDSOURCE we can lookup here the
-        // snapshot from the origin version
-        if (lastSnapshot == null
-                && !documentEvent.getDocument().getItemValueString(WorkflowKernel.UNIQUEIDSOURCE).isEmpty()) {
+            // in case that we have no snapshot but a UNIQUEIDSOURCE we can lookup here the
+            // snapshot from the origin version
+            if (lastSnapshot == null
+                    && !documentEvent.getDocument().getItemValueString(WorkflowKernel.UNIQUEIDSOURCE).isEmpty()) {
 
-            if (debug) {
-                logger.fine("lookup last snapshot from origin version: '"
-                        + documentEvent.getDocument().getItemValueString(WorkflowKernel.UNIQUEIDSOURCE) + "'");
+                if (debug) {
+                    logger.fine("lookup last snapshot from origin version: '"
+                            + documentEvent.getDocument().getItemValueString(WorkflowKernel.UNIQUEIDSOURCE) + "'");
+                }
+                lastSnapshot = documentService.load(documentEvent.getDocument().getItemValueString(SNAPSHOTID));
             }
-            lastSnapshot = documentService.load(documentEvent.getDocument().getItemValueString(SNAPSHOTID));
-        }
 
-        // in case that we have still no snapshot but a $blobWorkitem we can lookup
-        // here the deprecated $blobWorkitem
-        if (lastSnapshot == null && !documentEvent.getDocument().getItemValueString("$blobworkitem").isEmpty()) {
-            if (debug) {
-                logger.fine("lookup last blobworkitem: '"
-                        + documentEvent.getDocument().getItemValueString("$blobworkitem") + "'");
+            // in case that we have still no snapshot but a $blobWorkitem we can lookup
+            // here the deprecated $blobWorkitem
+            if (lastSnapshot == null && !documentEvent.getDocument().getItemValueString("$blobworkitem").isEmpty()) {
+                if (debug) {
+                    logger.fine("lookup last blobworkitem: '"
+                            + documentEvent.getDocument().getItemValueString("$blobworkitem") + "'");
+                }
+                // try to load the blobWorkitem
+                lastSnapshot = documentService.load(documentEvent.getDocument().getItemValueString("$blobworkitem"));
+                if (lastSnapshot != null) {
+                    logger.info("migrating file content from deprecated blobWorkitem '"
+                            + documentEvent.getDocument().getUniqueID() + "' ....");
+                    isBlobWorkitem = true; // support deprecated $blobWorkitems...
+                }
             }
-            // try to load the blobWorkitem
-            lastSnapshot = documentService.load(documentEvent.getDocument().getItemValueString("$blobworkitem"));
-            if (lastSnapshot != null) {
-                logger.info("migrating file content from deprecated blobWorkitem '"
-                        + documentEvent.getDocument().getUniqueID() + "' ....");
-                isBlobWorkitem = true; // support deprecated $blobWorkitems...
+        } else {
+            if (debug) {
+                logger.fine("last snapshot not required - no file content to be copied");
             }
+            // clean "$snapshot.overwriteFileContent"
+            documentEvent.getDocument().replaceItemValue(ITEM_SNAPSHOT_OVERWRITEFILECONTENT, "");
         }
 
         if (lastSnapshot != null) {
@@ -352,8 +410,15 @@ public class SnapshotService {
 
         documentService.save(snapshot);
 
-        // 8. remove deprecated snapshots
-        cleanSnaphostHistory(snapshot.getUniqueID());
+        // 8. remove deprecated snapshots. In deferred mode the snapshots are removed
+        // by the SnapshotHistoryService in the background.
+        if (deferredHistory) {
+            if (iSnapshotHistory > 0) {
+                eventLogService.createEvent(EVENTLOG_TOPIC_HISTORY, snapshot.getUniqueID());
+            }
+        } else {
+            cleanSnaphostHistory(snapshot.getUniqueID());
+        }
 
         // 9. write archive event log entry only if we have a ArchiveService...
         if (archiveServiceEndpoint.isPresent() && !archiveServiceEndpoint.get().isEmpty()) {
@@ -402,14 +467,73 @@ public class SnapshotService {
             }
         }
 
-        // 1.) find all snapshots
-        List<ItemCollection> snappshotList = findAllSnapshots(documentEvent.getDocument().getUniqueID());
+        // 1.) find all snapshot ids
+        String uniqueID = documentEvent.getDocument().getUniqueID();
+        List<String> snapshotIDs = findAllSnapshotIDs(uniqueID);
+
+        // 2.) delete all snapshots - a large number of snapshots is deleted by the
+        // SnapshotHistoryService in the background. The ref of the event log entry
+        // is the upper bound of the snapshot ids to be deleted.
+        if (deleteThreshold > 0 && snapshotIDs.size() > deleteThreshold) {
+            logger.fine("...defer deletion of " + snapshotIDs.size() + " snapshots of '" + uniqueID + "'");
+            eventLogService.createEvent(EVENTLOG_TOPIC_DELETE, uniqueID + "-" + System.currentTimeMillis());
+        } else {
+            deleteSnapshots(snapshotIDs);
+        }
+
+    }
+
+    /**
+     * This method returns the ids of all existing Snapshot-workitems for a given
+     * $UNIQUEID. In difference to findAllSnapshots the method does not load the
+     * snapshot entities.
+     * 
+     * @param uniqueid
+     * @return list of snapshot ids
+     */
+    public List<String> findAllSnapshotIDs(String uniqueid) {
+        return findSnapshotIDs(uniqueid, uniqueid + "-9999999999999", -1);
+    }
 
-        // 2.) delete all snapshots
-        for (ItemCollection snapshot : snappshotList) {
-            documentService.remove(snapshot);
+    /**
+     * This method returns the ids of the Snapshot-workitems for a given $UNIQUEID
+     * lower than the given snapshot id, sorted by the id ascending.
+     * 
+     * @param uniqueid
+     * @param maxID    - upper bound (exclusive)
+     * @param maxCount - max number of ids or -1 for all
+     * @return list of snapshot ids
+     */
+    public List<String> findSnapshotIDs(String uniqueid, String maxID, int maxCount) {
+        if (uniqueid == null || uniqueid.isEmpty()) {
+            throw new SnapshotException(DocumentService.INVALID_UNIQUEID, "undefined $uniqueid");
+        }
+        TypedQuery<String> q = manager.createQuery("SELECT document.id FROM Document AS document"
+                + " WHERE document.id > :minID AND document.id < :maxID ORDER BY document.id", String.class);
+        q.setParameter("minID", uniqueid + "-");
+        q.setParameter("maxID", maxID);
+        if (maxCount > 0) {
+            q.setMaxResults(maxCount);
         }
+        return q.getResultList();
+    }
 
+    /**
+     * This method deletes a list of snapshots by their ids with bulk delete
+     * statements. The snapshots are not loaded and no DocumentEvent is fired.
+     * Snapshots are not part of the search index.
+     * 
+     * @param snapshotIDs
+     * @return number of deleted snapshots
+     */
+    public int deleteSnapshots(List<String> snapshotIDs) {
+        int count = 0;
+        for (int i = 0; i < snapshotIDs.size(); i = i + DELETE_CHUNK_SIZE) {
+            List<String> chunk = snapshotIDs.subList(i, Math.min(i + DELETE_CHUNK_SIZE, snapshotIDs.size()));
+            count = count + manager.createQuery("DELETE FROM Document document WHERE document.id IN :ids")
+                    .setParameter("ids", chunk).executeUpdate();
+        }
+        return count;
     }
 
     /**
@@ -446,6 +570,9 @@ public class SnapshotService {
         snapshotID = workitem.getItemValueString("$snapshotid");
         if (!snapshotID.isEmpty()) {
             snapshot = documentService.load(snapshotID);
+            if (snapshot != null && !loadTieredFileContent(snapshot)) {
+                logger.warning("Failed to load tiered file content of snapshot '" + snapshotID + "' from archive");
+            }
             if (snapshot == null) {
                 // remote call...
                 try {
@@ -481,12 +608,78 @@ public class SnapshotService {
 
         ItemCollection snapshot = documentService.load(snapshotID);
         if (snapshot != null) {
-            return snapshot.getFileData(file);
+            FileData fileData = snapshot.getFileData(file);
+            if (isTiered(fileData)) {
+                byte[] content = loadTieredContent(fileData);
+                if (content != null) {
+                    fileData = new FileData(fileData.getName(), content, fileData.getContentType(),
+                            fileData.getAttributes());
+                } else {
+                    logger.warning("Failed to load tiered file content '" + file + "' from archive");
+                }
+            }
+            return fileData;
         }
 
         return null;
     }
 
+    /**
+     * This method loads the content of all tiered files of a snapshot from the
+     * archive. The content of a tiered file was removed from the local snapshot by
+     * the SnapshotTieringService after the archive confirmed the storage. Only the
+     * md5 checksum of the content is kept in the file attributes.
+     * 
+     * @param snapshot - snapshot
+     * @return false if the content of a tiered file could not be loaded
+     */
+    public boolean loadTieredFileContent(ItemCollection snapshot) {
+        boolean result = true;
+        for (FileData fileData : snapshot.getFileData()) {
+            if (isTiered(fileData)) {
+                byte[] content = loadTieredContent(fileData);
+                if (content != null) {
+                    snapshot.addFileData(new FileData(fileData.getName(), content, fileData.getContentType(),
+                            fileData.getAttributes()));
+                } else {
+                    result = false;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns true if the content of the given file was moved to the archive.
+     * 
+     * @param fileData
+     * @return true if the file is tiered
+     */
+    public static boolean isTiered(FileData fileData) {
+        if (fileData == null || (fileData.getContent() != null && fileData.getContent().length > 0)) {
+            return false;
+        }
+        return new ItemCollection(fileData.getAttributes()).getItemValueBoolean(ITEM_FILEDATA_TIERED);
+    }
+
+    /**
+     * Loads the content of a tiered file from the archive by its md5 checksum.
+     * 
+     * @param fileData
+     * @return file content or null if not available
+     */
+    private byte[] loadTieredContent(FileData fileData) {
+        try {
+            byte[] content = archiveRemoteService.loadFileFromArchive(fileData);
+            if (content != null && content.length > 0) {
+                return content;
+            }
+        } catch (RestAPIException e) {
+            logger.warning("Failed to load tiered file content '" + fileData.getName() + "': " + e.getMessage());
+        }
+        return null;
+    }
+
     /**
      * This method removes all snapshots older than defined by the imixs property
      * 'snapshot.hystory'. If the snapshot.history is set to '0' no
@@ -495,8 +688,10 @@ public class SnapshotService {
      * This method protects snapshots from a split-event which are assigned to the
      * current workitem but belong to the origin version!
      * 
+     * @param snapshotID - the latest snapshot
+     * @return number of removed snapshots
      */
-    void cleanSnaphostHistory(String snapshotID) {
+    public int cleanSnaphostHistory(String snapshotID) {
         if (snapshotID == null || snapshotID.isEmpty()) {
             throw new SnapshotException(DocumentService.INVALID_UNIQUEID, "invalid " + SNAPSHOTID);
         }
@@ -507,7 +702,7 @@ public class SnapshotService {
         }
         // skip if history = 0
         if (iSnapshotHistory == 0) {
-            return;
+            return 0;
         }
 
         // we do not want to delete snapshots which belong to the origin workitem of a
@@ -520,6 +715,7 @@ public class SnapshotService {
                 + "-' AND document.id < '" + snapshotID + "' ORDER BY document.id ASC";
 
         List<ItemCollection> result = documentService.getDocumentsByQuery(query);
+        int deletions = 0;
         while (result.size() >= iSnapshotHistory) {
             ItemCollection oldSnapshot = result.get(0);
             if (debug) {
@@ -531,6 +727,7 @@ public class SnapshotService {
                 // see issue #78
                 if (documentService.load(oldSnapshot.getUniqueID()) != null) {
                     documentService.remove(oldSnapshot);
+                    deletions++;
                 } else {
                     if (debug) {
                         logger.fine("......snapshot '" + oldSnapshot.getUniqueID()
@@ -543,6 +740,56 @@ public class SnapshotService {
             }
             result.remove(0);
         }
+        return deletions;
+    }
+
+    /**
+     * This helper method creates a copy of the origin workitem. All items except
+     * the file data are deep copied. The file content is not copied but shared
+     * between the origin workitem and the snapshot. The content of a FileData
+     * object is never modified - changed content is always added as a new
+     * FileData object. So the content arrays can be shared safely.
+     * 
+     * @param origin - origin workitem
+     * @return new snapshot
+     */
+    private ItemCollection createSnapshot(ItemCollection origin) {
+        Map<String, List<Object>> items = new HashMap<String, List<Object>>(origin.getAllItems());
+        items.remove("$file");
+        ItemCollection snapshot = new ItemCollection(items);
+        for (FileData fileData : origin.getFileData()) {
+            snapshot.addFileData(new FileData(fileData.getName(), fileData.getContent(), fileData.getContentType(),
+                    new ItemCollection(fileData.getAttributes()).getAllItems()));
+        }
+        return snapshot;
+    }
+
+    /**
+     * This helper method returns true if the last snapshot is needed to complete
+     * the file data of a new snapshot. This is the case if the content of a file
+     * is missing, or if the content of an existing file needs to be protected (see
+     * 'snapshot.overwriteFileContent').
+     * 
+     * @param snapshot - new snapshot
+     * @param origin   - origin workitem
+     * @return true if the last snapshot is required
+     */
+    private boolean isLastSnapshotRequired(ItemCollection snapshot, ItemCollection origin) {
+        List<String> overwriteFileList = origin.getItemValueList(ITEM_SNAPSHOT_OVERWRITEFILECONTENT, String.class);
+        boolean blobWorkitem = !origin.getItemValueString("$blobworkitem").isEmpty();
+        for (FileData fileData : snapshot.getFileData()) {
+            String fileName = fileData.getName();
+            byte[] content = fileData.getContent();
+            if (content == null || content.length == 0 || (blobWorkitem && content.length <= 2)) {
+                // links do not have content
+                if (!fileName.matches(REGEX_URL_PATTERN)) {
+                    return true;
+                }
+            } else if (!overwriteFileContent && !overwriteFileList.contains(fileName)) {
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
@@ -588,7 +835,7 @@ public class SnapshotService {
 
                         // Here we copy the old content but the new attributes which maybe have changed
                         // (e.g. new ocr text)
-                        target.addFileData(new FileData(fileName, oldFileData.getContent(),
+                        target.addFileData(new FileData(fileName, getFileContent(oldFileData),
                                 fileData.getContentType(), fileData.getAttributes()));
 
                     } else {
@@ -655,7 +902,8 @@ public class SnapshotService {
                             // add filename with empty data to origin
                             byte[] empty = {};
                             dmsColOld.replaceItemValue("txtname", protectedFileName);
-                            target.addFileData(new FileData(protectedFileName, oldFileData.getContent(),
+                            dmsColOld.removeItem(ITEM_FILEDATA_TIERED);
+                            target.addFileData(new FileData(protectedFileName, getFileContent(oldFileData),
                                     oldFileData.getContentType(), dmsColOld.getAllItems()));
                             origin.addFileData(new FileData(protectedFileName, empty, oldFileData.getContentType(),
                                     dmsColOld.getAllItems()));
@@ -670,12 +918,35 @@ public class SnapshotService {
 
     }
 
+    /**
+     * Returns the content of a file from the last snapshot. If the file is tiered,
+     * the content is loaded from the archive. A new snapshot must never refer to
+     * tiered content, so the method throws a SnapshotException if the content is
+     * not available.
+     * 
+     * @param fileData - file of the last snapshot
+     * @return file content
+     */
+    private byte[] getFileContent(FileData fileData) {
+        if (!isTiered(fileData)) {
+            return fileData.getContent();
+        }
+        byte[] content = loadTieredContent(fileData);
+        if (content == null) {
+            throw new SnapshotException(SnapshotException.INVALID_DATA,
+                    "tiered file content '" + fileData.getName() + "' not available in archive");
+        }
+        return content;
+    }
+
     /**
      * This method updates the property customAttributes for each file of the
      * current workitem with the meta data of attached files or links.
      * <p>
      * In addition the method generates the items 'dms_count' and 'dms_names' with
      * the number of attachments and a list of all filenames.
+     * <p>
+     * The MD5 checksums are computed by the method computeChecksums.
      * 
      * @param workitem - target workitem
      * @param username - optional username
@@ -685,6 +956,7 @@ public class SnapshotService {
     private void updateCustomAttributes(ItemCollection workitem, String username) throws NoSuchAlgorithmException {
 
         List<FileData> currentFileData = workitem.getFileData();
+        Map<String, String> checksums = computeChecksums(currentFileData);
         // String customContent = "";
         // now we test for each file entry if a new content was uploaded....
         for (FileData fileData : currentFileData) {
@@ -696,7 +968,7 @@ public class SnapshotService {
             if (fileData.getContent() != null && fileData.getContent().length > 1) {
                 String oldChecksum = customAtributes.getItemValueString(ITEM_MD5_CHECKSUM);
 
-                String newChecksum = fileData.generateMD5();
+                String newChecksum = checksums.get(fileData.getName());
                 customAtributes.replaceItemValue(ITEM_MD5_CHECKSUM, newChecksum);
                 customAtributes.replaceItemValue("size", fileData.getContent().length);
                 customAtributes.replaceItemValue("txtname", fileData.getName());
@@ -727,4 +999,85 @@ public class SnapshotService {
 
     }
 
+    /**
+     * This method computes the MD5 checksums of all files with content and returns
+     * the checksums by file name. The files are hashed in parallel.
+     * <p>
+     * If the property 'metrics.enabled' is true, the time spent for hashing and the
+     * hashed bytes are provided as metrics.
+     * 
+     * @param files - list of files
+     * @return map of checksums by file name
+     * @throws NoSuchAlgorithmException
+     */
+    private Map<String, String> computeChecksums(List<FileData> files) throws NoSuchAlgorithmException {
+        Map<String, String> result = new HashMap<String, String>();
+        List<FileData> newFiles = new ArrayList<FileData>();
+        for (FileData fileData : files) {
+            byte[] content = fileData.getContent();
+            if (content != null && content.length > 1) {
+                newFiles.add(fileData);
+            }
+        }
+        if (newFiles.isEmpty()) {
+            return result;
+        }
+
+        long startTime = System.nanoTime();
+        long bytes = 0;
+        if (newFiles.size() > 1 && managedExecutorService != null) {
+            List<Future<String>> futures = new ArrayList<Future<String>>();
+            for (FileData fileData : newFiles) {
+                futures.add(managedExecutorService.submit(fileData::generateMD5));
+            }
+            for (int i = 0; i < newFiles.size(); i++) {
+                try {
+                    result.put(newFiles.get(i).getName(), futures.get(i).get());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new SnapshotException(SnapshotException.INVALID_DATA,
+                            "computing md5 checksum interrupted: " + e.getMessage(), e);
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof NoSuchAlgorithmException) {
+                        throw (NoSuchAlgorithmException) e.getCause();
+                    }
+                    throw new SnapshotException(SnapshotException.INVALID_DATA,
+                            "computing md5 checksum failed: " + e.getMessage(), e);
+                }
+            }
+        } else {
+            for (FileData fileData : newFiles) {
+                result.put(fileData.getName(), fileData.generateMD5());
+            }
+        }
+        for (FileData fileData : newFiles) {
+            bytes = bytes + fileData.getContent().length;
+        }
+        long duration = System.nanoTime() - startTime;
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("......computed md5 checksums of " + newFiles.size() + " files (" + bytes + " bytes) in "
+                    + (duration / 1000000) + "ms");
+        }
+        updateChecksumMetrics(duration, bytes);
+        return result;
+    }
+
+    /**
+     * Updates the metrics for the computation of the MD5 checksums.
+     */
+    private void updateChecksumMetrics(long duration, long bytes) {
+        if (!metricsEnabled || metricRegistry == null || bytes == 0) {
+            return;
+        }
+        try {
+            metricRegistry.timer(Metadata.builder().withName(METRIC_MD5_TIME)
+                    .withDescription("Imixs-Archive time computing md5 checksums of file content").build())
+                    .update(Duration.ofNanos(duration));
+            metricRegistry.counter(Metadata.builder().withName(METRIC_MD5_BYTES)
+                    .withDescription("Imixs-Archive bytes hashed for md5 checksums").build()).inc(bytes);
+        } catch (RuntimeException e) {
+            logger.warning("Unable to update md5 metrics: " + e.getMessage());
+        }
+    }
+
 }
\ No newline at end of file
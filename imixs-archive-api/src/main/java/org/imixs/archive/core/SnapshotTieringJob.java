@@ -0,0 +1,302 @@
+/*******************************************************************************
+ * Imixs-Workflow Archive 
+ * Copyright (C) 2001-2018 Imixs Software Solutions GmbH,  
+ * http://www.imixs.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ *
+ * Project: 
+ * 	http://www.imixs.org
+ *
+ * Contributors:  
+ * 	Imixs Software Solutions GmbH - initial API and implementation
+ * 	Ralph Soika - Software Developer
+ *******************************************************************************/
+
+package org.imixs.archive.core;
+
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.imixs.archive.core.cassandra.ArchiveRemoteService;
+import org.imixs.melman.RestAPIException;
+import org.imixs.workflow.FileData;
+import org.imixs.workflow.ItemCollection;
+import org.imixs.workflow.engine.jpa.Document;
+
+import jakarta.annotation.security.DeclareRoles;
+import jakarta.annotation.security.RunAs;
+import jakarta.ejb.EJB;
+import jakarta.ejb.LocalBean;
+import jakarta.ejb.Stateless;
+import jakarta.ejb.TransactionAttribute;
+import jakarta.ejb.TransactionAttributeType;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.TypedQuery;
+
+/**
+ * The SnapshotTieringJob removes the file content of snapshot entities in a
+ * separate transaction. The service is used by the SnapshotTieringService
+ * class.
+ * <p>
+ * Snapshots are immutable. For this reason the job updates the document entity
+ * directly. The modified date of the snapshot is not changed so the grace
+ * period of the SnapshotCompactorService is not affected.
+ * <p>
+ * The snapshot referred by the current $snapshotid of a workitem is not tiered.
+ * The SnapshotService copies the file content of this snapshot on each save of
+ * the workitem, which would otherwise require a remote call to the archive.
+ * 
+ * @version 1.0
+ * @author rsoika
+ */
+@Stateless
+@LocalBean
+@DeclareRoles({ "org.imixs.ACCESSLEVEL.MANAGERACCESS" })
+@RunAs("org.imixs.ACCESSLEVEL.MANAGERACCESS")
+public class SnapshotTieringJob {
+
+    private static Logger logger = Logger.getLogger(SnapshotTieringJob.class.getName());
+
+    @EJB
+    ArchiveRemoteService archiveRemoteService;
+
+    @PersistenceContext(unitName = "org.imixs.workflow.jpa")
+    private EntityManager manager;
+
+    /**
+     * Processes the next batch of snapshots modified before the given cutoff date
+     * in a new transaction. The batch starts after the given checkpoint defined by
+     * the modified date and the id of the last processed snapshot.
+     * <p>
+     * The method returns the items 'snapshots.processed', 'snapshots.tiered',
+     * 'bytes.released' and the new checkpoint 'checkpoint.modified' and
+     * 'checkpoint.id'.
+     * 
+     * @param cutoff       - max modified date
+     * @param lastModified - modified date of the last processed snapshot
+     * @param lastID       - id of the last processed snapshot
+     * @param batchSize
+     * @return result
+     */
+    @TransactionAttribute(value = TransactionAttributeType.REQUIRES_NEW)
+    public ItemCollection processSnapshotBatch(Calendar cutoff, Calendar lastModified, String lastID, int batchSize) {
+        ItemCollection result = new ItemCollection();
+        String query = "SELECT document FROM Document AS document WHERE document.type LIKE 'snapshot-%'"
+                + " AND document.modified < :cutoff"
+                + " AND (document.modified > :modified OR (document.modified = :modified AND document.id > :id))"
+                + " ORDER BY document.modified ASC, document.id ASC";
+        TypedQuery<Document> q = manager.createQuery(query, Document.class);
+        q.setParameter("cutoff", cutoff);
+        q.setParameter("modified", lastModified);
+        q.setParameter("id", lastID);
+        q.setMaxResults(batchSize);
+        List<Document> documents = q.getResultList();
+        Set<String> pendingBackups = findPendingBackups(documents);
+        Set<String> currentSnapshots = findCurrentSnapshots(documents);
+
+        // collect the snapshots with file content and the md5 checksums of the files
+        List<Document> candidates = new ArrayList<Document>();
+        List<String> candidateIDs = new ArrayList<String>();
+        Set<String> checksums = new LinkedHashSet<String>();
+        for (Document document : documents) {
+            result.setItemValue("checkpoint.modified", document.getModified().getTime());
+            result.setItemValue("checkpoint.id", document.getId());
+            if (pendingBackups.contains(document.getId())) {
+                // the backup service pulls the snapshot with its file content
+                logger.fine("......snapshot " + document.getId() + " has a pending backup");
+                continue;
+            }
+            if (currentSnapshots.contains(document.getId())) {
+                // the content is copied on the next save of the workitem
+                logger.fine("......snapshot " + document.getId() + " is the current snapshot of its workitem");
+                continue;
+            }
+            boolean hasContent = false;
+            for (FileData fileData : new ItemCollection(document.getData()).getFileData()) {
+                if (isTierable(fileData)) {
+                    checksums.add(new ItemCollection(fileData.getAttributes())
+                            .getItemValueString(SnapshotService.ITEM_MD5_CHECKSUM));
+                    hasContent = true;
+                }
+            }
+            if (hasContent) {
+                candidates.add(document);
+                candidateIDs.add(document.getId());
+            }
+        }
+
+        int tiered = 0;
+        long bytes = 0;
+        if (!candidates.isEmpty()) {
+            // verify the snapshots and their files without loading the data
+            Set<String> archivedSnapshots = null;
+            Set<String> archivedChecksums = null;
+            try {
+                archivedSnapshots = archiveRemoteService.existSnapshotsInArchive(candidateIDs);
+                if (archivedSnapshots != null && !archivedSnapshots.isEmpty()) {
+                    archivedChecksums = archiveRemoteService.existDocumentsInArchive(new ArrayList<String>(checksums));
+                }
+            } catch (RestAPIException e) {
+                logger.warning("│   │   ├── Failed to verify snapshots : " + e.getMessage());
+                archivedSnapshots = null;
+            }
+            if (archivedSnapshots != null && !archivedSnapshots.isEmpty() && archivedChecksums == null) {
+                logger.warning("│   │   ├── Archive service does not support the verification of documents!");
+                archivedSnapshots = null;
+            }
+            if (archivedSnapshots != null) {
+                for (Document document : candidates) {
+                    if (!archivedSnapshots.contains(document.getId())) {
+                        logger.fine("......snapshot " + document.getId() + " not yet archived");
+                        continue;
+                    }
+                    long released = tierSnapshot(document, archivedChecksums);
+                    if (released > 0) {
+                        tiered++;
+                        bytes = bytes + released;
+                    }
+                }
+            }
+        }
+        result.setItemValue("snapshots.processed", documents.size());
+        result.setItemValue("snapshots.tiered", tiered);
+        result.setItemValue("bytes.released", bytes);
+        return result;
+    }
+
+    /**
+     * Removes the file content of a single archived snapshot if the archive
+     * confirms the storage of the file. Each tiered file keeps its attributes
+     * including the md5 checksum and is marked with the attribute '$tiered'.
+     * 
+     * @param document          - snapshot entity
+     * @param archivedChecksums - md5 checksums of the files stored in the archive
+     * @return number of bytes released
+     */
+    private long tierSnapshot(Document document, Set<String> archivedChecksums) {
+        boolean debug = logger.isLoggable(Level.FINE);
+        ItemCollection snapshot = new ItemCollection(document.getData());
+        long bytes = 0;
+        byte[] empty = {};
+        for (FileData fileData : snapshot.getFileData()) {
+            if (!isTierable(fileData)) {
+                continue;
+            }
+            // the md5 checksum is used to load the content from the archive
+            ItemCollection attributes = new ItemCollection(fileData.getAttributes());
+            String md5 = attributes.getItemValueString(SnapshotService.ITEM_MD5_CHECKSUM);
+            if (!archivedChecksums.contains(md5) || !md5.equals(generateMD5(fileData))) {
+                logger.warning("│   │   ├── Snapshot " + document.getId() + " - file '" + fileData.getName()
+                        + "' not found in archive!");
+                continue;
+            }
+            bytes = bytes + fileData.getContent().length;
+            attributes.setItemValue(SnapshotService.ITEM_FILEDATA_TIERED, true);
+            snapshot.addFileData(
+                    new FileData(fileData.getName(), empty, fileData.getContentType(), attributes.getAllItems()));
+        }
+        if (bytes > 0) {
+            document.setData(snapshot.getAllItems());
+            if (debug) {
+                logger.fine("......snapshot " + document.getId() + " tiered, " + bytes + " bytes released");
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns the ids of all snapshots with a pending 'snapshot.backup' event log
+     * entry. This includes the topics of a backup mirror and locked entries.
+     * 
+     * @param documents - snapshot entities
+     * @return set of snapshot ids
+     */
+    private Set<String> findPendingBackups(List<Document> documents) {
+        Set<String> result = new HashSet<String>();
+        if (documents.isEmpty()) {
+            return result;
+        }
+        List<String> ids = new ArrayList<String>();
+        for (Document document : documents) {
+            ids.add(document.getId());
+        }
+        TypedQuery<String> q = manager.createQuery("SELECT eventlog.ref FROM EventLog AS eventlog"
+                + " WHERE eventlog.topic LIKE :topic AND eventlog.ref IN :ids", String.class);
+        q.setParameter("topic", SnapshotService.EVENTLOG_TOPIC_BACKUP + "%");
+        q.setParameter("ids", ids);
+        result.addAll(q.getResultList());
+        return result;
+    }
+
+    /**
+     * Returns the ids of all snapshots referred by the current $snapshotid of
+     * their origin workitem.
+     * 
+     * @param documents - snapshot entities
+     * @return set of snapshot ids
+     */
+    private Set<String> findCurrentSnapshots(List<Document> documents) {
+        Set<String> result = new HashSet<String>();
+        Set<String> originIDs = new HashSet<String>();
+        for (Document document : documents) {
+            int pos = document.getId().lastIndexOf("-");
+            if (pos > 0) {
+                originIDs.add(document.getId().substring(0, pos));
+            }
+        }
+        if (originIDs.isEmpty()) {
+            return result;
+        }
+        TypedQuery<Document> q = manager.createQuery("SELECT document FROM Document AS document"
+                + " WHERE document.id IN :ids", Document.class);
+        q.setParameter("ids", originIDs);
+        for (Document origin : q.getResultList()) {
+            result.add(new ItemCollection(origin.getData()).getItemValueString(SnapshotService.SNAPSHOTID));
+        }
+        return result;
+    }
+
+    /**
+     * Returns the md5 checksum of the file content or null if not computable.
+     */
+    private String generateMD5(FileData fileData) {
+        try {
+            return fileData.generateMD5();
+        } catch (NoSuchAlgorithmException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns true if the file has content with a md5 checksum.
+     */
+    private boolean isTierable(FileData fileData) {
+        if (fileData.getContent() == null || fileData.getContent().length == 0) {
+            return false;
+        }
+        return !new ItemCollection(fileData.getAttributes()).getItemValueString(SnapshotService.ITEM_MD5_CHECKSUM)
+                .isEmpty();
+    }
+
+}
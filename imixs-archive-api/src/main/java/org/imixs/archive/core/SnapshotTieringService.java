@@ -0,0 +1,210 @@
+/*******************************************************************************
+ * Imixs-Workflow Archive 
+ * Copyright (C) 2001-2018 Imixs Software Solutions GmbH,  
+ * http://www.imixs.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ *
+ * Project: 
+ * 	http://www.imixs.org
+ *
+ * Contributors:  
+ * 	Imixs Software Solutions GmbH - initial API and implementation
+ * 	Ralph Soika - Software Developer
+ *******************************************************************************/
+
+package org.imixs.archive.core;
+
+import java.util.Calendar;
+import java.util.Optional;
+import java.util.logging.Logger;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.imixs.workflow.ItemCollection;
+import org.imixs.workflow.exceptions.InvalidAccessException;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.Resource;
+import jakarta.annotation.security.DeclareRoles;
+import jakarta.annotation.security.RunAs;
+import jakarta.ejb.EJBException;
+import jakarta.ejb.Singleton;
+import jakarta.ejb.Startup;
+import jakarta.ejb.Timeout;
+import jakarta.ejb.TimerConfig;
+import jakarta.ejb.TimerService;
+import jakarta.ejb.TransactionAttribute;
+import jakarta.ejb.TransactionAttributeType;
+import jakarta.inject.Inject;
+
+/**
+ * This service removes the file content from local snapshots after a
+ * configurable age. The content is only removed if the archive service
+ * confirms the storage of the snapshot. Each tiered file keeps its attributes
+ * including the md5 checksum. The SnapshotService loads the content of a tiered
+ * file lazily from the archive.
+ * <p>
+ * In difference to the SnapshotCompactorService the snapshot entity is not
+ * deleted. So the metadata of all snapshots is still available locally.
+ * 
+ * Configuration:
+ * 
+ * <pre>
+ * ARCHIVE_SNAPSHOT_TIERING_ENABLED=true
+ * ARCHIVE_SNAPSHOT_TIERING_AGE=90
+ * ARCHIVE_SNAPSHOT_TIERING_INTERVAL=3600
+ * ARCHIVE_SNAPSHOT_TIERING_INITIALDELAY=60
+ * ARCHIVE_SNAPSHOT_TIERING_MAXCOUNT=1000
+ * </pre>
+ * 
+ * @version 1.0
+ * @author rsoika
+ */
+@Singleton
+@Startup
+@TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+@DeclareRoles({ "org.imixs.ACCESSLEVEL.MANAGERACCESS" })
+@RunAs("org.imixs.ACCESSLEVEL.MANAGERACCESS")
+public class SnapshotTieringService {
+    private static Logger logger = Logger.getLogger(SnapshotTieringService.class.getName());
+
+    public static final String ARCHIVE_SNAPSHOT_TIERING_ENABLED = "archive.snapshot.tiering.enabled";
+    public static final String ARCHIVE_SNAPSHOT_TIERING_AGE = "archive.snapshot.tiering.age";
+    public static final String ARCHIVE_SNAPSHOT_TIERING_INTERVAL = "archive.snapshot.tiering.interval";
+    public static final String ARCHIVE_SNAPSHOT_TIERING_INITIALDELAY = "archive.snapshot.tiering.initialdelay";
+    public static final String ARCHIVE_SNAPSHOT_TIERING_MAXCOUNT = "archive.snapshot.tiering.maxcount";
+
+    private static final int BATCH_SIZE = 10;
+
+    @Inject
+    SnapshotTieringJob snapshotTieringJob;
+
+    @Inject
+    @ConfigProperty(name = ARCHIVE_SNAPSHOT_TIERING_ENABLED, defaultValue = "false")
+    boolean tieringEnabled;
+
+    @Inject
+    @ConfigProperty(name = ARCHIVE_SNAPSHOT_TIERING_AGE, defaultValue = "90") // days
+    int tieringAge;
+
+    @Inject
+    @ConfigProperty(name = ARCHIVE_SNAPSHOT_TIERING_INTERVAL, defaultValue = "3600") // sec
+    int tieringInterval;
+
+    @Inject
+    @ConfigProperty(name = ARCHIVE_SNAPSHOT_TIERING_INITIALDELAY, defaultValue = "60") // sec
+    long initialDelay;
+
+    // max snapshots processed per run
+    @Inject
+    @ConfigProperty(name = ARCHIVE_SNAPSHOT_TIERING_MAXCOUNT, defaultValue = "1000")
+    int maxCount;
+
+    @Inject
+    @ConfigProperty(name = SnapshotService.ENV_ARCHIVE_SERVICE_ENDPOINT)
+    Optional<String> archiveServiceEndpoint;
+
+    @Resource
+    TimerService timerService;
+
+    // the last processed snapshot
+    private Calendar checkpointModified = null;
+    private String checkpointID = "";
+
+    @PostConstruct
+    public void init() {
+        // init timer....
+        if (tieringEnabled && archiveServiceEndpoint.isPresent() && !archiveServiceEndpoint.get().isEmpty()) {
+            try {
+                logger.info("├── Scheduling SnapshotTieringService:");
+                logger.info("│   ├── age=" + tieringAge + " days");
+                logger.info("│   ├── initialDelay=" + initialDelay + "sec");
+                logger.info("│   ├── interval=" + tieringInterval + " sec");
+                // Registering a non-persistent Timer Service.
+                final TimerConfig timerConfig = new TimerConfig();
+                timerConfig.setInfo("ARCHIVE_SNAPSHOT_TIERING");
+                timerConfig.setPersistent(false);
+                timerService.createIntervalTimer(initialDelay * 1000, tieringInterval * 1000L, timerConfig);
+            } catch (IllegalArgumentException | IllegalStateException | EJBException e) {
+                logger.warning("Failed to init scheduler: " + e.getMessage());
+            }
+        }
+    }
+
+    @Timeout
+    public void onTimeout(jakarta.ejb.Timer _timer) {
+        try {
+            tierSnapshots(tieringAge, maxCount);
+        } catch (InvalidAccessException | EJBException e) {
+            logger.warning("processing snapshot tiering failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * This method selects snapshots older than the given age and removes the file
+     * content if the archive confirms the storage.
+     * <p>
+     * The snapshots are processed in smaller batches ordered by the modified date.
+     * The last processed snapshot is kept as a checkpoint so the next run
+     * continues with newer snapshots. If no more snapshots are found, or after a
+     * restart, the service starts again with the oldest snapshot. So snapshots
+     * skipped because they were not yet archived or had a pending backup are
+     * verified again. Already tiered snapshots are skipped.
+     * 
+     * @param age      - min age in days
+     * @param maxCount - max snapshots to be processed
+     */
+    public void tierSnapshots(int age, int maxCount) {
+        if (age < 1) {
+            throw new SnapshotException(SnapshotException.INVALID_DATA, "Tiering age must not be below 1 day!");
+        }
+        Calendar cutoff = Calendar.getInstance();
+        cutoff.add(Calendar.DAY_OF_YEAR, -age);
+        if (checkpointModified == null) {
+            checkpointModified = Calendar.getInstance();
+            checkpointModified.setTimeInMillis(0);
+        }
+        int totalCount = 0;
+        int totalTiered = 0;
+        long totalBytes = 0;
+        long startTime = System.currentTimeMillis();
+        logger.info("├── Started tierSnapshots:");
+        while (totalCount < maxCount) {
+            ItemCollection metaData = snapshotTieringJob.processSnapshotBatch(cutoff, checkpointModified,
+                    checkpointID, BATCH_SIZE);
+            int processed = metaData.getItemValueInteger("snapshots.processed");
+            if (processed == 0) {
+                // no more data - the next run starts with the oldest snapshot again
+                checkpointModified = null;
+                checkpointID = "";
+                break;
+            }
+            totalCount = totalCount + processed;
+            totalTiered = totalTiered + metaData.getItemValueInteger("snapshots.tiered");
+            totalBytes = totalBytes + metaData.getItemValueLong("bytes.released");
+            // update checkpoint
+            Calendar cal = Calendar.getInstance();
+            cal.setTime(metaData.getItemValueDate("checkpoint.modified"));
+            checkpointModified = cal;
+            checkpointID = metaData.getItemValueString("checkpoint.id");
+        }
+        logger.info("├── tierSnapshots completed:");
+        logger.info("│   ├── snapshots processed = " + totalCount);
+        logger.info("│   ├── snapshots tiered    = " + totalTiered);
+        logger.info("│   ├── bytes released      = " + totalBytes);
+        logger.info("├── Finished in " + (System.currentTimeMillis() - startTime) + "ms");
+    }
+
+}
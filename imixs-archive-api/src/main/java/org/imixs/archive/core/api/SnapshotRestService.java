@@ -27,21 +27,41 @@
 
 package org.imixs.archive.core.api;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.Serializable;
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
+import java.nio.channels.FileChannel;
+import java.security.NoSuchAlgorithmException;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
 import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.Optional;
+import java.util.function.Predicate;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.imixs.archive.core.SnapshotException;
+import org.imixs.archive.core.SnapshotRestoreService;
 import org.imixs.archive.core.SnapshotService;
+import org.imixs.archive.core.cassandra.ArchiveFileCache;
 import org.imixs.archive.core.cassandra.ArchiveRemoteService;
 import org.imixs.melman.RestAPIException;
 import org.imixs.workflow.FileData;
@@ -49,6 +69,7 @@ import org.imixs.workflow.ItemCollection;
 import org.imixs.workflow.WorkflowKernel;
 import org.imixs.workflow.engine.DocumentService;
 import org.imixs.workflow.engine.EventLogService;
+import org.imixs.workflow.engine.jpa.EventLog;
 import org.imixs.workflow.exceptions.AccessDeniedException;
 import org.imixs.workflow.exceptions.InvalidAccessException;
 import org.imixs.workflow.jaxrs.WorkflowRestService;
@@ -61,16 +82,26 @@ import jakarta.ejb.EJB;
 import jakarta.enterprise.context.RequestScoped;
 import jakarta.inject.Inject;
 import jakarta.inject.Named;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.Query;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.ws.rs.Consumes;
+import jakarta.ws.rs.DefaultValue;
 import jakarta.ws.rs.Encoded;
 import jakarta.ws.rs.GET;
 import jakarta.ws.rs.POST;
 import jakarta.ws.rs.Path;
 import jakarta.ws.rs.PathParam;
 import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.QueryParam;
 import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.core.EntityPart;
+import jakarta.ws.rs.core.EntityTag;
+import jakarta.ws.rs.core.GenericEntity;
+import jakarta.ws.rs.core.HttpHeaders;
 import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Request;
 import jakarta.ws.rs.core.Response;
 import jakarta.ws.rs.core.UriInfo;
 
@@ -98,6 +129,17 @@ public class SnapshotRestService implements Serializable {
 
     private static final long serialVersionUID = 1L;
 
+    public static final String MULTIPART_DOCUMENT = "document";
+    public static final int MAX_SYNC_PAGE_SIZE = 1000;
+    public static final int MAX_SYNC_MANIFEST_SIZE = 10000;
+    public static final int MAX_DIGEST_DAYS = 31;
+    // max documents verified in one query for newer snapshots
+    private static final int MAX_NEWER_QUERY_SIZE = 100;
+    // max time between the timestamp of a snapshot ID and its modified date
+    private static final long MAX_SNAPSHOT_DELAY = 60 * 60 * 1000; // 1 hour
+    // the content of a file name can change
+    public static final String CACHE_CONTROL_REVALIDATE = "private, no-cache";
+
     @Inject
     @ConfigProperty(name = SnapshotService.ENV_ARCHIVE_SERVICE_ENDPOINT)
     Optional<String> archiveServiceEndpoint;
@@ -114,9 +156,21 @@ public class SnapshotRestService implements Serializable {
     @EJB
     ArchiveRemoteService archiveClientService;
 
+    @Inject
+    ArchiveFileCache archiveFileCache;
+
+    @EJB
+    SnapshotRestoreService snapshotRestoreService;
+
+    @EJB
+    SnapshotService snapshotService;
+
     @EJB
     EventLogService eventLogService;
 
+    @PersistenceContext(unitName = "org.imixs.workflow.jpa")
+    private EntityManager manager;
+
     private static Logger logger = Logger.getLogger(SnapshotRestService.class.getName());
 
     /**
@@ -125,6 +179,11 @@ public class SnapshotRestService implements Serializable {
      * $blobWorkitemid.
      * 
      * Finally the method calls the origin method getWorkItemFile
+     * <p>
+     * The md5 checksum of the file is provided as a strong ETag. As the content of
+     * a file name can change, the client has to revalidate the file. A request
+     * with a matching 'If-None-Match' header is answered with 304 without loading
+     * the content.
      * 
      * @param uniqueid
      * @param file     - file name
@@ -133,7 +192,7 @@ public class SnapshotRestService implements Serializable {
     @GET
     @Path("/{uniqueid : ([0-9a-f]{8}-.*|[0-9a-f]{11}-.*)}/file/{file}")
     public Response getWorkItemFile(@PathParam("uniqueid") String uniqueid, @PathParam("file") @Encoded String file,
-            @Context UriInfo uriInfo) {
+            @Context UriInfo uriInfo, @Context Request request) {
         boolean debug = logger.isLoggable(Level.FINE);
         FileData fileData = null;
         ItemCollection workItem;
@@ -157,18 +216,39 @@ public class SnapshotRestService implements Serializable {
             e.printStackTrace();
         }
 
+        // verify the ETag
+        String md5 = "";
+        EntityTag etag = null;
+        if (fileData != null) {
+            md5 = new ItemCollection(fileData.getAttributes()).getItemValueString(SnapshotService.ITEM_MD5_CHECKSUM);
+        }
+        if (!md5.isEmpty()) {
+            etag = new EntityTag(md5);
+            Response.ResponseBuilder notModified = request.evaluatePreconditions(etag);
+            if (notModified != null) {
+                return notModified.header(HttpHeaders.CACHE_CONTROL, CACHE_CONTROL_REVALIDATE).build();
+            }
+        }
+
         // test if we can load the file content by the md5 checksum form the cassandra
         // archive
         if (archiveServiceEndpoint.isPresent() && !archiveServiceEndpoint.get().isEmpty()) {
             try {
                 long l = System.currentTimeMillis();
-                byte[] fileContent;
-                fileContent = archiveClientService.loadFileFromArchive(fileData);
-                if (fileContent != null && fileContent.length > 0) {
-                    Response.ResponseBuilder builder = Response.ok(fileContent, fileData.getContentType());
+                // test the local file cache first
+                FileChannel cachedFile = archiveFileCache.open(md5);
+                if (cachedFile != null) {
+                    return tag(Response.ok(ArchiveFileCache.stream(cachedFile), fileData.getContentType()), etag)
+                            .build();
+                }
+                // the content is streamed into the response without buffering
+                InputStream fileContent = archiveClientService.loadFileStreamFromArchive(fileData);
+                if (fileContent != null) {
+                    Response.ResponseBuilder builder = tag(Response.ok(fileContent, fileData.getContentType()),
+                            etag);
                     // found -> return directy.
                     if (debug) {
-                        logger.finest("......loaded filecontent form archive by MD5 checksum in "
+                        logger.finest("......opened filecontent form archive by MD5 checksum in "
                                 + (System.currentTimeMillis() - l) + "ms");
                     }
                     return builder.build();
@@ -193,7 +273,70 @@ public class SnapshotRestService implements Serializable {
                 sTargetID = workItem.getItemValueString("$blobworkitem");
             }
         }
-        return workflowRestService.getWorkItemFile(sTargetID, file, uriInfo);
+        Response response = workflowRestService.getWorkItemFile(sTargetID, file, uriInfo);
+        if (etag != null && response.getStatus() == Response.Status.OK.getStatusCode()) {
+            response = tag(Response.fromResponse(response), etag).build();
+        }
+        return response;
+    }
+
+    /**
+     * Adds the ETag and the Cache-Control header to a file response.
+     */
+    private Response.ResponseBuilder tag(Response.ResponseBuilder builder, EntityTag etag) {
+        if (etag != null) {
+            builder.tag(etag).header(HttpHeaders.CACHE_CONTROL, CACHE_CONTROL_REVALIDATE);
+        }
+        return builder;
+    }
+
+    /**
+     * This method returns a snapshot as a multipart stream. In difference to the
+     * XML representation the file content is not base64 encoded but transferred as
+     * raw binary parts.
+     * <p>
+     * The first part named 'document' contains the snapshot in XML format with
+     * empty file contents. Each following part contains the raw content of one
+     * attached file. The part name is the md5 checksum of the content which is also
+     * provided in the file attribute 'md5checksum' of the document part. Files with
+     * the same content are transferred only once.
+     * <p>
+     * The content of tiered files is loaded from the archive. If the content is
+     * not available the method returns the status 503 so that the client can
+     * retry later.
+     *
+     * @param snapshotid
+     * @return multipart/form-data stream
+     */
+    @GET
+    @Path("/{snapshotid}/multipart")
+    @Produces(MediaType.MULTIPART_FORM_DATA)
+    public Response getSnapshotMultipart(@PathParam("snapshotid") String snapshotid) {
+        ItemCollection snapshot = documentService.load(snapshotid);
+        if (snapshot == null) {
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
+        if (!snapshotService.loadTieredFileContent(snapshot)) {
+            logger.warning("failed to load tiered file content of snapshot '" + snapshotid + "' from archive");
+            return Response.status(Response.Status.SERVICE_UNAVAILABLE).build();
+        }
+        try {
+            List<EntityPart> parts = new ArrayList<EntityPart>();
+            Map<String, byte[]> fileContents = removeFileContent(snapshot);
+            for (Map.Entry<String, byte[]> entry : fileContents.entrySet()) {
+                parts.add(EntityPart.withName(entry.getKey()).content(new ByteArrayInputStream(entry.getValue()))
+                        .mediaType(MediaType.APPLICATION_OCTET_STREAM_TYPE).build());
+            }
+            parts.add(0, EntityPart.withName(MULTIPART_DOCUMENT)
+                    .content(XMLDocumentAdapter.getDocument(snapshot), XMLDocument.class)
+                    .mediaType(MediaType.APPLICATION_XML_TYPE).build());
+
+            return Response.ok(new GenericEntity<List<EntityPart>>(parts) {
+            }, MediaType.MULTIPART_FORM_DATA_TYPE).build();
+        } catch (IOException | NoSuchAlgorithmException e) {
+            logger.severe("failed to stream snapshot '" + snapshotid + "': " + e.getMessage());
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR).build();
+        }
     }
 
     /**
@@ -262,6 +405,185 @@ public class SnapshotRestService implements Serializable {
         return XMLDataCollectionAdapter.getDataCollection(result);
     }
 
+    /**
+     * This method returns a page of snapshots starting after a given cursor. The
+     * cursor is defined by the syncpoint (modified timestamp in milliseconds) and
+     * the id of the last snapshot read. The snapshots are sorted by the modified
+     * timestamp and the id so that snapshots with the same modified timestamp are
+     * returned in a stable order.
+     * <p>
+     * If the param 'content' is false, the file content of the snapshots is
+     * removed. The md5 checksum of each file is provided in the file attribute
+     * 'md5checksum'.
+     * <p>
+     * If no more data is found, the method returns an empty collection.
+     * 
+     * @param lSyncpoint - modified timestamp of the last snapshot read
+     * @param lastID     - id of the last snapshot read (optional)
+     * @param pageSize   - max number of snapshots (default 100)
+     * @param content    - include file content (default true)
+     * @return
+     */
+    @GET
+    @Path("/syncpage/{syncpoint}")
+    public XMLDataCollection getDocumentsBySyncPage(@PathParam("syncpoint") long lSyncpoint,
+            @QueryParam("id") @DefaultValue("") String lastID,
+            @QueryParam("pagesize") @DefaultValue("100") int pageSize,
+            @QueryParam("content") @DefaultValue("true") boolean content) {
+        if (pageSize <= 0 || pageSize > MAX_SYNC_PAGE_SIZE) {
+            pageSize = MAX_SYNC_PAGE_SIZE;
+        }
+        // ISO date time format: '2016-08-25 01:23:46.0',
+        DateFormat isoFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+        String syncpoint = isoFormat.format(new Date(lSyncpoint));
+        String query = "SELECT document FROM Document AS document ";
+        query += " WHERE (document.modified > '" + syncpoint + "'";
+        query += " OR (document.modified = '" + syncpoint + "' AND document.id > '" + lastID.replace("'", "")
+                + "'))";
+        query += " AND document.type LIKE '" + SnapshotService.TYPE_PRAFIX + "%' ";
+        query += " ORDER BY document.modified ASC, document.id ASC";
+
+        List<ItemCollection> result = documentService.getDocumentsByQuery(query, pageSize);
+        if (!content) {
+            try {
+                for (ItemCollection snapshot : result) {
+                    removeFileContent(snapshot);
+                }
+            } catch (NoSuchAlgorithmException e) {
+                throw new SnapshotException(SnapshotException.INVALID_DATA,
+                        "failed to compute md5 checksum: " + e.getMessage(), e);
+            }
+        }
+        return XMLDataCollectionAdapter.getDataCollection(result);
+    }
+
+    /**
+     * This method returns a manifest of snapshots starting after a given cursor.
+     * In difference to the method getDocumentsBySyncPage, the manifest contains
+     * only the items '$uniqueid' and '$modified' of each snapshot. The snapshot
+     * data is not loaded from the database.
+     * <p>
+     * The manifest is used by the archive service to verify the snapshots already
+     * archived. Only missing snapshots are loaded in a second step.
+     * 
+     * @param lSyncpoint - modified timestamp of the last snapshot read
+     * @param lastID     - id of the last snapshot read (optional)
+     * @param pageSize   - max number of entries (default 1000)
+     * @return
+     */
+    @GET
+    @Path("/syncmanifest/{syncpoint}")
+    @Produces(MediaType.APPLICATION_XML)
+    public Response getSyncManifest(@PathParam("syncpoint") long lSyncpoint,
+            @QueryParam("id") @DefaultValue("") String lastID,
+            @QueryParam("pagesize") @DefaultValue("1000") int pageSize) {
+        if (servletRequest.isUserInRole("org.imixs.ACCESSLEVEL.MANAGERACCESS") == false) {
+            return Response.status(Response.Status.UNAUTHORIZED).build();
+        }
+        if (pageSize <= 0 || pageSize > MAX_SYNC_MANIFEST_SIZE) {
+            pageSize = MAX_SYNC_MANIFEST_SIZE;
+        }
+        // ISO date time format: '2016-08-25 01:23:46.0',
+        DateFormat isoFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+        String syncpoint = isoFormat.format(new Date(lSyncpoint));
+        String query = "SELECT document.id, document.modified FROM Document AS document ";
+        query += " WHERE (document.modified > '" + syncpoint + "'";
+        query += " OR (document.modified = '" + syncpoint + "' AND document.id > '" + lastID.replace("'", "")
+                + "'))";
+        query += " AND document.type LIKE '" + SnapshotService.TYPE_PRAFIX + "%' ";
+        query += " ORDER BY document.modified ASC, document.id ASC";
+
+        List<ItemCollection> result = new ArrayList<ItemCollection>();
+        List<?> rows = manager.createQuery(query).setMaxResults(pageSize).getResultList();
+        for (Object row : rows) {
+            Object[] values = (Object[]) row;
+            ItemCollection entry = new ItemCollection();
+            entry.setItemValue(WorkflowKernel.UNIQUEID, values[0]);
+            if (values[1] instanceof Calendar) {
+                entry.setItemValue(WorkflowKernel.MODIFIED, ((Calendar) values[1]).getTime());
+            } else {
+                entry.setItemValue(WorkflowKernel.MODIFIED, values[1]);
+            }
+            result.add(entry);
+        }
+        return Response.ok(XMLDataCollectionAdapter.getDataCollection(result), MediaType.APPLICATION_XML).build();
+    }
+
+    /**
+     * This method returns the digests of all snapshots between two days. For each
+     * day the result contains the digest of the day and the digests of each hour.
+     * The digests are computed over the snapshot IDs by the SnapshotDigest.
+     * <p>
+     * The resource is used by the anti-entropy job of the archive service to
+     * detect differences between the workflow instance and the archive.
+     * 
+     * @param from - first day in ISO format (yyyy-MM-dd)
+     * @param to   - last day in ISO format (yyyy-MM-dd)
+     * @return
+     */
+    @GET
+    @Path("/digest")
+    @Produces(MediaType.APPLICATION_XML)
+    public Response getDigests(@QueryParam("from") String from, @QueryParam("to") String to) {
+        if (servletRequest.isUserInRole("org.imixs.ACCESSLEVEL.MANAGERACCESS") == false) {
+            return Response.status(Response.Status.UNAUTHORIZED).build();
+        }
+        try {
+            LocalDate fromDate = LocalDate.parse(from);
+            LocalDate toDate = LocalDate.parse(to);
+            if (toDate.isBefore(fromDate) || toDate.isAfter(fromDate.plusDays(MAX_DIGEST_DAYS - 1))) {
+                return Response.status(Response.Status.BAD_REQUEST).build();
+            }
+            Map<LocalDate, List<String>> snapshotIDs = loadSnapshotIDsByDay(fromDate, toDate);
+            List<ItemCollection> result = new ArrayList<ItemCollection>();
+            for (LocalDate day = fromDate; !day.isAfter(toDate); day = day.plusDays(1)) {
+                List<String> ids = snapshotIDs.getOrDefault(day, new ArrayList<String>());
+                result.add(SnapshotDigest.build(day.toString(), ids));
+            }
+            return Response.ok(XMLDataCollectionAdapter.getDataCollection(result), MediaType.APPLICATION_XML)
+                    .build();
+        } catch (DateTimeParseException | NullPointerException e) {
+            return Response.status(Response.Status.BAD_REQUEST).build();
+        } catch (NoSuchAlgorithmException e) {
+            throw new SnapshotException(SnapshotException.INVALID_DATA,
+                    "failed to compute md5 checksum: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * This method returns the sorted snapshot IDs of a single hour of a day. The
+     * result contains one document with the IDs in the item 'id'.
+     * 
+     * @param date - day in ISO format (yyyy-MM-dd)
+     * @param hour - hour of the day (0-23)
+     * @return
+     */
+    @GET
+    @Path("/digest/{date}/{hour}")
+    @Produces(MediaType.APPLICATION_XML)
+    public Response getDigestSnapshotIDs(@PathParam("date") String date, @PathParam("hour") int hour) {
+        if (servletRequest.isUserInRole("org.imixs.ACCESSLEVEL.MANAGERACCESS") == false) {
+            return Response.status(Response.Status.UNAUTHORIZED).build();
+        }
+        try {
+            LocalDate day = LocalDate.parse(date);
+            if (hour < 0 || hour > 23) {
+                return Response.status(Response.Status.BAD_REQUEST).build();
+            }
+            Instant start = day.atStartOfDay(ZoneOffset.UTC).toInstant().plus(hour, ChronoUnit.HOURS);
+            List<String> ids = loadSnapshotIDs(start, start.plus(1, ChronoUnit.HOURS));
+            ItemCollection document = new ItemCollection();
+            document.setItemValue(SnapshotDigest.ITEM_DATE, date);
+            document.setItemValue(SnapshotDigest.ITEM_ID, SnapshotDigest.getSnapshotIDsByHour(ids, hour));
+            List<ItemCollection> result = new ArrayList<ItemCollection>();
+            result.add(document);
+            return Response.ok(XMLDataCollectionAdapter.getDataCollection(result), MediaType.APPLICATION_XML)
+                    .build();
+        } catch (DateTimeParseException e) {
+            return Response.status(Response.Status.BAD_REQUEST).build();
+        }
+    }
+
     /**
      * The method restores a snapshot provided in xml format.
      * <p>
@@ -285,55 +607,7 @@ public class SnapshotRestService implements Serializable {
         }
 
         try {
-            // first we restore the snapshot entity if not exists....
-            if (documentService.load(snapshot.getUniqueID()) == null) {
-                snapshot = documentService.save(snapshot);
-                logger.info("......snapshot '" + snapshot.getUniqueID() + "' restored.");
-            }
-            // now we update the origin document....
-            ItemCollection document = new ItemCollection(snapshot);
-            // modify uniqueid
-            String snapshotID = snapshot.getUniqueID();
-            String originUnqiueID = snapshotID.substring(0, snapshotID.lastIndexOf("-"));
-            document.setItemValue(WorkflowKernel.UNIQUEID, originUnqiueID);
-            // remove version, immutable and noindex flags...
-            document.removeItem(DocumentService.NOINDEX);
-            document.removeItem(DocumentService.IMMUTABLE);
-            document.removeItem(DocumentService.VERSION);
-
-            // remove file content...
-            List<FileData> files = document.getFileData();
-            // empty data...
-            byte[] empty = {};
-            for (FileData fileData : files) {
-                if (fileData.getContent() != null && fileData.getContent().length > 0) {
-                    // update the file name with empty data
-                    logger.fine("drop content for file '" + fileData.getName() + "'");
-                    document.addFileData(new FileData(fileData.getName(), empty, fileData.getContentType(),
-                            fileData.getAttributes()));
-                }
-            }
-            // fix type item - remove snapshot- praefix
-            String type = document.getType();
-            if (type.startsWith(SnapshotService.TYPE_PRAFIX)) {
-                type = type.substring(SnapshotService.TYPE_PRAFIX.length());
-                document.setItemValue("type", type);
-            }
-            // add skipsnapshot flag
-            document.setItemValue(SnapshotService.SKIPSNAPSHOT, true);
-            // update snapshotid...
-            document.setItemValue(SnapshotService.SNAPSHOTID, snapshotID);
-            // remove restore flag if exits...
-            document.removeItem(SnapshotService.ITEM_BACKUPRESTORE);
-            // save origin document...
-            document = documentService.save(document);
-
-            // Explicit write archive event log entry to update ArchiveService...
-            if (archiveServiceEndpoint.isPresent() && !archiveServiceEndpoint.get().isEmpty()) {
-                eventLogService.createEvent(SnapshotService.EVENTLOG_TOPIC_ADD, snapshotID);
-            }
-
-            logger.info("......document '" + originUnqiueID + "' restored.");
+            ItemCollection document = snapshotRestoreService.restoreSnapshot(snapshot);
             return Response.ok(XMLDataCollectionAdapter.getDataCollection(document), MediaType.APPLICATION_XML).build();
 
         } catch (AccessDeniedException e) {
@@ -358,6 +632,142 @@ public class SnapshotRestService implements Serializable {
         }
     }
 
+    /**
+     * The method restores a collection of snapshots provided in xml format. The
+     * snapshots are committed in chunks (see 'snapshot.restore.chunksize'). The
+     * method returns a result for each snapshot with the item '$snapshotid' and
+     * in case of an error the items '$error_code' and '$error_message'.
+     * <p>
+     * The method is used by the archive and backup services to restore a page of
+     * snapshots in one request.
+     * 
+     * @param xmlDataCollection - snapshots to be restored
+     * @return results
+     */
+    @POST
+    @Path("/restore")
+    @Produces(MediaType.APPLICATION_XML)
+    @Consumes({ MediaType.APPLICATION_XML, MediaType.TEXT_XML })
+    public Response postSnapshots(XMLDataCollection xmlDataCollection) {
+        if (servletRequest.isUserInRole("org.imixs.ACCESSLEVEL.MANAGERACCESS") == false) {
+            return Response.status(Response.Status.UNAUTHORIZED).build();
+        }
+        List<ItemCollection> snapshots = XMLDataCollectionAdapter.putDataCollection(xmlDataCollection);
+        if (snapshots == null) {
+            return Response.status(Response.Status.NOT_ACCEPTABLE).build();
+        }
+        List<ItemCollection> result = snapshotRestoreService.restoreSnapshots(snapshots);
+        return Response.ok(XMLDataCollectionAdapter.getDataCollection(result), MediaType.APPLICATION_XML).build();
+    }
+
+    /**
+     * This method locks a list of event log entries. The request document contains
+     * the ids of the event log entries in the item 'id'. The method returns a
+     * document with the ids of all successfully locked entries.
+     * <p>
+     * The method is used by the archive, backup and export services to lock a
+     * complete page of event log entries in one request.
+     *
+     * @param xmlDocument - document with the item 'id'
+     * @return document with the locked ids
+     */
+    @POST
+    @Path("/eventlog/lock")
+    @Produces(MediaType.APPLICATION_XML)
+    @Consumes({ MediaType.APPLICATION_XML, MediaType.TEXT_XML })
+    public Response lockEventLogEntries(XMLDocument xmlDocument) {
+        return processEventLogEntries(xmlDocument, eventLog -> eventLogService.lock(eventLog));
+    }
+
+    /**
+     * This method unlocks a list of event log entries. The request document
+     * contains the ids of the event log entries in the item 'id'. The method
+     * returns a document with the ids of all successfully unlocked entries.
+     *
+     * @param xmlDocument - document with the item 'id'
+     * @return document with the unlocked ids
+     */
+    @POST
+    @Path("/eventlog/unlock")
+    @Produces(MediaType.APPLICATION_XML)
+    @Consumes({ MediaType.APPLICATION_XML, MediaType.TEXT_XML })
+    public Response unlockEventLogEntries(XMLDocument xmlDocument) {
+        return processEventLogEntries(xmlDocument, eventLog -> eventLogService.unlock(eventLog));
+    }
+
+    /**
+     * This method deletes a list of event log entries. The request document
+     * contains the ids of the event log entries in the item 'id'. The method
+     * returns a document with the ids of all deleted entries.
+     *
+     * @param xmlDocument - document with the item 'id'
+     * @return document with the deleted ids
+     */
+    @POST
+    @Path("/eventlog/delete")
+    @Produces(MediaType.APPLICATION_XML)
+    @Consumes({ MediaType.APPLICATION_XML, MediaType.TEXT_XML })
+    public Response deleteEventLogEntries(XMLDocument xmlDocument) {
+        return processEventLogEntries(xmlDocument, eventLog -> {
+            eventLogService.removeEvent(eventLog);
+            return true;
+        });
+    }
+
+    /**
+     * This method creates a list of event log entries. Each document of the
+     * request collection provides the items 'topic' and 'ref' of a new event log
+     * entry.
+     *
+     * @param xmlDataCollection - list of event log entries
+     * @return http status
+     */
+    @POST
+    @Path("/eventlog/create")
+    @Consumes({ MediaType.APPLICATION_XML, MediaType.TEXT_XML })
+    public Response createEventLogEntries(XMLDataCollection xmlDataCollection) {
+        if (servletRequest.isUserInRole("org.imixs.ACCESSLEVEL.MANAGERACCESS") == false) {
+            return Response.status(Response.Status.UNAUTHORIZED).build();
+        }
+        List<ItemCollection> entries = XMLDataCollectionAdapter.putDataCollection(xmlDataCollection);
+        for (ItemCollection entry : entries) {
+            eventLogService.createEvent(entry.getItemValueString("topic"), entry.getItemValueString("ref"));
+        }
+        return Response.ok().build();
+    }
+
+    /**
+     * Helper method to process a list of event log entries by the ids provided in
+     * the item 'id'. Each entry is processed in a separate transaction. Entries
+     * which can not be processed are skipped.
+     *
+     * @param xmlDocument - document with the item 'id'
+     * @param operation   - operation to be applied to each entry
+     * @return document with the ids of all successfully processed entries
+     */
+    private Response processEventLogEntries(XMLDocument xmlDocument, Predicate<EventLog> operation) {
+        if (servletRequest.isUserInRole("org.imixs.ACCESSLEVEL.MANAGERACCESS") == false) {
+            return Response.status(Response.Status.UNAUTHORIZED).build();
+        }
+        ItemCollection request = XMLDocumentAdapter.putDocument(xmlDocument);
+        if (request == null) {
+            return Response.status(Response.Status.NOT_ACCEPTABLE).build();
+        }
+        ItemCollection result = new ItemCollection();
+        List<String> ids = request.getItemValueList("id", String.class);
+        for (String id : ids) {
+            try {
+                EventLog eventLog = eventLogService.getEvent(id);
+                if (eventLog != null && operation.test(eventLog)) {
+                    result.appendItemValue("id", id);
+                }
+            } catch (RuntimeException e) {
+                logger.warning("failed to process event log entry " + id + ": " + e.getMessage());
+            }
+        }
+        return Response.ok(XMLDocumentAdapter.getDocument(result), MediaType.APPLICATION_XML).build();
+    }
+
     /**
      * Ping service
      * 
@@ -370,6 +780,131 @@ public class SnapshotRestService implements Serializable {
         return "ping = " + System.currentTimeMillis();
     }
 
+    /**
+     * Helper method to load the snapshot IDs between two days grouped by the day
+     * (UTC) of the timestamp contained in the snapshot ID.
+     * 
+     * @param fromDate - first day
+     * @param toDate   - last day
+     * @return snapshot IDs by day
+     */
+    private Map<LocalDate, List<String>> loadSnapshotIDsByDay(LocalDate fromDate, LocalDate toDate) {
+        Map<LocalDate, List<String>> result = new TreeMap<LocalDate, List<String>>();
+        for (String id : loadSnapshotIDs(fromDate.atStartOfDay(ZoneOffset.UTC).toInstant(),
+                toDate.plusDays(1).atStartOfDay(ZoneOffset.UTC).toInstant())) {
+            result.computeIfAbsent(SnapshotDigest.getDate(id), k -> new ArrayList<String>()).add(id);
+        }
+        return result;
+    }
+
+    /**
+     * Helper method to load the snapshot IDs with a timestamp between two instants.
+     * The snapshots are selected by their modified date, which is not before the
+     * timestamp of the snapshot ID. A restored snapshot with a newer modified date
+     * is not returned. It was loaded from the archive. Only the IDs are loaded
+     * from the database.
+     * <p>
+     * Snapshots superseded by a newer snapshot of the same document are not
+     * returned, as the archive keeps snapshots already removed by the snapshot
+     * history. For this reason the IDs of the newer snapshots of the documents
+     * found are loaded too.
+     * 
+     * @param start - min timestamp
+     * @param end   - max timestamp (exclusive)
+     * @return snapshot IDs
+     */
+    private List<String> loadSnapshotIDs(Instant start, Instant end) {
+        // ISO date time format: '2016-08-25 01:23:46.0',
+        DateFormat isoFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+        String query = "SELECT document.id FROM Document AS document ";
+        query += " WHERE document.modified >= '" + isoFormat.format(Date.from(start)) + "'";
+        query += " AND document.modified < '" + isoFormat.format(Date.from(end.plusMillis(MAX_SNAPSHOT_DELAY)))
+                + "'";
+        query += " AND document.type LIKE '" + SnapshotService.TYPE_PRAFIX + "%' ";
+        List<String> ids = new ArrayList<String>();
+        Set<String> uniqueIDs = new LinkedHashSet<String>();
+        for (Object row : manager.createQuery(query).getResultList()) {
+            String id = (String) row;
+            long time = SnapshotDigest.getTime(id);
+            if (time >= start.toEpochMilli() && time < end.toEpochMilli()) {
+                ids.add(id);
+                uniqueIDs.add(SnapshotDigest.getUniqueID(id));
+            }
+        }
+        List<String> allIDs = new ArrayList<String>(ids);
+        allIDs.addAll(loadNewerSnapshotIDs(uniqueIDs, Date.from(start)));
+        Set<String> latestIDs = SnapshotDigest.getLatestSnapshotIDs(allIDs);
+        List<String> result = new ArrayList<String>();
+        for (String id : ids) {
+            if (latestIDs.contains(id)) {
+                result.add(id);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Helper method to load the IDs of all snapshots of the given documents
+     * modified after a given date. The documents are queried in chunks.
+     * 
+     * @param uniqueIDs - $uniqueids of the origin documents
+     * @param date      - min modified date
+     * @return snapshot IDs
+     */
+    private List<String> loadNewerSnapshotIDs(Collection<String> uniqueIDs, Date date) {
+        List<String> result = new ArrayList<String>();
+        // ISO date time format: '2016-08-25 01:23:46.0',
+        DateFormat isoFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+        List<String> ids = new ArrayList<String>(uniqueIDs);
+        for (int i = 0; i < ids.size(); i = i + MAX_NEWER_QUERY_SIZE) {
+            List<String> chunk = ids.subList(i, Math.min(i + MAX_NEWER_QUERY_SIZE, ids.size()));
+            String query = "SELECT document.id FROM Document AS document ";
+            query += " WHERE document.modified >= '" + isoFormat.format(date) + "'";
+            query += " AND document.type LIKE '" + SnapshotService.TYPE_PRAFIX + "%' AND (";
+            for (int j = 0; j < chunk.size(); j++) {
+                query += (j > 0 ? " OR " : "") + "document.id LIKE :id" + j;
+            }
+            query += ")";
+            Query q = manager.createQuery(query);
+            for (int j = 0; j < chunk.size(); j++) {
+                q.setParameter("id" + j, chunk.get(j) + "-%");
+            }
+            for (Object id : q.getResultList()) {
+                result.add((String) id);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * This helper method removes the file content from a snapshot. The md5
+     * checksum of each file is set in the file attribute 'md5checksum'. The method
+     * returns the removed file content by its md5 checksum. Files with the same
+     * content are returned only once.
+     * 
+     * @param snapshot
+     * @return file content by md5 checksum
+     * @throws NoSuchAlgorithmException
+     */
+    private Map<String, byte[]> removeFileContent(ItemCollection snapshot) throws NoSuchAlgorithmException {
+        Map<String, byte[]> result = new LinkedHashMap<String, byte[]>();
+        // empty data...
+        byte[] empty = {};
+        List<FileData> files = snapshot.getFileData();
+        for (FileData fileData : files) {
+            byte[] content = fileData.getContent();
+            if (content != null && content.length > 0) {
+                String md5 = fileData.generateMD5();
+                ItemCollection customAttributes = new ItemCollection(fileData.getAttributes());
+                customAttributes.replaceItemValue(SnapshotService.ITEM_MD5_CHECKSUM, md5);
+                snapshot.addFileData(new FileData(fileData.getName(), empty, fileData.getContentType(),
+                        customAttributes.getAllItems()));
+                result.put(md5, content);
+            }
+        }
+        return result;
+    }
+
     /**
      * This helper method adds a error message to the given entity, based on the
      * data in a Exception. This kind of error message can be displayed in a page
@@ -0,0 +1,427 @@
+package org.imixs.archive.core.cassandra;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.metrics.Metadata;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.annotation.RegistryScope;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.core.StreamingOutput;
+import jakarta.xml.bind.DatatypeConverter;
+
+/**
+ * The ArchiveFileCache is a local content-addressed file cache for file
+ * content loaded from the archive. Each file is stored under its md5 checksum
+ * in the directory defined by the property 'archive.cache.path'. If no path is
+ * defined the cache is disabled.
+ * <p>
+ * The cache is limited by the disk budget 'archive.cache.size' in MB. If the
+ * budget is exceeded the least recently used files are removed.
+ * <p>
+ * A file is written into the cache while it is streamed to the client. The
+ * file is only added if the stream was read completely and the md5 checksum of
+ * the content matches.
+ * <p>
+ * If the property 'metrics.enabled' is true, hits, misses, the bytes served
+ * from the cache and the hit ratio are provided as metrics.
+ *
+ * @author rsoika
+ */
+@ApplicationScoped
+public class ArchiveFileCache {
+
+    public static final String ENV_ARCHIVE_CACHE_PATH = "archive.cache.path";
+    public static final String ENV_ARCHIVE_CACHE_SIZE = "archive.cache.size";
+
+    public static final String METRIC_CACHE_HITS = "archive_cache_hits";
+    public static final String METRIC_CACHE_MISSES = "archive_cache_misses";
+    public static final String METRIC_CACHE_BYTES_SAVED = "archive_cache_bytes_saved";
+    public static final String METRIC_CACHE_HIT_RATIO = "archive_cache_hit_ratio";
+    public static final String METRIC_CACHE_SIZE = "archive_cache_size";
+
+    private static final String REGEX_MD5 = "^[0-9a-fA-F]{32}$";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static Logger logger = Logger.getLogger(ArchiveFileCache.class.getName());
+
+    @Inject
+    @ConfigProperty(name = ENV_ARCHIVE_CACHE_PATH)
+    Optional<String> cachePath;
+
+    @Inject
+    @ConfigProperty(name = ENV_ARCHIVE_CACHE_SIZE, defaultValue = "1024") // MB
+    long cacheSize;
+
+    @Inject
+    @ConfigProperty(name = "metrics.enabled", defaultValue = "false")
+    boolean metricsEnabled;
+
+    @Inject
+    @RegistryScope(scope = MetricRegistry.APPLICATION_SCOPE)
+    MetricRegistry metricRegistry;
+
+    private Path cacheDir = null;
+    private long maxSize = 0;
+    private long totalSize = 0;
+    // file sizes by md5 checksum in LRU order
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<String, Long>(16, 0.75f, true);
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    @PostConstruct
+    void init() {
+        if (!cachePath.isPresent() || cachePath.get().isEmpty()) {
+            return;
+        }
+        maxSize = cacheSize * 1024 * 1024;
+        try {
+            Path dir = Paths.get(cachePath.get());
+            Files.createDirectories(dir);
+            // reload existing files in the order of the last access
+            List<Path> files = new ArrayList<Path>();
+            try (Stream<Path> stream = Files.list(dir)) {
+                stream.forEach(files::add);
+            }
+            files.sort(Comparator.comparing(ArchiveFileCache::getLastModifiedTime));
+            synchronized (this) {
+                for (Path file : files) {
+                    String name = file.getFileName().toString();
+                    if (name.matches(REGEX_MD5)) {
+                        long size = Files.size(file);
+                        entries.put(name, size);
+                        totalSize = totalSize + size;
+                    } else if (name.endsWith(TEMP_SUFFIX)) {
+                        Files.deleteIfExists(file);
+                    }
+                }
+                cacheDir = dir;
+                evict();
+            }
+            logger.info("├── ArchiveFileCache: " + dir + " - " + entries.size() + " files, " + totalSize + " of "
+                    + maxSize + " bytes");
+            registerGauges();
+        } catch (IOException e) {
+            logger.warning("Failed to init archive file cache '" + cachePath.get() + "': " + e.getMessage());
+        }
+    }
+
+    /**
+     * Returns true if a cache directory is defined.
+     */
+    public boolean isEnabled() {
+        return cacheDir != null;
+    }
+
+    /**
+     * Opens the cached file for a md5 checksum or returns null if the content is
+     * not cached. The file is opened while the cache entry is locked, so an open
+     * channel can still be read if the file is evicted afterwards. The caller must
+     * close the channel.
+     *
+     * @param md5 - md5 checksum of the content
+     * @return open channel of the cached file or null
+     */
+    public FileChannel open(String md5) {
+        if (!isEnabled() || md5 == null || !md5.matches(REGEX_MD5)) {
+            return null;
+        }
+        String key = md5.toUpperCase();
+        Path file = cacheDir.resolve(key);
+        Long size;
+        FileChannel channel = null;
+        synchronized (this) {
+            size = entries.get(key);
+            if (size == null) {
+                return null;
+            }
+            try {
+                channel = FileChannel.open(file, StandardOpenOption.READ);
+            } catch (IOException e) {
+                // removed from outside
+                logger.warning("Failed to open cached file " + key + ": " + e.getMessage());
+                entries.remove(key);
+                totalSize = totalSize - size;
+                return null;
+            }
+        }
+        try {
+            // keep the LRU order after a restart
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            // ignore
+        }
+        hits.incrementAndGet();
+        incCounter(METRIC_CACHE_HITS, "Imixs-Archive file cache hits", 1);
+        incCounter(METRIC_CACHE_BYTES_SAVED, "Imixs-Archive bytes served from the file cache", size);
+        return channel;
+    }
+
+    /**
+     * Wraps a content stream loaded from the archive. The content is written into
+     * the cache while the stream is read. If the cache is disabled, the origin
+     * stream is returned.
+     * <p>
+     * Each call is counted as a cache miss.
+     *
+     * @param md5         - md5 checksum of the content
+     * @param inputStream - content stream
+     * @return content stream
+     */
+    public InputStream cache(String md5, InputStream inputStream) {
+        if (!isEnabled() || inputStream == null || md5 == null || !md5.matches(REGEX_MD5)) {
+            return inputStream;
+        }
+        misses.incrementAndGet();
+        incCounter(METRIC_CACHE_MISSES, "Imixs-Archive file cache misses", 1);
+        try {
+            Path tempFile = Files.createTempFile(cacheDir, null, TEMP_SUFFIX);
+            return new CachingInputStream(inputStream, md5.toUpperCase(), tempFile);
+        } catch (IOException | NoSuchAlgorithmException e) {
+            logger.warning("Failed to cache file " + md5 + ": " + e.getMessage());
+            return inputStream;
+        }
+    }
+
+    /**
+     * Returns a StreamingOutput writing the content of a cached file opened by
+     * {@link #open(String)}. The content is transferred by FileChannel.transferTo.
+     * As the target is a channel wrapping the output stream of the response, this
+     * is not a zero-copy transfer - the data is still copied in chunks through a
+     * heap buffer. Only the whole file is never loaded into memory. The channel is
+     * closed after the content was written.
+     *
+     * @param cachedFile - open channel of a cached file
+     * @return streaming output
+     */
+    public static StreamingOutput stream(FileChannel cachedFile) {
+        return new StreamingOutput() {
+            @Override
+            public void write(OutputStream output) throws IOException {
+                try (FileChannel channel = cachedFile) {
+                    WritableByteChannel target = Channels.newChannel(output);
+                    long position = 0;
+                    long size = channel.size();
+                    while (position < size) {
+                        position = position + channel.transferTo(position, size - position, target);
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Adds a completely written temp file to the cache and evicts the least
+     * recently used files if the disk budget is exceeded.
+     */
+    private synchronized void put(String md5, Path tempFile, long size) throws IOException {
+        if (size > maxSize) {
+            Files.deleteIfExists(tempFile);
+            return;
+        }
+        Files.move(tempFile, cacheDir.resolve(md5), StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+        Long oldSize = entries.put(md5, size);
+        if (oldSize != null) {
+            totalSize = totalSize - oldSize;
+        }
+        totalSize = totalSize + size;
+        evict();
+    }
+
+    /**
+     * Removes the least recently used files until the cache fits into the disk
+     * budget.
+     */
+    private synchronized void evict() {
+        Iterator<Map.Entry<String, Long>> iter = entries.entrySet().iterator();
+        while (totalSize > maxSize && iter.hasNext()) {
+            Map.Entry<String, Long> entry = iter.next();
+            try {
+                Files.deleteIfExists(cacheDir.resolve(entry.getKey()));
+            } catch (IOException e) {
+                logger.warning("Failed to evict cached file " + entry.getKey() + ": " + e.getMessage());
+            }
+            totalSize = totalSize - entry.getValue();
+            iter.remove();
+            if (logger.isLoggable(Level.FINEST)) {
+                logger.finest("......evicted cached file " + entry.getKey());
+            }
+        }
+    }
+
+    private static FileTime getLastModifiedTime(Path file) {
+        try {
+            return Files.getLastModifiedTime(file);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+
+    private synchronized long getTotalSize() {
+        return totalSize;
+    }
+
+    private void registerGauges() {
+        if (!metricsEnabled || metricRegistry == null) {
+            return;
+        }
+        try {
+            metricRegistry.gauge(Metadata.builder().withName(METRIC_CACHE_HIT_RATIO)
+                    .withDescription("Imixs-Archive file cache hit ratio").build(), this, cache -> {
+                        long total = cache.hits.get() + cache.misses.get();
+                        return total == 0 ? 0.0 : (double) cache.hits.get() / total;
+                    });
+            metricRegistry.gauge(Metadata.builder().withName(METRIC_CACHE_SIZE)
+                    .withDescription("Imixs-Archive file cache size in bytes").build(), this,
+                    ArchiveFileCache::getTotalSize);
+        } catch (RuntimeException e) {
+            logger.warning("Unable to register file cache metrics: " + e.getMessage());
+        }
+    }
+
+    private void incCounter(String name, String description, long value) {
+        if (!metricsEnabled || metricRegistry == null) {
+            return;
+        }
+        try {
+            metricRegistry.counter(Metadata.builder().withName(name).withDescription(description).build())
+                    .inc(value);
+        } catch (RuntimeException e) {
+            logger.warning("Unable to update file cache metrics: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Writes the content into a temp file while the stream is read. If the stream
+     * is read completely and the md5 checksum matches, the temp file is added to
+     * the cache when the stream is closed. Otherwise the temp file is deleted.
+     */
+    private class CachingInputStream extends FilterInputStream {
+        private final String md5;
+        private final Path tempFile;
+        private final MessageDigest digest;
+        private OutputStream out;
+        private long size = 0;
+        private boolean complete = false;
+
+        CachingInputStream(InputStream in, String md5, Path tempFile) throws IOException, NoSuchAlgorithmException {
+            super(in);
+            this.md5 = md5;
+            this.tempFile = tempFile;
+            this.digest = MessageDigest.getInstance("MD5");
+            this.out = Files.newOutputStream(tempFile);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b == -1) {
+                complete = true;
+            } else {
+                write(new byte[] { (byte) b }, 0, 1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int count = super.read(b, off, len);
+            if (count == -1) {
+                complete = true;
+            } else {
+                write(b, off, count);
+            }
+            return count;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // skipped content can not be cached
+            abort();
+            return super.skip(n);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        private void write(byte[] b, int off, int len) {
+            if (out == null) {
+                return;
+            }
+            try {
+                out.write(b, off, len);
+                digest.update(b, off, len);
+                size = size + len;
+            } catch (IOException e) {
+                logger.warning("Failed to write cache file " + md5 + ": " + e.getMessage());
+                abort();
+            }
+        }
+
+        private void abort() {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+                out = null;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                boolean cached = false;
+                if (out != null) {
+                    abort();
+                    if (complete && md5.equals(DatatypeConverter.printHexBinary(digest.digest()))) {
+                        try {
+                            put(md5, tempFile, size);
+                            cached = true;
+                        } catch (IOException e) {
+                            logger.warning("Failed to cache file " + md5 + ": " + e.getMessage());
+                        }
+                    }
+                }
+                if (!cached) {
+                    Files.deleteIfExists(tempFile);
+                }
+            }
+        }
+    }
+
+}
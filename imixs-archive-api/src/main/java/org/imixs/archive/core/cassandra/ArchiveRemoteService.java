@@ -1,7 +1,14 @@
 package org.imixs.archive.core.cassandra;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -12,12 +19,16 @@ import org.imixs.melman.DocumentClient;
 import org.imixs.melman.RestAPIException;
 import org.imixs.workflow.FileData;
 import org.imixs.workflow.ItemCollection;
+import org.imixs.workflow.xml.XMLDataCollection;
+import org.imixs.workflow.xml.XMLDataCollectionAdapter;
+import org.imixs.workflow.xml.XMLDocumentAdapter;
 
 import jakarta.ejb.LocalBean;
 import jakarta.ejb.Stateless;
 import jakarta.inject.Inject;
 import jakarta.ws.rs.ProcessingException;
 import jakarta.ws.rs.client.Client;
+import jakarta.ws.rs.client.Entity;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
 
@@ -35,6 +46,9 @@ import jakarta.ws.rs.core.Response;
 @LocalBean
 public class ArchiveRemoteService {
 
+    // max keys per exists request
+    public static final int MAX_EXISTS_BATCH_SIZE = 1000;
+
     @Inject
     @ConfigProperty(name = SnapshotService.ENV_ARCHIVE_SERVICE_ENDPOINT)
     Optional<String> archiveServiceEndpoint;
@@ -54,6 +68,9 @@ public class ArchiveRemoteService {
     @Inject
     RestClientHelper restClientHelper;
 
+    @Inject
+    ArchiveFileCache archiveFileCache;
+
     private static Logger logger = Logger.getLogger(ArchiveRemoteService.class.getName());
 
     /**
@@ -69,7 +86,37 @@ public class ArchiveRemoteService {
      * @throws RestAPIException
      */
     public byte[] loadFileFromArchive(FileData fileData) throws RestAPIException {
+        InputStream inputStream = loadFileStreamFromArchive(fileData);
+        if (inputStream == null) {
+            return null;
+        }
+        try (InputStream in = inputStream) {
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new RestAPIException(DocumentClient.class.getSimpleName(),
+                    RestAPIException.RESPONSE_PROCESSING_EXCEPTION,
+                    "error load file by MD5 checksum -> " + e.getMessage(), e);
+        }
+    }
 
+    /**
+     * This method opens the file content for a given md5 checksum as a stream from
+     * the Cassandra archive using the resource
+     * <p>
+     * <code>/archive/md5/{md5}</code>
+     * <p>
+     * The request is send by the shared client of the RestClientHelper, so the
+     * http connection is reused. The content is not buffered. The caller must
+     * close the stream to release the connection.
+     * <p>
+     * If the ArchiveFileCache is enabled, the content is read from the local cache
+     * or written into the cache while the stream is read.
+     * 
+     * @param fileData - fileData object providing the MD5 checksum
+     * @return content stream or null if no content exists
+     * @throws RestAPIException
+     */
+    public InputStream loadFileStreamFromArchive(FileData fileData) throws RestAPIException {
         if (fileData == null) {
             return null;
         }
@@ -79,61 +126,58 @@ public class ArchiveRemoteService {
             return null;
         }
 
-        boolean debug = logger.isLoggable(Level.FINE);
-        // first we lookup the FileData object
-        if (fileData != null) {
-            ItemCollection dmsData = new ItemCollection(fileData.getAttributes());
-            String md5 = dmsData.getItemValueString(SnapshotService.ITEM_MD5_CHECKSUM);
-
-            if (!md5.isEmpty()) {
-
-                try {
-                    DocumentClient documentClient = restClientHelper.createDocumentClient();
-                    if (documentClient == null) {
-                        logger.warning("Unable to initialize document client!");
-                    } else {
-                        Client rsClient = documentClient.newClient();
-                        String url = archiveServiceEndpoint.get() + "/archive/md5/" + md5;
-                        Response response = null;
-                        byte[] fileContent = null;
-                        try {
-                            response = rsClient.target(url).request(MediaType.APPLICATION_OCTET_STREAM).get();
-                            // verify response code
-                            if (response.getStatus() >= 200 && response.getStatus() <= 299) {
-                                fileContent = response.readEntity(byte[].class);
-                                if (fileContent != null && fileContent.length > 0) {
-                                    if (debug) {
-                                        logger.finest("......md5 data object found");
-                                    }
-                                }
-                            }
-                        } finally {
-                            // explicit close client!
-                            if (response != null) {
-                                response.close();
-                            }
-                            rsClient.close();
-
-                        }
-                        return fileContent;
-                    }
-                } catch (ProcessingException e) {
-                    String message = null;
-                    if (e.getCause() != null) {
-                        message = e.getCause().getMessage();
-                    } else {
-                        message = e.getMessage();
-                    }
-                    throw new RestAPIException(DocumentClient.class.getSimpleName(),
-                            RestAPIException.RESPONSE_PROCESSING_EXCEPTION,
-                            "error load file by MD5 checksum -> " + message, e);
-                }
-            } else {
+        ItemCollection dmsData = new ItemCollection(fileData.getAttributes());
+        String md5 = dmsData.getItemValueString(SnapshotService.ITEM_MD5_CHECKSUM);
+        if (md5.isEmpty()) {
+            return null;
+        }
+
+        FileChannel cachedFile = archiveFileCache.open(md5);
+        if (cachedFile != null) {
+            return Channels.newInputStream(cachedFile);
+        }
+
+        Response response = null;
+        try {
+            Client rsClient = restClientHelper.getArchiveClient();
+            if (rsClient == null) {
+                logger.warning("Unable to initialize document client!");
+                return null;
+            }
+            String url = archiveServiceEndpoint.get() + "/archive/md5/" + md5;
+            response = rsClient.target(url).request(MediaType.APPLICATION_OCTET_STREAM).get();
+            // verify response code
+            if (response.getStatus() < 200 || response.getStatus() > 299) {
+                response.close();
+                return null;
+            }
+            // test for empty content without buffering the stream
+            PushbackInputStream inputStream = new PushbackInputStream(response.readEntity(InputStream.class));
+            int b = inputStream.read();
+            if (b == -1) {
+                inputStream.close();
+                response.close();
                 return null;
             }
+            inputStream.unread(b);
+            if (logger.isLoggable(Level.FINEST)) {
+                logger.finest("......md5 data object found");
+            }
+            return archiveFileCache.cache(md5, inputStream);
+        } catch (ProcessingException | IOException e) {
+            if (response != null) {
+                response.close();
+            }
+            String message = null;
+            if (e.getCause() != null) {
+                message = e.getCause().getMessage();
+            } else {
+                message = e.getMessage();
+            }
+            throw new RestAPIException(DocumentClient.class.getSimpleName(),
+                    RestAPIException.RESPONSE_PROCESSING_EXCEPTION, "error load file by MD5 checksum -> " + message,
+                    e);
         }
-        return null;
-
     }
 
     /**
@@ -183,4 +227,121 @@ public class ArchiveRemoteService {
 
     }
 
+    /**
+     * This method tests which snapshots of a list of snapshot ids exist in the
+     * cassandra archive using the resource
+     * <p>
+     * <code>/archive/snapshot/exists</code>
+     * <p>
+     * In difference to loadSnapshotFromArchive the snapshot data is not
+     * transferred. The method returns null if the archive service does not provide
+     * the resource. In this case the caller should fallback to
+     * loadSnapshotFromArchive.
+     * 
+     * @param snapshotIDs - list of snapshot ids
+     * @return set of existing snapshot ids or null if not supported
+     * @throws RestAPIException
+     */
+    public Set<String> existSnapshotsInArchive(List<String> snapshotIDs) throws RestAPIException {
+        return existInArchive("/archive/snapshot/exists", "id", snapshotIDs);
+    }
+
+    /**
+     * This method tests which documents of a list of md5 checksums exist in the
+     * cassandra archive using the resource
+     * <p>
+     * <code>/archive/md5/exists</code>
+     * <p>
+     * The document data is not transferred. The method returns null if the
+     * archive service does not provide the resource.
+     * 
+     * @param md5Checksums - list of md5 checksums
+     * @return set of existing md5 checksums or null if not supported
+     * @throws RestAPIException
+     */
+    public Set<String> existDocumentsInArchive(List<String> md5Checksums) throws RestAPIException {
+        return existInArchive("/archive/md5/exists", "md5", md5Checksums);
+    }
+
+    /**
+     * Posts a list of keys to an exists resource of the archive service and returns
+     * the existing keys. The request and each entry of the response provide the
+     * keys in the given item. The keys are posted in chunks of
+     * MAX_EXISTS_BATCH_SIZE. The method returns null if the resource is not
+     * available.
+     */
+    private Set<String> existInArchive(String resource, String itemName, List<String> keys) throws RestAPIException {
+        if (!archiveServiceEndpoint.isPresent() || archiveServiceEndpoint.get().isEmpty()) {
+            logger.warning("missing archive service endpoint - verify configuration!");
+            return null;
+        }
+        Set<String> result = new HashSet<String>();
+        if (keys == null) {
+            return result;
+        }
+        for (int i = 0; i < keys.size(); i += MAX_EXISTS_BATCH_SIZE) {
+            Set<String> chunkResult = postExists(resource, itemName,
+                    keys.subList(i, Math.min(i + MAX_EXISTS_BATCH_SIZE, keys.size())));
+            if (chunkResult == null) {
+                return null;
+            }
+            result.addAll(chunkResult);
+        }
+        return result;
+    }
+
+    /**
+     * Posts a single chunk of keys to an exists resource. The method returns null
+     * if the resource is not available.
+     */
+    private Set<String> postExists(String resource, String itemName, List<String> keys) throws RestAPIException {
+        Set<String> result = new HashSet<String>();
+        ItemCollection request = new ItemCollection();
+        request.replaceItemValue(itemName, keys);
+        Response response = null;
+        try {
+            Client rsClient = restClientHelper.getArchiveClient();
+            if (rsClient == null) {
+                logger.warning("Unable to initialize document client!");
+                return null;
+            }
+            String url = archiveServiceEndpoint.get() + resource;
+            response = rsClient.target(url).request(MediaType.APPLICATION_XML)
+                    .post(Entity.entity(XMLDocumentAdapter.getDocument(request), MediaType.APPLICATION_XML));
+            int status = response.getStatus();
+            if (status == Response.Status.NOT_FOUND.getStatusCode()
+                    || status == Response.Status.METHOD_NOT_ALLOWED.getStatusCode()
+                    || status == Response.Status.UNSUPPORTED_MEDIA_TYPE.getStatusCode()) {
+                logger.finest("......resource " + resource + " not available (" + status + ")");
+                return null;
+            }
+            if (status < 200 || status > 299) {
+                throw new RestAPIException(DocumentClient.class.getSimpleName(),
+                        RestAPIException.RESPONSE_PROCESSING_EXCEPTION,
+                        "error verify " + resource + " -> HTTP status " + status);
+            }
+            List<ItemCollection> entries = XMLDataCollectionAdapter
+                    .putDataCollection(response.readEntity(XMLDataCollection.class));
+            for (ItemCollection entry : entries) {
+                if (entry.getItemValueBoolean("exists")) {
+                    result.add(entry.getItemValueString(itemName));
+                }
+            }
+            return result;
+        } catch (ProcessingException e) {
+            String message = null;
+            if (e.getCause() != null) {
+                message = e.getCause().getMessage();
+            } else {
+                message = e.getMessage();
+            }
+            throw new RestAPIException(DocumentClient.class.getSimpleName(),
+                    RestAPIException.RESPONSE_PROCESSING_EXCEPTION, "error verify " + resource + " -> " + message, e);
+        } finally {
+            if (response != null) {
+                response.close();
+            }
+        }
+    }
+
 }
@@ -3,6 +3,7 @@ package org.imixs.archive.core.util;
 import java.io.Serializable;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
 import org.eclipse.microprofile.config.inject.ConfigProperty;
@@ -17,9 +18,12 @@ import org.imixs.melman.OIDCAuthenticator;
 import org.imixs.melman.RestAPIException;
 import org.imixs.melman.WorkflowClient;
 
+import jakarta.annotation.PreDestroy;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
 import jakarta.inject.Named;
+import jakarta.ws.rs.client.Client;
+import jakarta.ws.rs.client.ClientBuilder;
 import jakarta.ws.rs.client.ClientRequestFilter;
 import jakarta.ws.rs.core.Cookie;
 
@@ -38,6 +42,10 @@ public class RestClientHelper implements Serializable {
 
     private static final long serialVersionUID = 1L;
 
+    public static final String ENV_ARCHIVE_CLIENT_POOL_SIZE = "archive.client.pool.size";
+    public static final String ENV_ARCHIVE_CLIENT_CONNECT_TIMEOUT = "archive.client.connect.timeout";
+    public static final String ENV_ARCHIVE_CLIENT_READ_TIMEOUT = "archive.client.read.timeout";
+
     @Inject
     @ConfigProperty(name = SnapshotService.ENV_ARCHIVE_SERVICE_ENDPOINT)
     Optional<String> instanceEndpoint;
@@ -66,8 +74,22 @@ public class RestClientHelper implements Serializable {
     @ConfigProperty(name = SnapshotService.ENV_OIDC_AUTH_CLIENT_SECRET)
     Optional<String> oidcAuthClientSecret;
 
+    // max http connections of the archive client
+    @Inject
+    @ConfigProperty(name = ENV_ARCHIVE_CLIENT_POOL_SIZE, defaultValue = "20")
+    int archiveClientPoolSize;
+
+    @Inject
+    @ConfigProperty(name = ENV_ARCHIVE_CLIENT_CONNECT_TIMEOUT, defaultValue = "10000") // ms
+    long archiveClientConnectTimeout;
+
+    @Inject
+    @ConfigProperty(name = ENV_ARCHIVE_CLIENT_READ_TIMEOUT, defaultValue = "60000") // ms
+    long archiveClientReadTimeout;
+
     DocumentClient documentClient = null;
     EventLogClient eventLogClient = null;
+    transient Client archiveClient = null;
 
     /**
      * This method creates a new DocumentClient instance.
@@ -158,12 +180,87 @@ public class RestClientHelper implements Serializable {
         }
     }
 
+    /**
+     * Returns a long-lived JAX-RS client with the request filters of the
+     * DocumentClient. In difference to DocumentClient.newClient() the client is
+     * created only once and shared by all requests, so the underlying http
+     * connections can be reused (keep-alive). The client must not be closed by
+     * the caller.
+     * <p>
+     * The client is created with the connect and read timeouts defined by the
+     * properties 'archive.client.connect.timeout' and
+     * 'archive.client.read.timeout', so a stalled archive does not block a
+     * request. The size of the connection pool is defined by the property
+     * 'archive.client.pool.size'. The pool is used for all connections to the
+     * archive service (max per route).
+     *
+     * @return shared client or null if no DocumentClient is defined
+     * @throws RestAPIException
+     */
+    public synchronized Client getArchiveClient() throws RestAPIException {
+        if (archiveClient == null) {
+            DocumentClient client = createDocumentClient();
+            if (client == null) {
+                return null;
+            }
+            ClientBuilder builder = ClientBuilder.newBuilder()
+                    .connectTimeout(archiveClientConnectTimeout, TimeUnit.MILLISECONDS)
+                    .readTimeout(archiveClientReadTimeout, TimeUnit.MILLISECONDS);
+            if (client.getSslContext() != null) {
+                builder.sslContext(client.getSslContext());
+            }
+            configureConnectionPool(builder, archiveClientPoolSize);
+            archiveClient = builder.build();
+            for (ClientRequestFilter filter : client.getRequestFilterList()) {
+                archiveClient.register(filter);
+            }
+            logger.info("├── RestClientHelper create ArchiveClient: pool size=" + archiveClientPoolSize
+                    + ", connect timeout=" + archiveClientConnectTimeout + "ms, read timeout="
+                    + archiveClientReadTimeout + "ms");
+        }
+        return archiveClient;
+    }
+
+    /**
+     * Sets the size of the connection pool of a ClientBuilder. The JAX-RS API
+     * does not define a connection pool. For this reason the method uses the
+     * builder methods 'connectionPoolSize' and 'maxPooledPerRoute' provided by
+     * RESTEasy. Without a pool size RESTEasy uses a single connection, so
+     * concurrent requests are queued. A request waits for a free connection max
+     * the connect timeout. Other implementations keep their default.
+     *
+     * @param builder  - client builder
+     * @param poolSize - max connections
+     */
+    private void configureConnectionPool(ClientBuilder builder, int poolSize) {
+        try {
+            Class<?> builderClass = builder.getClass();
+            builderClass.getMethod("connectionPoolSize", int.class).invoke(builder, poolSize);
+            builderClass.getMethod("maxPooledPerRoute", int.class).invoke(builder, poolSize);
+            builderClass.getMethod("connectionCheckoutTimeout", long.class, TimeUnit.class).invoke(builder,
+                    archiveClientConnectTimeout, TimeUnit.MILLISECONDS);
+        } catch (NoSuchMethodException e) {
+            logger.fine("...connection pool not supported by " + builder.getClass().getName());
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            logger.warning("Failed to configure connection pool: " + e.getMessage());
+        }
+    }
+
     /**
      * This method invalidates the rest clients
      */
-    public void reset() {
+    public synchronized void reset() {
         documentClient = null;
         eventLogClient = null;
+        closeArchiveClient();
+    }
+
+    @PreDestroy
+    synchronized void closeArchiveClient() {
+        if (archiveClient != null) {
+            archiveClient.close();
+            archiveClient = null;
+        }
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,72 @@
+package org.imixs.archive.core.api;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import org.imixs.workflow.ItemCollection;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Test the SnapshotDigest. The digests are compared with fixed values, because
+ * the workflow instance and the archive service must compute identical
+ * digests. The same values are verified in the module imixs-archive-service.
+ * 
+ * @author rsoika
+ */
+public class TestSnapshotDigest {
+
+	static final List<String> SNAPSHOT_IDS = Arrays.asList(
+			"2de78aec-6f14-4345-8acf-dd37ae84875d-1705309200000", // 09:00
+			"7f3c1a20-1b2c-4d5e-8f90-123456789abc-1705306500000", // 08:15
+			"a1b2c3d4-0000-1111-2222-333344445555-1705359599999", // 22:59:59.999
+			"2de78aec-6f14-4345-8acf-dd37ae84875d-1705305600000"); // 08:00
+
+	/**
+	 * Test the day and hour digests against fixed values.
+	 */
+	@Test
+	public void testBuild() throws NoSuchAlgorithmException {
+		ItemCollection digest = SnapshotDigest.build("2024-01-15", SNAPSHOT_IDS);
+		assertEquals("2024-01-15", digest.getItemValueString(SnapshotDigest.ITEM_DATE));
+		assertEquals(4, digest.getItemValueInteger(SnapshotDigest.ITEM_COUNT));
+		assertEquals("DAA88189948F7EA072D73D5BD232BC7E", digest.getItemValueString(SnapshotDigest.ITEM_DIGEST));
+		List<?> hourCounts = digest.getItemValue(SnapshotDigest.ITEM_HOUR_COUNT);
+		List<?> hourDigests = digest.getItemValue(SnapshotDigest.ITEM_HOUR_DIGEST);
+		assertEquals(24, hourDigests.size());
+		assertEquals(2, ((Number) hourCounts.get(8)).intValue());
+		assertEquals("E90906EAE7ACF3AD2D9330034FC37E44", hourDigests.get(8));
+		assertEquals("F871C5F70A3A90153762AF2157702773", hourDigests.get(9));
+		assertEquals("592AF55608249155C2B21B0A34E69040", hourDigests.get(22));
+		assertEquals("", hourDigests.get(0));
+	}
+
+	/**
+	 * Test the day and hour of the timestamp contained in a snapshot ID.
+	 */
+	@Test
+	public void testDateAndHour() {
+		String id = "a1b2c3d4-0000-1111-2222-333344445555-1705359599999";
+		assertEquals(LocalDate.of(2024, 1, 15), SnapshotDigest.getDate(id));
+		assertEquals(22, SnapshotDigest.getHour(id));
+		assertEquals("a1b2c3d4-0000-1111-2222-333344445555", SnapshotDigest.getUniqueID(id));
+		assertNull(SnapshotDigest.getDate("a1b2c3d4"));
+		assertEquals(-1, SnapshotDigest.getTime("a1b2c3d4"));
+	}
+
+	/**
+	 * Test the latest snapshot ID of each document.
+	 */
+	@Test
+	public void testLatestSnapshotIDs() {
+		Set<String> latestIDs = SnapshotDigest.getLatestSnapshotIDs(SNAPSHOT_IDS);
+		assertEquals(3, latestIDs.size());
+		assertFalse(latestIDs.contains("2de78aec-6f14-4345-8acf-dd37ae84875d-1705305600000"));
+	}
+}
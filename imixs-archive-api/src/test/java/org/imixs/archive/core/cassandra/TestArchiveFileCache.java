@@ -0,0 +1,147 @@
+package org.imixs.archive.core.cassandra;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.NoSuchAlgorithmException;
+import java.util.Optional;
+
+import org.imixs.workflow.FileData;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Test the ArchiveFileCache.
+ * 
+ * @author rsoika
+ */
+public class TestArchiveFileCache {
+
+	@TempDir
+	Path cacheDir;
+
+	ArchiveFileCache cache;
+
+	@BeforeEach
+	public void setUp() {
+		cache = new ArchiveFileCache();
+		cache.cachePath = Optional.of(cacheDir.toString());
+		cache.cacheSize = 1; // MB
+		cache.init();
+	}
+
+	/**
+	 * A file is cached after the stream was read completely.
+	 */
+	@Test
+	public void testCacheFile() throws IOException, NoSuchAlgorithmException {
+		byte[] content = "Hello World".getBytes();
+		String md5 = new FileData("test.txt", content, null, null).generateMD5();
+		assertNull(load(md5));
+
+		readAll(cache.cache(md5, new ByteArrayInputStream(content)));
+		assertArrayEquals(content, load(md5));
+	}
+
+	/**
+	 * A file is not cached if the stream was not read completely or the checksum
+	 * does not match.
+	 */
+	@Test
+	public void testIncompleteStream() throws IOException, NoSuchAlgorithmException {
+		byte[] content = "Hello World".getBytes();
+		String md5 = new FileData("test.txt", content, null, null).generateMD5();
+		InputStream in = cache.cache(md5, new ByteArrayInputStream(content));
+		in.read(new byte[5]);
+		in.close();
+		assertNull(load(md5));
+
+		String otherMD5 = new FileData("test.txt", "Other".getBytes(), null, null).generateMD5();
+		readAll(cache.cache(otherMD5, new ByteArrayInputStream(content)));
+		assertNull(load(otherMD5));
+	}
+
+	/**
+	 * The least recently used file is evicted if the disk budget is exceeded.
+	 */
+	@Test
+	public void testEviction() throws IOException, NoSuchAlgorithmException {
+		byte[] content1 = new byte[400 * 1024];
+		byte[] content2 = new byte[400 * 1024];
+		byte[] content3 = new byte[400 * 1024];
+		content2[0] = 2;
+		content3[0] = 3;
+		String md5_1 = new FileData("1", content1, null, null).generateMD5();
+		String md5_2 = new FileData("2", content2, null, null).generateMD5();
+		String md5_3 = new FileData("3", content3, null, null).generateMD5();
+
+		readAll(cache.cache(md5_1, new ByteArrayInputStream(content1)));
+		readAll(cache.cache(md5_2, new ByteArrayInputStream(content2)));
+		// access file 1 so file 2 becomes the least recently used file
+		assertNotNull(load(md5_1));
+		readAll(cache.cache(md5_3, new ByteArrayInputStream(content3)));
+
+		assertNotNull(load(md5_1));
+		assertNull(load(md5_2));
+		assertNotNull(load(md5_3));
+		assertFalse(Files.exists(cacheDir.resolve(md5_2)));
+	}
+
+	/**
+	 * An open cached file can still be read after it was evicted.
+	 */
+	@Test
+	public void testReadEvictedFile() throws IOException, NoSuchAlgorithmException {
+		byte[] content1 = new byte[400 * 1024];
+		byte[] content2 = new byte[400 * 1024];
+		byte[] content3 = new byte[400 * 1024];
+		content1[0] = 1;
+		content2[0] = 2;
+		content3[0] = 3;
+		String md5_1 = new FileData("1", content1, null, null).generateMD5();
+		String md5_2 = new FileData("2", content2, null, null).generateMD5();
+		String md5_3 = new FileData("3", content3, null, null).generateMD5();
+
+		readAll(cache.cache(md5_1, new ByteArrayInputStream(content1)));
+		try (FileChannel channel = cache.open(md5_1)) {
+			assertNotNull(channel);
+			// evict file 1 while the channel is open
+			readAll(cache.cache(md5_2, new ByteArrayInputStream(content2)));
+			readAll(cache.cache(md5_3, new ByteArrayInputStream(content3)));
+			assertNull(load(md5_1));
+
+			ByteArrayOutputStream output = new ByteArrayOutputStream();
+			ArchiveFileCache.stream(channel).write(output);
+			assertArrayEquals(content1, output.toByteArray());
+		}
+	}
+
+	/**
+	 * Returns the content of a cached file or null if the file is not cached.
+	 */
+	private byte[] load(String md5) throws IOException {
+		try (FileChannel channel = cache.open(md5)) {
+			if (channel == null) {
+				return null;
+			}
+			return Channels.newInputStream(channel).readAllBytes();
+		}
+	}
+
+	private void readAll(InputStream in) throws IOException {
+		try (InputStream stream = in) {
+			stream.readAllBytes();
+		}
+	}
+}
@@ -23,6 +23,7 @@
 package org.imixs.archive.backup;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -34,12 +35,15 @@ import org.eclipse.microprofile.metrics.Counter;
 import org.eclipse.microprofile.metrics.Metadata;
 import org.eclipse.microprofile.metrics.MetricRegistry;
 import org.eclipse.microprofile.metrics.annotation.RegistryScope;
+import org.imixs.archive.backup.util.EventLogBatchHelper;
 import org.imixs.archive.backup.util.FTPConnector;
 import org.imixs.archive.backup.util.LogController;
 import org.imixs.archive.backup.util.RestClientHelper;
+import org.imixs.archive.backup.util.SnapshotMultipartReader;
 import org.imixs.melman.DocumentClient;
 import org.imixs.melman.EventLogClient;
 import org.imixs.melman.RestAPIException;
+import org.imixs.workflow.FileData;
 import org.imixs.workflow.ItemCollection;
 import org.imixs.workflow.exceptions.InvalidAccessException;
 
@@ -101,10 +105,13 @@ public class BackupService {
     public static final String ENV_BACKUP_FTP_USER = "backup.ftp.user";
     public static final String ENV_BACKUP_FTP_PASSWORD = "backup.ftp.password";
     public static final String ENV_BACKUP_MIRROR_ID = "backup.mirror.id";
+    public static final String ENV_BACKUP_RESTORE_BATCH_SIZE = "backup.restore.batch.size";
 
     public static final String EVENTLOG_TOPIC_BACKUP = "snapshot.backup";
     public static final String BACKUP_SYNC_DEADLOCK = "backup.sync.deadlock";
 
+    public static final String ITEM_FILEDATA_TIERED = "$tiered"; // content moved to the archive
+
     public static final String TOPIC_BACKUP = "BACKUP";
     public static final String TOPIC_RESTORE = "RESTORE";
     public static final String TOPIC_FULLBACKUP = "FULLBACKUP";
@@ -242,11 +249,22 @@ public class BackupService {
                 ftpClient = ftpConnector.getFTPClient();
                 if (events != null && events.size() > 0) {
                     logger.info(" -> " + events.size() + " backup events found...");
+                    // first try to lock all eventLog entries of this page....
+                    List<String> ids = new ArrayList<String>();
+                    for (ItemCollection eventLogEntry : events) {
+                        ids.add(eventLogEntry.getItemValueString("id"));
+                    }
+                    List<String> lockedIDs = EventLogBatchHelper.lockEventLogEntries(eventLogClient, ids);
+                    List<String> processedIDs = new ArrayList<String>();
                     for (ItemCollection eventLogEntry : events) {
                         total++;
                         topic = eventLogEntry.getItemValueString("topic");
                         id = eventLogEntry.getItemValueString("id");
                         ref = eventLogEntry.getItemValueString("ref");
+                        if (!lockedIDs.contains(id)) {
+                            // locked by another process
+                            continue;
+                        }
                         boolean overwrite = true;
                         try {
                             ItemCollection options = null;
@@ -267,8 +285,6 @@ public class BackupService {
                         }
 
                         try {
-                            // first try to lock the eventLog entry....
-                            eventLogClient.lockEventLogEntry(id);
                             // pull the snapshotEvent ...
                             logger.finest("......pull snapshot " + ref + "....");
                             // eventCache.add(eventLogEntry);
@@ -276,12 +292,12 @@ public class BackupService {
                             if (snapshot != null) {
                                 ftpConnector.put(ftpClient, snapshot, overwrite);
                                 // finally remove the event log entry...
-                                eventLogClient.deleteEventLogEntry(id);
+                                processedIDs.add(id);
                                 success++;
                             }
                             countMetric(METRIC_EVENTS_PROCESSED);
 
-                        } catch (InvalidAccessException | EJBException | BackupException | RestAPIException e) {
+                        } catch (InvalidAccessException | EJBException | BackupException e) {
                             // we also catch EJBExceptions here because we do not want to cancel the
                             // ManagedScheduledExecutorService
                             logController.warning(TOPIC_BACKUP, "SnapshotEvent " + id + ": " + e.getMessage());
@@ -290,6 +306,8 @@ public class BackupService {
 
                         }
                     }
+                    // remove all processed event log entries of this page
+                    EventLogBatchHelper.deleteEventLogEntries(eventLogClient, processedIDs);
                     // print log
                     logController.info(TOPIC_BACKUP, success + " snapshots backed up in "
                             + (System.currentTimeMillis() - duration) + " ms - " + errors + " errors...");
@@ -399,8 +417,16 @@ public class BackupService {
             ItemCollection snapshot;
             // reset items
             documentClient.setItems(null);
-            snapshot = documentClient.getDocument(ref);
+            // try to stream the snapshot as multipart first - fallback to xml
+            try (SnapshotMultipartReader multipartReader = new SnapshotMultipartReader(documentClient)) {
+                if (multipartReader.read(ref)) {
+                    snapshot = multipartReader.mergeFileContents();
+                } else {
+                    snapshot = documentClient.getDocument(ref);
+                }
+            }
             if (snapshot != null) {
+                verifyFileContent(snapshot, ref);
                 logger.fine("...write snapshot into backup store...");
                 return snapshot;
             }
@@ -432,6 +458,25 @@ public class BackupService {
         return null;
     }
 
+    /**
+     * Verifies that the snapshot contains the content of all files. The content of
+     * a tiered file (attribute '$tiered') was moved to the archive by the workflow
+     * instance. If the workflow instance does not provide the content, the backup
+     * is refused and the event log entry is kept so that the snapshot will be
+     * retried.
+     *
+     * @throws BackupException
+     */
+    private void verifyFileContent(ItemCollection snapshot, String ref) throws BackupException {
+        for (FileData fileData : snapshot.getFileData()) {
+            if ((fileData.getContent() == null || fileData.getContent().length == 0)
+                    && new ItemCollection(fileData.getAttributes()).getItemValueBoolean(ITEM_FILEDATA_TIERED)) {
+                throw new BackupException(BackupException.INVALID_DOCUMENT_OBJECT, "Snapshot " + ref
+                        + " - content of tiered file '" + fileData.getName() + "' not available (will be retried)");
+            }
+        }
+    }
+
     /**
      * Stops and restarts the timer. The log will be prevented.
      *
@@ -23,7 +23,9 @@
 package org.imixs.archive.backup;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 import java.util.Optional;
 import java.util.logging.Logger;
 
@@ -33,6 +35,7 @@ import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.imixs.archive.backup.util.FTPConnector;
 import org.imixs.archive.backup.util.LogController;
 import org.imixs.archive.backup.util.RestClientHelper;
+import org.imixs.archive.backup.util.SnapshotRestoreHelper;
 import org.imixs.melman.DocumentClient;
 import org.imixs.melman.RestAPIException;
 import org.imixs.workflow.ItemCollection;
@@ -62,6 +65,9 @@ import jakarta.ws.rs.NotFoundException;
  * <p>
  * Note: Data which already exists in the workflow instance will not be
  * overwritten.
+ * <p>
+ * The snapshots are restored in batches. The batch size is defined by the
+ * environment variable BACKUP_RESTORE_BATCH_SIZE (default 10).
  *
  *
  * @version 1.0
@@ -86,6 +92,11 @@ public class RestoreService {
     @ConfigProperty(name = BackupService.ENV_WORKFLOW_SYNC_INITIALDELAY, defaultValue = "30000")
     long initialDelay;
 
+    // number of snapshots restored in one request
+    @Inject
+    @ConfigProperty(name = BackupService.ENV_BACKUP_RESTORE_BATCH_SIZE, defaultValue = "10")
+    int batchSize;
+
     @Inject
     @ConfigProperty(name = BackupService.ENV_WORKFLOW_SERVICE_ENDPOINT)
     Optional<String> workflowServiceEndpoint;
@@ -205,6 +216,7 @@ public class RestoreService {
                             int count = 0;
                             int verified = 0;
                             int skipped = 0;
+                            List<ItemCollection> batch = new ArrayList<ItemCollection>();
                             FTPFile[] importFiles = ftpClient.listFiles();
                             for (FTPFile importFile : importFiles) {
                                 if (importFile.isFile()) {
@@ -214,8 +226,10 @@ public class RestoreService {
                                         // verify if this snapshot exists?
                                         if (!existSnapshot(documentClient, snapshot)) {
                                             // restore data
-                                            restoreSnapshot(documentClient, snapshot);
-                                            count++;
+                                            batch.add(snapshot);
+                                            if (batch.size() >= batchSize) {
+                                                count = count + restoreSnapshots(documentClient, batch);
+                                            }
                                         } else {
                                             // this snapshot already exists in the current workflow instance
                                             skipped++;
@@ -226,6 +240,7 @@ public class RestoreService {
                                     break;
                                 }
                             }
+                            count = count + restoreSnapshots(documentClient, batch);
 
                             logController.info(BackupService.TOPIC_RESTORE,
                                     " ⇨ " + ftpFileYear.getName() + "/" + ftpWorkingPath + ": " + verified
@@ -328,6 +343,53 @@ public class RestoreService {
 
     }
 
+    /**
+     * Helper Method to restore a batch of snapshots in one request. If the workflow
+     * instance does not support the batch resource, the snapshots are restored one
+     * by one. Failed snapshots are logged. The batch is cleared after.
+     *
+     * @param documentClient
+     * @param batch
+     * @return number of restored snapshots
+     * @throws BackupException
+     */
+    private int restoreSnapshots(DocumentClient documentClient, List<ItemCollection> batch) throws BackupException {
+        if (batch.isEmpty()) {
+            return 0;
+        }
+        int count = 0;
+        try {
+            // mark snapshots to indicate that a new backup should be skipped.
+            for (ItemCollection snapshot : batch) {
+                snapshot.setItemValue(BackupService.ITEM_BACKUPRESTORE, new Date());
+            }
+            List<ItemCollection> results = SnapshotRestoreHelper.restoreSnapshots(documentClient, batch);
+            if (results == null) {
+                // fallback
+                for (ItemCollection snapshot : batch) {
+                    restoreSnapshot(documentClient, snapshot);
+                    count++;
+                }
+            } else {
+                for (ItemCollection result : results) {
+                    if (SnapshotRestoreHelper.hasError(result)) {
+                        logController.warning(BackupService.TOPIC_RESTORE, "failed to restore snapshot "
+                                + result.getItemValueString(SnapshotRestoreHelper.ITEM_SNAPSHOTID) + ": "
+                                + result.getItemValueString(SnapshotRestoreHelper.ITEM_ERROR_MESSAGE));
+                    } else {
+                        count++;
+                    }
+                }
+            }
+        } catch (RestAPIException e) {
+            String errorMessage = "...failed to restoreSnapshots: " + e.getMessage();
+            throw new BackupException("RESTOR_ERROR", errorMessage, e);
+        } finally {
+            batch.clear();
+        }
+        return count;
+    }
+
     /**
      * This method initializes the scheduler.
      * <p>
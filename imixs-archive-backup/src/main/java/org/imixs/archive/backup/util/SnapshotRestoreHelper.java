@@ -0,0 +1,101 @@
+package org.imixs.archive.backup.util;
+
+import java.util.List;
+import java.util.logging.Logger;
+
+import org.imixs.melman.DocumentClient;
+import org.imixs.melman.RestAPIException;
+import org.imixs.workflow.ItemCollection;
+import org.imixs.workflow.xml.XMLDataCollection;
+import org.imixs.workflow.xml.XMLDataCollectionAdapter;
+
+import jakarta.ws.rs.ProcessingException;
+import jakarta.ws.rs.client.Client;
+import jakarta.ws.rs.client.Entity;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+
+/**
+ * The SnapshotRestoreHelper restores a list of snapshots in one request. The
+ * method uses the batch resource 'snapshot/restore' provided by the
+ * Imixs-Archive API.
+ * <p>
+ * The resource returns a result for each snapshot with the item '$snapshotid'
+ * and in case of an error the items '$error_code' and '$error_message'.
+ * <p>
+ * Note: The class is duplicated as
+ * org.imixs.archive.service.util.SnapshotRestoreHelper in the module
+ * imixs-archive-service. The backup service and the archive service are deployed
+ * independently and do not share a common module. Both copies must be changed
+ * together.
+ *
+ * @author rsoika
+ */
+public class SnapshotRestoreHelper {
+
+    public static final String SNAPSHOT_RESTORE_RESOURCE = "snapshot/restore";
+    public static final String ITEM_SNAPSHOTID = "$snapshotid";
+    public static final String ITEM_ERROR_CODE = "$error_code";
+    public static final String ITEM_ERROR_MESSAGE = "$error_message";
+
+    private static Logger logger = Logger.getLogger(SnapshotRestoreHelper.class.getName());
+
+    /**
+     * Restores a list of snapshots and returns the result of each snapshot. The
+     * method returns null if the workflow instance does not provide the batch
+     * resource. In this case the client should fallback to single requests.
+     *
+     * @param documentClient
+     * @param snapshots
+     * @return list of results or null
+     * @throws RestAPIException
+     */
+    public static List<ItemCollection> restoreSnapshots(DocumentClient documentClient,
+            List<ItemCollection> snapshots) throws RestAPIException {
+        String url = documentClient.getBaseURI();
+        if (!url.endsWith("/")) {
+            url = url + "/";
+        }
+        url = url + SNAPSHOT_RESTORE_RESOURCE;
+        Client rsClient = documentClient.newClient();
+        Response response = null;
+        try {
+            response = rsClient.target(url).request(MediaType.APPLICATION_XML).post(Entity
+                    .entity(XMLDataCollectionAdapter.getDataCollection(snapshots), MediaType.APPLICATION_XML));
+            int status = response.getStatus();
+            if (status == Response.Status.NOT_FOUND.getStatusCode()
+                    || status == Response.Status.UNAUTHORIZED.getStatusCode()
+                    || status == Response.Status.FORBIDDEN.getStatusCode()
+                    || status == Response.Status.METHOD_NOT_ALLOWED.getStatusCode()) {
+                logger.finest("......snapshot restore resource not available (" + status + ")");
+                return null;
+            }
+            if (status < 200 || status > 299) {
+                throw new RestAPIException(DocumentClient.class.getSimpleName(),
+                        RestAPIException.RESPONSE_PROCESSING_EXCEPTION,
+                        "error restoring snapshots -> HTTP status " + status);
+            }
+            return XMLDataCollectionAdapter.putDataCollection(response.readEntity(XMLDataCollection.class));
+        } catch (ProcessingException e) {
+            throw new RestAPIException(DocumentClient.class.getSimpleName(),
+                    RestAPIException.RESPONSE_PROCESSING_EXCEPTION, "error restoring snapshots -> " + e.getMessage(),
+                    e);
+        } finally {
+            if (response != null) {
+                response.close();
+            }
+            rsClient.close();
+        }
+    }
+
+    /**
+     * Returns true if the result of a snapshot contains an error.
+     *
+     * @param result
+     * @return true if the snapshot was not restored
+     */
+    public static boolean hasError(ItemCollection result) {
+        return !result.getItemValueString(ITEM_ERROR_CODE).isEmpty();
+    }
+
+}
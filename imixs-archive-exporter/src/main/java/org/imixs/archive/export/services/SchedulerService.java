@@ -22,6 +22,7 @@
  *******************************************************************************/
 package org.imixs.archive.export.services;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -32,7 +33,9 @@ import java.util.regex.Pattern;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.imixs.archive.export.ExportApi;
 import org.imixs.archive.export.ExportException;
+import org.imixs.archive.export.util.EventLogBatchHelper;
 import org.imixs.archive.export.util.RestClientHelper;
+import org.imixs.archive.export.util.SnapshotMultipartReader;
 import org.imixs.melman.DocumentClient;
 import org.imixs.melman.EventLogClient;
 import org.imixs.melman.RestAPIException;
@@ -214,10 +217,22 @@ public class SchedulerService {
             eventLogClient.setPageSize(100);
             List<ItemCollection> events = eventLogClient.searchEventLog(topic);
 
+            // first try to lock all eventLog entries of this page....
+            List<String> ids = new ArrayList<String>();
+            for (ItemCollection eventLogEntry : events) {
+                ids.add(eventLogEntry.getItemValueString("id"));
+            }
+            List<String> lockedIDs = EventLogBatchHelper.lockEventLogEntries(eventLogClient, ids);
+            List<String> processedIDs = new ArrayList<String>();
+            List<String> failedIDs = new ArrayList<String>();
             for (ItemCollection eventLogEntry : events) {
                 total++;
                 id = eventLogEntry.getItemValueString("id");
                 ref = eventLogEntry.getItemValueString("ref");
+                if (!lockedIDs.contains(id)) {
+                    // locked by another process
+                    continue;
+                }
                 String path = "";
                 String filter = "";
                 Pattern pattern = null;
@@ -233,8 +248,6 @@ public class SchedulerService {
                 }
 
                 try {
-                    // first try to lock the eventLog entry....
-                    eventLogClient.lockEventLogEntry(id);
                     // pull the snapshotEvent ...
                     List<FileData> fileDataList = pullFileDataList(eventLogEntry, documentClient, eventLogClient);
 
@@ -254,16 +267,18 @@ public class SchedulerService {
                     }
 
                     // finally remove the event log entry...
-                    eventLogClient.deleteEventLogEntry(id);
-                } catch (InvalidAccessException | EJBException | ExportException | RestAPIException e) {
+                    processedIDs.add(id);
+                } catch (InvalidAccessException | EJBException | ExportException e) {
                     // we also catch EJBExceptions here because we do not want to cancel the
                     // ManagedScheduledExecutorService
                     logService.warning("ExportEvent " + id + " failed: " + e.getMessage());
                     errors++;
                     // release lock
-                    eventLogClient.unlockEventLogEntry(id);
+                    failedIDs.add(id);
                 }
             }
+            EventLogBatchHelper.deleteEventLogEntries(eventLogClient, processedIDs);
+            EventLogBatchHelper.unlockEventLogEntries(eventLogClient, failedIDs);
 
             // print log
             if (total > 0) {
@@ -330,7 +345,15 @@ public class SchedulerService {
 
             // load the snapshot
 
-            ItemCollection snapshot = documentClient.getDocument(workitem.getItemValueString(SNAPSHOTID));
+            ItemCollection snapshot;
+            // try to stream the snapshot as multipart first - fallback to xml
+            try (SnapshotMultipartReader multipartReader = new SnapshotMultipartReader(documentClient)) {
+                if (multipartReader.read(workitem.getItemValueString(SNAPSHOTID))) {
+                    snapshot = multipartReader.mergeFileContents();
+                } else {
+                    snapshot = documentClient.getDocument(workitem.getItemValueString(SNAPSHOTID));
+                }
+            }
             if (snapshot != null) {
                 return snapshot.getFileData();
             }
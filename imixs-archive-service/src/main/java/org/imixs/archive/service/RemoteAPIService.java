@@ -22,14 +22,20 @@
  *******************************************************************************/
 package org.imixs.archive.service;
 
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
 import java.util.logging.Logger;
 
 import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.imixs.archive.service.util.SnapshotDigest;
+import org.imixs.archive.service.util.SnapshotRestoreHelper;
 import org.imixs.melman.DocumentClient;
 import org.imixs.melman.RestAPIException;
 import org.imixs.workflow.ItemCollection;
 import org.imixs.workflow.xml.XMLDataCollection;
+import org.imixs.workflow.xml.XMLDataCollectionAdapter;
 import org.imixs.workflow.xml.XMLDocumentAdapter;
 
 import jakarta.ejb.Stateless;
@@ -51,6 +57,9 @@ public class RemoteAPIService {
     public final static String SNAPSHOT_RESOURCE = "snapshot/";
     public final static String DOCUMENTS_RESOURCE = "documents/";
     public final static String SNAPSHOT_SYNCPOINT_RESOURCE = "snapshot/syncpoint/";
+    public final static String SNAPSHOT_SYNCPAGE_RESOURCE = "snapshot/syncpage/";
+    public final static String SNAPSHOT_SYNCMANIFEST_RESOURCE = "snapshot/syncmanifest/";
+    public final static String SNAPSHOT_DIGEST_RESOURCE = "snapshot/digest";
 
     private static Logger logger = Logger.getLogger(RemoteAPIService.class.getName());
 
@@ -100,6 +109,145 @@ public class RemoteAPIService {
         return null;
     }
 
+    /**
+     * This method reads a page of sync data starting after the cursor given by the
+     * syncpoint and the id of the last snapshot read. If no data is available the
+     * method returns null.
+     * <p>
+     * If the workflow instance does not support the syncpage resource, the method
+     * falls back to the method readSyncData.
+     * 
+     * @param syncPoint      - modified timestamp of the last snapshot read
+     * @param lastID         - id of the last snapshot read or null
+     * @param pageSize       - max number of snapshots
+     * @param content        - include file content
+     * @param documentClient
+     * @return an XMLDataCollection instance representing the data to sync or null
+     *         if no data form the given cursor is available.
+     * @throws ArchiveException
+     */
+    public XMLDataCollection readSyncPage(long syncPoint, String lastID, int pageSize, boolean content,
+            DocumentClient documentClient) throws ArchiveException {
+        XMLDataCollection result = null;
+        String url = "";
+        try {
+            url = SNAPSHOT_SYNCPAGE_RESOURCE + syncPoint + "?pagesize=" + pageSize + "&content=" + content;
+            if (lastID != null && !lastID.isEmpty()) {
+                url = url + "&id=" + lastID;
+            }
+            logger.finest("...... read data: " + url + "....");
+            result = documentClient.getCustomResourceXML(url);
+        } catch (RestAPIException e) {
+            if (e.getCause() instanceof jakarta.ws.rs.NotFoundException) {
+                logger.warning("...syncpage resource not available - fallback to syncpoint resource");
+                return readSyncData(syncPoint, documentClient);
+            }
+            String errorMessage = "...failed readSyncPage at : " + url + "  Error Message: " + e.getMessage();
+            throw new ArchiveException(ArchiveException.SYNC_ERROR, errorMessage, e);
+        }
+
+        if (result != null && result.getDocument().length > 0) {
+            return result;
+        }
+        return null;
+    }
+
+    /**
+     * This method reads a manifest of snapshots starting after the cursor given
+     * by the syncpoint and the id of the last snapshot read. Each entry of the
+     * manifest contains only the items '$uniqueid' and '$modified'. If no data is
+     * available the method returns null.
+     * <p>
+     * If the workflow instance does not support the syncmanifest resource, the
+     * method falls back to the method readSyncPage without file content.
+     * 
+     * @param syncPoint      - modified timestamp of the last snapshot read
+     * @param lastID         - id of the last snapshot read or null
+     * @param pageSize       - max number of entries
+     * @param documentClient
+     * @return an XMLDataCollection instance representing the manifest or null if
+     *         no data form the given cursor is available.
+     * @throws ArchiveException
+     */
+    public XMLDataCollection readSyncManifest(long syncPoint, String lastID, int pageSize,
+            DocumentClient documentClient) throws ArchiveException {
+        XMLDataCollection result = null;
+        String url = "";
+        try {
+            url = SNAPSHOT_SYNCMANIFEST_RESOURCE + syncPoint + "?pagesize=" + pageSize;
+            if (lastID != null && !lastID.isEmpty()) {
+                url = url + "&id=" + lastID;
+            }
+            logger.finest("...... read manifest: " + url + "....");
+            result = documentClient.getCustomResourceXML(url);
+        } catch (RestAPIException e) {
+            if (e.getCause() instanceof jakarta.ws.rs.NotFoundException
+                    || e.getCause() instanceof jakarta.ws.rs.NotAuthorizedException) {
+                logger.warning("...syncmanifest resource not available - fallback to syncpage resource");
+                return readSyncPage(syncPoint, lastID, pageSize, false, documentClient);
+            }
+            String errorMessage = "...failed readSyncManifest at : " + url + "  Error Message: " + e.getMessage();
+            throw new ArchiveException(ArchiveException.SYNC_ERROR, errorMessage, e);
+        }
+
+        if (result != null && result.getDocument().length > 0) {
+            return result;
+        }
+        return null;
+    }
+
+    /**
+     * This method reads the snapshot digests of the workflow instance between two
+     * days. Each entry contains the digest of the day and the digests of each
+     * hour.
+     * 
+     * @param from           - first day
+     * @param to             - last day
+     * @param documentClient
+     * @return list of day digests
+     * @throws ArchiveException
+     */
+    public List<ItemCollection> readDigests(LocalDate from, LocalDate to,
+            DocumentClient documentClient) throws ArchiveException {
+        String url = SNAPSHOT_DIGEST_RESOURCE + "?from=" + from + "&to=" + to;
+        try {
+            logger.finest("...... read digests: " + url + "....");
+            XMLDataCollection result = documentClient.getCustomResourceXML(url);
+            return XMLDataCollectionAdapter.putDataCollection(result);
+        } catch (RestAPIException e) {
+            String errorMessage = "...failed readDigests at : " + url + "  Error Message: " + e.getMessage();
+            throw new ArchiveException(ArchiveException.SYNC_ERROR, errorMessage, e);
+        }
+    }
+
+    /**
+     * This method reads the snapshot IDs of the workflow instance for a single
+     * hour of a day.
+     * 
+     * @param date           - the day
+     * @param hour           - hour of the day (0-23)
+     * @param documentClient
+     * @return sorted list of snapshot IDs
+     * @throws ArchiveException
+     */
+    public List<String> readDigestSnapshotIDs(LocalDate date, int hour, DocumentClient documentClient)
+            throws ArchiveException {
+        String url = SNAPSHOT_DIGEST_RESOURCE + "/" + date + "/" + hour;
+        try {
+            logger.finest("...... read digest ids: " + url + "....");
+            XMLDataCollection result = documentClient.getCustomResourceXML(url);
+            if (result != null && result.getDocument().length > 0) {
+                ItemCollection document = XMLDocumentAdapter.putDocument(result.getDocument()[0]);
+                return document.getItemValueList(SnapshotDigest.ITEM_ID, String.class);
+            }
+            return new ArrayList<String>();
+        } catch (RestAPIException e) {
+            String errorMessage = "...failed readDigestSnapshotIDs at : " + url + "  Error Message: "
+                    + e.getMessage();
+            throw new ArchiveException(ArchiveException.SYNC_ERROR, errorMessage, e);
+        }
+    }
+
     /**
      * This method read the current snapshot id for a given UnqiueID. This
      * information can be used to verify the sync status of a single process
@@ -145,6 +293,45 @@ public class RemoteAPIService {
 
     }
 
+    /**
+     * Restores a list of snapshots in one request and returns the result of each
+     * snapshot. If the workflow instance does not provide the batch resource, the
+     * snapshots are restored one by one.
+     * 
+     * @param snapshots
+     * @param documentClient
+     * @return result of each snapshot with the items '$snapshotid' and in case of
+     *         an error '$error_code' and '$error_message'
+     * @throws ArchiveException
+     */
+    public List<ItemCollection> restoreSnapshots(List<ItemCollection> snapshots, DocumentClient documentClient)
+            throws ArchiveException {
+        List<ItemCollection> result = null;
+        try {
+            logger.finest("...... post " + snapshots.size() + " snapshots....");
+            result = SnapshotRestoreHelper.restoreSnapshots(documentClient, snapshots);
+        } catch (RestAPIException e) {
+            String errorMessage = "...failed to restoreSnapshots: " + e.getMessage();
+            throw new ArchiveException(ArchiveException.SYNC_ERROR, errorMessage, e);
+        }
+        if (result == null) {
+            // fallback
+            result = new ArrayList<ItemCollection>();
+            for (ItemCollection snapshot : snapshots) {
+                ItemCollection snapshotResult = new ItemCollection();
+                snapshotResult.setItemValue(SnapshotRestoreHelper.ITEM_SNAPSHOTID, snapshot.getUniqueID());
+                try {
+                    restoreSnapshot(snapshot, documentClient);
+                } catch (ArchiveException e) {
+                    snapshotResult.setItemValue(SnapshotRestoreHelper.ITEM_ERROR_CODE, e.getErrorCode());
+                    snapshotResult.setItemValue(SnapshotRestoreHelper.ITEM_ERROR_MESSAGE, e.getMessage());
+                }
+                result.add(snapshotResult);
+            }
+        }
+        return result;
+    }
+
     public void deleteSnapshot(String id, DocumentClient documentClient) throws ArchiveException {
         try {
             String url = SNAPSHOT_RESOURCE;
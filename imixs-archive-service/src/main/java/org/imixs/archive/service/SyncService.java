@@ -1,5 +1,6 @@
 package org.imixs.archive.service;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
@@ -9,6 +10,8 @@ import java.util.stream.Collectors;
 
 import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.imixs.archive.service.cassandra.DataService;
+import org.imixs.archive.service.util.EventLogBatchHelper;
+import org.imixs.archive.service.util.SnapshotMultipartReader;
 import org.imixs.melman.DocumentClient;
 import org.imixs.melman.EventLogClient;
 import org.imixs.melman.RestAPIException;
@@ -84,7 +87,9 @@ public class SyncService {
      * lookups the event log entries and pushes new snapshots into the archive
      * service.
      * <p>
-     * Each eventLogEntry is locked to guaranty exclusive processing.
+     * Each eventLogEntry is locked to guaranty exclusive processing. The entries
+     * of a page are locked, deleted and created in batches to reduce the number of
+     * remote calls.
      * 
      * @throws RestAPIException
      **/
@@ -107,14 +112,33 @@ public class SyncService {
         List<ItemCollection> events = eventLogClient.searchEventLog(EVENTLOG_TOPIC_ADD,
                 EVENTLOG_TOPIC_REMOVE);
 
+        // first try to lock all eventLog entries of this page....
+        List<String> ids = new ArrayList<String>();
+        for (ItemCollection eventLogEntry : events) {
+            ids.add(eventLogEntry.getItemValueString("id"));
+        }
+        List<String> lockedIDs = EventLogBatchHelper.lockEventLogEntries(eventLogClient, ids);
+
+        List<String> mirrorList = new ArrayList<String>();
+        String mirrors = backupMirrors.orElse("");
+        if (!mirrors.isBlank()) {
+            mirrorList = Arrays.stream(mirrors.split(","))
+                    .map(String::trim)
+                    .filter(s -> !s.isEmpty())
+                    .collect(Collectors.toList());
+        }
+        List<String> processedIDs = new ArrayList<String>();
+        List<ItemCollection> backupEvents = new ArrayList<ItemCollection>();
         for (ItemCollection eventLogEntry : events) {
             topic = eventLogEntry.getItemValueString("topic");
             id = eventLogEntry.getItemValueString("id");
             ref = eventLogEntry.getItemValueString("ref");
+            if (!lockedIDs.contains(id)) {
+                // locked by another process
+                continue;
+            }
+            snapshot = null;
             try {
-                // first try to lock the eventLog entry....
-                eventLogClient.lockEventLogEntry(id);
-
                 // pull the snapshotEvent only if not just qeued...
                 if (topic.startsWith(EVENTLOG_TOPIC_ADD)) {
                     logger.finest("......pull snapshot " + ref + "....");
@@ -125,24 +149,17 @@ public class SyncService {
                     logger.info("Remove Snapshot not yet implemented");
                 }
                 // finally remove the event log entry...
-                eventLogClient.deleteEventLogEntry(id);
+                processedIDs.add(id);
 
                 // finally write a backup event log entry if a BackupService is available...
                 if (backupServiceEndpoint.isPresent() && !backupServiceEndpoint.get().isEmpty()) {
                     // we skip this event if the snapshot is from a restore....
                     if (snapshot != null && !snapshot.hasItem(ITEM_BACKUPRESTORE)) {
                         logger.finest("......create event log entry " + EVENTLOG_TOPIC_BACKUP);
-                        eventLogClient.createEventLogEntry(EVENTLOG_TOPIC_BACKUP, ref, null);
+                        backupEvents.add(createEventLogEntry(EVENTLOG_TOPIC_BACKUP, ref));
                         // create additional events for each backup mirror if defined
-                        String mirrors = backupMirrors.orElse("");
-                        if (!mirrors.isBlank()) {
-                            List<String> mirrorList = Arrays.stream(mirrors.split(","))
-                                    .map(String::trim)
-                                    .filter(s -> !s.isEmpty())
-                                    .collect(Collectors.toList());
-                            for (String mirrorID : mirrorList) {
-                                eventLogClient.createEventLogEntry(EVENTLOG_TOPIC_BACKUP + "." + mirrorID, ref, null);
-                            }
+                        for (String mirrorID : mirrorList) {
+                            backupEvents.add(createEventLogEntry(EVENTLOG_TOPIC_BACKUP + "." + mirrorID, ref));
                         }
                     }
                 }
@@ -153,10 +170,13 @@ public class SyncService {
                 logger.severe("SnapshotEvent " + id + " pull failed: " + e.getMessage());
                 // now we need to remove the batch event
                 logger.warning("SnapshotEvent " + id + " will be removed!");
-                eventLogClient.deleteEventLogEntry(id);
-                // eventLogService.removeEvent(eventLogEntry.getId());
+                processedIDs.add(id);
             }
         }
+        // write the backup events before the processed entries are removed
+        EventLogBatchHelper.createEventLogEntries(eventLogClient, backupEvents);
+        EventLogBatchHelper.deleteEventLogEntries(eventLogClient, processedIDs);
+
         if (count > 0) {
             logger.info("Processed " + count + " snapshot events in " + (System.currentTimeMillis() - duration) + "ms");
         } else {
@@ -166,6 +186,21 @@ public class SyncService {
 
     }
 
+    /**
+     * Helper method to create a new event log entry to be written by the
+     * EventLogBatchHelper.
+     * 
+     * @param topic
+     * @param ref
+     * @return event log entry
+     */
+    private ItemCollection createEventLogEntry(String topic, String ref) {
+        ItemCollection entry = new ItemCollection();
+        entry.setItemValue("topic", topic);
+        entry.setItemValue("ref", ref);
+        return entry;
+    }
+
     /**
      * Asynchronous method to release dead locks
      * 
@@ -192,7 +227,8 @@ public class SyncService {
      * The method returns a AsyncResult to indicate the completion of the push. A
      * client can use this information for further control.
      * <p>
-     * The method returns the snapshot ItemCollection
+     * The method returns the snapshot ItemCollection or null if the snapshot could
+     * not be pulled. The event log entry is not removed by this method.
      * 
      * @throws ArchiveException
      * @throws RestAPIException
@@ -214,12 +250,8 @@ public class SyncService {
         // lookup the snapshot...
         ItemCollection snapshot;
         try {
-            snapshot = documentClient.getDocument(ref);
-
+            snapshot = pullSnapshot(ref, documentClient);
             if (snapshot != null) {
-                logger.finest("...write snapshot...");
-                dataService.saveSnapshot(snapshot);
-
                 // TODO - we should now delete the snapshot! This will decrease the storage
                 // on the database. But is this bullet proved....?
                 if (debug) {
@@ -230,15 +262,43 @@ public class SyncService {
 
         } catch (RestAPIException e) {
             logger.severe("Snapshot " + ref + " pull failed: " + e.getMessage());
-            // now we need to remove the batch event
+            // the event log entry is removed by the caller together with the processed
+            // entries of the page
             logger.warning("EventLogEntry " + id + " will be removed!");
-            try {
-                eventLogClient.deleteEventLogEntry(id);
-            } catch (RestAPIException e1) {
-                throw new ArchiveException("REMOTE_EXCEPTION", "Unable to delte eventLogEntry: " + id, e1);
-            }
         }
         return null;
     }
 
+    /**
+     * This method loads a snapshot by its id from the workflow instance and writes
+     * the snapshot into the archive. The snapshot is streamed as multipart first.
+     * If the multipart resource is not available the method falls back to the XML
+     * representation.
+     * 
+     * @param snapshotID
+     * @param documentClient
+     * @return the snapshot or null if the snapshot does not exist
+     * @throws RestAPIException
+     * @throws ArchiveException
+     */
+    public ItemCollection pullSnapshot(String snapshotID, DocumentClient documentClient)
+            throws RestAPIException, ArchiveException {
+        ItemCollection snapshot;
+        try (SnapshotMultipartReader multipartReader = new SnapshotMultipartReader(documentClient)) {
+            // try to stream the snapshot as multipart first - fallback to xml
+            if (multipartReader.read(snapshotID)) {
+                snapshot = multipartReader.getSnapshot();
+                logger.finest("...write snapshot...");
+                dataService.saveSnapshot(snapshot, multipartReader.getFileContents());
+            } else {
+                snapshot = documentClient.getDocument(snapshotID);
+                if (snapshot != null) {
+                    logger.finest("...write snapshot...");
+                    dataService.saveSnapshot(snapshot);
+                }
+            }
+        }
+        return snapshot;
+    }
+
 }
@@ -29,6 +29,10 @@ package org.imixs.archive.service.api;
 
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -38,6 +42,8 @@ import org.imixs.archive.service.cassandra.DataService;
 import org.imixs.workflow.FileData;
 import org.imixs.workflow.ItemCollection;
 import org.imixs.workflow.xml.XMLDataCollectionAdapter;
+import org.imixs.workflow.xml.XMLDocument;
+import org.imixs.workflow.xml.XMLDocumentAdapter;
 
 import com.datastax.driver.core.Cluster;
 import com.datastax.driver.core.Session;
@@ -45,15 +51,19 @@ import com.datastax.driver.core.Session;
 import jakarta.ejb.Stateless;
 import jakarta.inject.Inject;
 import jakarta.servlet.http.HttpServletRequest;
+import jakarta.ws.rs.Consumes;
 import jakarta.ws.rs.Encoded;
 import jakarta.ws.rs.GET;
+import jakarta.ws.rs.POST;
 import jakarta.ws.rs.Path;
 import jakarta.ws.rs.PathParam;
 import jakarta.ws.rs.Produces;
 import jakarta.ws.rs.QueryParam;
 import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.core.EntityTag;
 import jakarta.ws.rs.core.HttpHeaders;
 import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Request;
 import jakarta.ws.rs.core.Response;
 import jakarta.ws.rs.core.UriInfo;
 
@@ -71,6 +81,10 @@ import jakarta.ws.rs.core.UriInfo;
 @Stateless
 public class ArchiveRestService {
 
+    // content addressed by a md5 checksum never changes
+    public static final String CACHE_CONTROL_IMMUTABLE = "private, max-age=31536000, immutable";
+    public static final int MAX_EXISTS_BATCH_SIZE = 1000;
+
     @Inject
     ClusterService clusterService;
 
@@ -112,6 +126,112 @@ public class ArchiveRestService {
         }
     }
 
+    /**
+     * Tests which snapshots of a list of snapshot ids exist in the archive. The
+     * request provides the ids in the item 'id'. The response contains one entry
+     * for each requested id with the items 'id' and 'exists'. If the query
+     * parameter 'size' is true, the item 'size' provides the size of the stored
+     * snapshot data without attached documents.
+     * <p>
+     * In difference to the resource /snapshot/{id} the snapshot data is not loaded
+     * and no documents are merged. The method is used by the SnapshotCompactor of
+     * the workflow instance to verify a batch of snapshots in one request.
+     * 
+     * @param xmlDocument - request with a list of snapshot ids
+     * @param size        - true if the data size should be returned
+     * @return XMLDataCollection
+     */
+    @POST
+    @Path("/snapshot/exists")
+    @Consumes({ MediaType.APPLICATION_XML, MediaType.TEXT_XML })
+    @Produces({ MediaType.APPLICATION_XML, MediaType.TEXT_XML })
+    public Response existSnapshots(XMLDocument xmlDocument, @QueryParam("size") boolean size) {
+        ItemCollection request = XMLDocumentAdapter.putDocument(xmlDocument);
+        List<String> ids = request.getItemValueList("id", String.class);
+        if (ids.size() > MAX_EXISTS_BATCH_SIZE) {
+            return Response.status(Response.Status.BAD_REQUEST).build();
+        }
+        try {
+            Set<String> existingIDs = dataService.existSnapshots(ids);
+            Map<String, Long> sizes = null;
+            if (size) {
+                sizes = dataService.loadSnapshotDataSizes(existingIDs);
+            }
+            List<ItemCollection> result = new ArrayList<ItemCollection>();
+            for (String id : ids) {
+                ItemCollection entry = new ItemCollection();
+                entry.setItemValue("id", id);
+                entry.setItemValue("exists", existingIDs.contains(id));
+                if (sizes != null && sizes.containsKey(id)) {
+                    entry.setItemValue("size", sizes.get(id));
+                }
+                result.add(entry);
+            }
+            return Response.ok(XMLDataCollectionAdapter.getDataCollection(result)).build();
+        } catch (RuntimeException e) {
+            logger.warning("...failed to verify snapshots: " + e.getMessage());
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
+    /**
+     * Tests which documents of a list of md5 checksums exist in the archive. The
+     * request provides the checksums in the item 'md5'. The response contains one
+     * entry for each requested checksum with the items 'md5' and 'exists'.
+     * <p>
+     * The document data is not loaded. The method is used by the
+     * SnapshotTieringService of the workflow instance to verify the files of a
+     * batch of snapshots in one request.
+     * 
+     * @param xmlDocument - request with a list of md5 checksums
+     * @return XMLDataCollection
+     */
+    @POST
+    @Path("/md5/exists")
+    @Consumes({ MediaType.APPLICATION_XML, MediaType.TEXT_XML })
+    @Produces({ MediaType.APPLICATION_XML, MediaType.TEXT_XML })
+    public Response existDocuments(XMLDocument xmlDocument) {
+        ItemCollection request = XMLDocumentAdapter.putDocument(xmlDocument);
+        List<String> md5Checksums = request.getItemValueList("md5", String.class);
+        if (md5Checksums.size() > MAX_EXISTS_BATCH_SIZE) {
+            return Response.status(Response.Status.BAD_REQUEST).build();
+        }
+        try {
+            Set<String> existingMD5s = dataService.existDocuments(md5Checksums);
+            List<ItemCollection> result = new ArrayList<ItemCollection>();
+            for (String md5 : md5Checksums) {
+                ItemCollection entry = new ItemCollection();
+                entry.setItemValue("md5", md5);
+                entry.setItemValue("exists", existingMD5s.contains(md5));
+                result.add(entry);
+            }
+            return Response.ok(XMLDataCollectionAdapter.getDataCollection(result)).build();
+        } catch (RuntimeException e) {
+            logger.warning("...failed to verify documents: " + e.getMessage());
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
+    /**
+     * Loads the latest snapshot of a document from the archive.
+     * 
+     * @param uniqueid - $uniqueid of the origin document
+     * @return XMLDataCollection
+     */
+    @GET
+    @Path("/latest/{uniqueid}")
+    public Response getLatestSnapshot(@PathParam("uniqueid") String uniqueid, @QueryParam("format") String format) {
+        try {
+            String snapshotID = dataService.loadLatestSnapshotID(uniqueid);
+            if (snapshotID != null) {
+                return convertResult(dataService.loadSnapshot(snapshotID), format);
+            }
+        } catch (ArchiveException e) {
+            logger.warning("...Failed to load latest snapshot: " + e.getMessage());
+        }
+        return Response.status(Response.Status.NOT_FOUND).build();
+    }
+
     /**
      * Loads the metadata from the archive and returns a HTML representation.
      * 
@@ -148,6 +268,11 @@ public class ArchiveRestService {
      * <p>
      * The query parameter 'contentType' can be added to specify the returned
      * content type.
+     * <p>
+     * The content of a md5 checksum never changes. For this reason the response
+     * provides the checksum as a strong ETag and can be cached by the client. A
+     * request with a matching 'If-None-Match' header is answered with 304 without
+     * loading the content.
      * 
      * @param md5 - md5 checksum to identify the file content
      * @return
@@ -156,8 +281,13 @@ public class ArchiveRestService {
     @Path("/md5/{md5}")
     @Produces(MediaType.APPLICATION_OCTET_STREAM)
     public Response getSnapshotFileByMD5Checksum(@PathParam("md5") @Encoded String md5,
-            @QueryParam("contentType") String contentType) {
+            @QueryParam("contentType") String contentType, @Context Request request) {
         boolean debug = logger.isLoggable(Level.FINE);
+        EntityTag etag = new EntityTag(md5);
+        Response.ResponseBuilder notModified = request.evaluatePreconditions(etag);
+        if (notModified != null) {
+            return notModified.header(HttpHeaders.CACHE_CONTROL, CACHE_CONTROL_IMMUTABLE).build();
+        }
         // load the snapshot
         byte[] fileContent = null;
         try {
@@ -177,7 +307,8 @@ public class ArchiveRestService {
             if (fileContent != null && fileContent.length > 0) {
                 // Set content type in order of the contentType stored
                 // in the $file attribute
-                Response.ResponseBuilder builder = Response.ok(fileContent, contentType);
+                Response.ResponseBuilder builder = Response.ok(fileContent, contentType).tag(etag)
+                        .header(HttpHeaders.CACHE_CONTROL, CACHE_CONTROL_IMMUTABLE);
                 return builder.build();
             } else {
                 logger.warning("Unable to open file by md5 checksum: '" + md5 + "' - no content!");
@@ -204,20 +335,25 @@ public class ArchiveRestService {
      * <p>
      * The file name will be encoded. With a URLDecode the filename is decoded in
      * different formats and searched in the file list. This is not a nice solution.
+     * <p>
+     * The md5 checksum of the file is provided as a strong ETag. A request with a
+     * matching 'If-None-Match' header is answered with 304 without loading the
+     * content.
      * 
      * @param uniqueid
      * @return
      */
     @GET
     @Path("/snapshot/{id}/file/{file}")
-    public Response getSnapshotFileByName(@PathParam("snapshotid") String id, @PathParam("file") @Encoded String file,
-            @Context UriInfo uriInfo) {
+    public Response getSnapshotFileByName(@PathParam("id") String id, @PathParam("file") @Encoded String file,
+            @Context UriInfo uriInfo, @Context Request request) {
 
         // load the snapshot
         Session session = null;
         Cluster cluster = null;
         ItemCollection snapshot = null;
         FileData fileData = null;
+        EntityTag etag = null;
         try {
             logger.finest("...read snapshot...");
             // cluster = clusterService.getCluster();
@@ -235,6 +371,15 @@ public class ArchiveRestService {
                 fileData = snapshot.getFileData(file);
 
             if (fileData != null) {
+                String md5 = new ItemCollection(fileData.getAttributes())
+                        .getItemValueString(DataService.ITEM_MD5_CHECKSUM);
+                if (!md5.isEmpty()) {
+                    etag = new EntityTag(md5);
+                    Response.ResponseBuilder notModified = request.evaluatePreconditions(etag);
+                    if (notModified != null) {
+                        return notModified.build();
+                    }
+                }
                 // now we load the content
                 fileData = dataService.loadFileData(fileData);
             }
@@ -258,6 +403,9 @@ public class ArchiveRestService {
                 // Set content type in order of the contentType stored
                 // in the $file attribute
                 Response.ResponseBuilder builder = Response.ok(fileData.getContent(), fileData.getContentType());
+                if (etag != null) {
+                    builder.tag(etag);
+                }
                 return builder.build();
             } else {
                 logger.warning("ArchiveRestService unable to open file: '" + file + "' in workitem '" + id
@@ -78,6 +78,10 @@ public class ClusterService {
     public static final String TABLE_SCHEMA_DOCUMENTS = "CREATE TABLE IF NOT EXISTS documents (md5 text, sort_id int, data_id text, PRIMARY KEY (md5,sort_id))";
     public static final String TABLE_SCHEMA_SNAPSHOTS_BY_DOCUMENT = "CREATE TABLE IF NOT EXISTS snapshots_by_document (md5 text,snapshot text, PRIMARY KEY(md5, snapshot));";
     public static final String TABLE_SCHEMA_DOCUMENTS_DATA = "CREATE TABLE IF NOT EXISTS documents_data (data_id text, data blob, PRIMARY KEY (data_id))";
+    public static final String TABLE_SCHEMA_LATEST_SNAPSHOT_BY_UNIQUEID = "CREATE TABLE IF NOT EXISTS latest_snapshot_by_uniqueid (uniqueid text, snapshot text, modified timestamp, PRIMARY KEY (uniqueid))";
+    public static final String TABLE_SCHEMA_SNAPSHOT_ITEMS = "CREATE TABLE IF NOT EXISTS snapshot_items (snapshot text, item text, item_value list<text>, PRIMARY KEY (snapshot, item))";
+    public static final String TABLE_SCHEMA_SNAPSHOT_STATS_BY_DAY = "CREATE TABLE IF NOT EXISTS snapshot_stats_by_day (year int, day date, count counter, size counter, PRIMARY KEY (year, day))";
+    public static final String TABLE_SCHEMA_SNAPSHOT_SIZES = "CREATE TABLE IF NOT EXISTS snapshot_sizes (snapshot text, size bigint, PRIMARY KEY (snapshot))";
 
     private static Logger logger = Logger.getLogger(ClusterService.class.getName());
 
@@ -182,6 +186,8 @@ public class ClusterService {
         }
         if (session != null) {
             logger.finest("......keyspace conection status = OK");
+            // create tables added in later versions
+            updateArchiveTableSchema(session);
         }
         return session;
     }
@@ -372,6 +378,23 @@ public class ClusterService {
         logger.info(TABLE_SCHEMA_DOCUMENTS_DATA);
         session.execute(TABLE_SCHEMA_DOCUMENTS_DATA);
 
+        updateArchiveTableSchema(session);
+    }
+
+    /**
+     * This helper method creates the tables added to the ImixsArchive table schema
+     * in later versions. The method is called for each new session so that
+     * existing keyspaces are updated.
+     */
+    protected void updateArchiveTableSchema(Session session) {
+        logger.finest(TABLE_SCHEMA_LATEST_SNAPSHOT_BY_UNIQUEID);
+        session.execute(TABLE_SCHEMA_LATEST_SNAPSHOT_BY_UNIQUEID);
+        logger.finest(TABLE_SCHEMA_SNAPSHOT_ITEMS);
+        session.execute(TABLE_SCHEMA_SNAPSHOT_ITEMS);
+        logger.finest(TABLE_SCHEMA_SNAPSHOT_STATS_BY_DAY);
+        session.execute(TABLE_SCHEMA_SNAPSHOT_STATS_BY_DAY);
+        logger.finest(TABLE_SCHEMA_SNAPSHOT_SIZES);
+        session.execute(TABLE_SCHEMA_SNAPSHOT_SIZES);
     }
 
 }
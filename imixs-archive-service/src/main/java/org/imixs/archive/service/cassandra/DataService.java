@@ -3,17 +3,30 @@ package org.imixs.archive.service.cassandra;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectOutputStream;
 import java.nio.ByteBuffer;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.imixs.archive.service.ArchiveException;
 import org.imixs.workflow.FileData;
 import org.imixs.workflow.ItemCollection;
@@ -25,12 +38,14 @@ import org.imixs.workflow.xml.XMLDocumentAdapter;
 import com.datastax.driver.core.LocalDate;
 //import com.datastax.driver.core.PreparedStatement;
 import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
 import com.datastax.driver.core.Row;
 import com.datastax.driver.core.SimpleStatement;
 
 import jakarta.ejb.Stateless;
 import jakarta.enterprise.event.Event;
 import jakarta.inject.Inject;
+import jakarta.xml.bind.DatatypeConverter;
 import jakarta.xml.bind.JAXBContext;
 import jakarta.xml.bind.JAXBException;
 import jakarta.xml.bind.Marshaller;
@@ -48,6 +63,9 @@ public class DataService {
 
     public final static String ITEM_MD5_CHECKSUM = "md5checksum";
     public final static String ITEM_SNAPSHOT_HISTORY = "$snapshot.history"; // optional historical snapshots
+
+    // comma separated list of items stored in the table snapshot_items
+    public static final String ENV_ARCHIVE_INDEX_ITEMS = "archive.index.items";
     private static final String REGEX_SNAPSHOTID = "([a-f0-9]{8}-[a-f0-9]{4}-[a-f0-9]{4}-[a-f0-9]{4}-[a-f0-9]{12}-[0-9]{13,15})";
     private static final String REGEX_OLD_SNAPSHOTID = "([0-9a-f]{8}-.*|[0-9a-f]{11}-.*)";
 
@@ -59,6 +77,14 @@ public class DataService {
     public static final String COLUMN_UNIQUEID = "uniqueid";
     public static final String COLUMN_DATA = "data";
     public static final String COLUMN_MD5 = "md5";
+    public static final String COLUMN_DAY = "day";
+    public static final String COLUMN_COUNT = "count";
+    public static final String COLUMN_SIZE = "size";
+
+    // max number of ids verified in one query
+    public static final int MAX_ID_BATCH_SIZE = 100;
+    // maximum number of snapshot data reads in flight
+    public static final int MAX_ASYNC_READS = 10;
 
     // cqlsh statements
     public static final String STATEMENT_UPSET_SNAPSHOTS = "insert into snapshots (snapshot, data) values (?, ?)";
@@ -69,17 +95,31 @@ public class DataService {
     public static final String STATEMENT_UPSET_DOCUMENTS_DATA = "insert into documents_data (data_id, data) values (?, ?)";
 
     public static final String STATEMENT_UPSET_SNAPSHOTS_BY_DOCUMENT = "insert into snapshots_by_document (md5, snapshot) values (?, ?)";
+    public static final String STATEMENT_UPSET_SNAPSHOT_ITEMS = "insert into snapshot_items (snapshot, item, item_value) values (?, ?, ?)";
+    public static final String STATEMENT_UPSET_LATEST_SNAPSHOT_BY_UNIQUEID = "insert into latest_snapshot_by_uniqueid (uniqueid, snapshot, modified) values (?, ?, ?) using timestamp ?";
+    public static final String STATEMENT_UPDATE_SNAPSHOT_STATS_BY_DAY = "update snapshot_stats_by_day set count = count + ?, size = size + ? where year = ? and day = ?";
+    public static final String STATEMENT_UPSET_SNAPSHOT_SIZES = "insert into snapshot_sizes (snapshot, size) values (?, ?)";
 
     public static final String STATEMENT_SELECT_SNAPSHOT = "select * from snapshots where snapshot='?'";
     public static final String STATEMENT_SELECT_METADATA = "select * from snapshots where snapshot='0'";
     public static final String STATEMENT_SELECT_SNAPSHOT_ID = "select snapshot from snapshots where snapshot='?'";
+    public static final String STATEMENT_SELECT_SNAPSHOT_IDS = "select snapshot from snapshots where snapshot in (?)";
     public static final String STATEMENT_SELECT_MD5 = "select md5 from documents where md5='?'";
+    public static final String STATEMENT_SELECT_MD5S = "select distinct md5 from documents where md5 in (?)";
     public static final String STATEMENT_SELECT_DOCUMENTS = "select * from documents where md5='?'";
     public static final String STATEMENT_SELECT_DOCUMENTS_DATA = "select * from documents_data where data_id='?'";
     public static final String STATEMENT_SELECT_SNAPSHOTS_BY_DOCUMENT = "select * from snapshots_by_document where md5='?'";
 
     public static final String STATEMENT_SELECT_SNAPSHOTS_BY_UNIQUEID = "select * from snapshots_by_uniqueid where uniqueid='?'";
     public static final String STATEMENT_SELECT_SNAPSHOTS_BY_MODIFIED = "select * from snapshots_by_modified where modified='?'";
+    public static final String STATEMENT_SELECT_LATEST_SNAPSHOT_BY_UNIQUEID = "select snapshot from latest_snapshot_by_uniqueid where uniqueid='?'";
+    public static final String STATEMENT_SELECT_LATEST_SNAPSHOTS = "select snapshot from latest_snapshot_by_uniqueid";
+    public static final String STATEMENT_SELECT_LATEST_SNAPSHOTS_AFTER = "select snapshot from latest_snapshot_by_uniqueid where token(uniqueid) > token('?')";
+    public static final String STATEMENT_SELECT_SNAPSHOT_ITEMS = "select item, item_value from snapshot_items where snapshot='?'";
+    public static final String STATEMENT_SELECT_SNAPSHOT_STATS_BY_DAY = "select day, count, size from snapshot_stats_by_day where year=<year> and day>='<from>' and day<='<to>'";
+    public static final String STATEMENT_SELECT_SNAPSHOT_STATS = "select day, count, size from snapshot_stats_by_day";
+    public static final String STATEMENT_SELECT_SNAPSHOT_SIZE = "select size from snapshot_sizes where snapshot='?'";
+    public static final String STATEMENT_SELECT_SNAPSHOT_SIZES = "select snapshot, size from snapshot_sizes where snapshot in (?)";
 
     // public static final String STATEMENT_DELETE_SNAPSHOTS_BY_MODIFIED = "DELETE
     // FROM snapshots_by_modified where modified='?' and snapshot='?' IF EXISTS";
@@ -90,10 +130,17 @@ public class DataService {
     public static final String STATEMENT_DELETE_SNAPSHOTS_BY_DOCUMENT = "delete from snapshots_by_document where md5='<md5>' and snapshot='<snapshot>'";
     public static final String STATEMENT_DELETE_DOCUMENTS_DATA = "delete from documents_data where data_id='<data_id>'";
     public static final String STATEMENT_DELETE_DOCUMENTS = "delete from documents where md5='<md5>' and sort_id=<sort_id>";
+    public static final String STATEMENT_DELETE_SNAPSHOT_ITEMS = "delete from snapshot_items where snapshot='<snapshot>'";
+    public static final String STATEMENT_DELETE_SNAPSHOT_SIZES = "delete from snapshot_sizes where snapshot='<snapshot>'";
+    public static final String STATEMENT_DELETE_LATEST_SNAPSHOT_BY_UNIQUEID = "delete from latest_snapshot_by_uniqueid using timestamp <timestamp> where uniqueid='<uniqueid>'";
 
     @Inject
     ClusterService clusterService;
 
+    @Inject
+    @ConfigProperty(name = ENV_ARCHIVE_INDEX_ITEMS)
+    Optional<String> indexItems;
+
     @Inject
     protected Event<ArchiveEvent> events;
 
@@ -108,6 +155,22 @@ public class DataService {
      * @throws ArchiveException
      */
     public void saveSnapshot(ItemCollection snapshot) throws ArchiveException {
+        saveSnapshot(snapshot, new HashMap<String, InputStream>());
+    }
+
+    /**
+     * This method saves a ItemCollection into a specific KeySpace. The file
+     * content can be provided as separate streams mapped by the md5 checksum of
+     * the content. In this case the file content of the snapshot is expected to be
+     * empty and the file attribute 'md5checksum' refers to the content stream.
+     * The content is streamed directly into the 1mb data blocks.
+     * 
+     * @param snapshot     - ItemCollection object
+     * @param fileContents - optional content streams by md5 checksum
+     * @throws ArchiveException
+     */
+    public void saveSnapshot(ItemCollection snapshot, Map<String, InputStream> fileContents)
+            throws ArchiveException {
         boolean debug = logger.isLoggable(Level.FINE);
         String snapshotID = snapshot.getUniqueID();
 
@@ -136,10 +199,14 @@ public class DataService {
         String originUnqiueID = getUniqueID(snapshotID);
 
         // extract $file content into the table 'documents'....
-        extractDocuments(snapshot);
+        long size = extractDocuments(snapshot, fileContents);
 
+        byte[] data = getRawData(snapshot);
+        size = size + data.length;
         clusterService.getSession().execute(new SimpleStatement(STATEMENT_UPSET_SNAPSHOTS, snapshot.getUniqueID(),
-                ByteBuffer.wrap(getRawData(snapshot))));
+                ByteBuffer.wrap(data)));
+        clusterService.getSession()
+                .execute(new SimpleStatement(STATEMENT_UPSET_SNAPSHOT_SIZES, snapshotID, (long) data.length));
 
         clusterService.getSession().execute(
                 new SimpleStatement(STATEMENT_UPSET_SNAPSHOTS_BY_UNIQUEID, originUnqiueID, snapshot.getUniqueID()));
@@ -150,6 +217,19 @@ public class DataService {
         clusterService.getSession()
                 .execute(new SimpleStatement(STATEMENT_UPSET_SNAPSHOTS_BY_MODIFIED, ld, snapshot.getUniqueID()));
 
+        // upset snapshot_items....
+        for (String itemName : getIndexItems()) {
+            clusterService.getSession().execute(new SimpleStatement(STATEMENT_UPSET_SNAPSHOT_ITEMS, snapshotID,
+                    itemName, snapshot.getItemValueList(itemName, String.class)));
+        }
+
+        // upset latest_snapshot_by_uniqueid....
+        updateLatestSnapshot(originUnqiueID, snapshotID, snapshot.getItemValueDate("$modified"),
+                getSnapshotTime(snapshotID) * 1000);
+
+        // update snapshot_stats_by_day....
+        updateSnapshotStats(ld, 1, size);
+
         cleanupSnaphostHistory(snapshot);
 
         // Finally we fire the ArchiveEvent ON_ARCHIVE
@@ -176,6 +256,64 @@ public class DataService {
         return (row != null);
     }
 
+    /**
+     * This method tests which snapshot records of a given list of IDs already
+     * exist. The IDs are sorted and verified in batches of MAX_ID_BATCH_SIZE.
+     * 
+     * @param snapshotIDs - list of snapshot ids
+     * @return set of all existing snapshot ids
+     */
+    public Set<String> existSnapshots(Collection<String> snapshotIDs) {
+        Set<String> result = new HashSet<String>();
+        List<String> sortedIDs = new ArrayList<String>(new TreeSet<String>(snapshotIDs));
+        for (int i = 0; i < sortedIDs.size(); i += MAX_ID_BATCH_SIZE) {
+            List<String> batch = sortedIDs.subList(i, Math.min(i + MAX_ID_BATCH_SIZE, sortedIDs.size()));
+            StringBuilder values = new StringBuilder();
+            for (String id : batch) {
+                if (values.length() > 0) {
+                    values.append(",");
+                }
+                values.append("'").append(id.replace("'", "")).append("'");
+            }
+            String sql = STATEMENT_SELECT_SNAPSHOT_IDS.replace("?", values.toString());
+            logger.finest("......search snapshot ids: " + sql);
+            ResultSet rs = clusterService.getSession().execute(sql);
+            for (Row row : rs) {
+                result.add(row.getString(COLUMN_SNAPSHOT));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * This method tests which documents of a given list of md5 checksums exist.
+     * The checksums are sorted and verified in batches of MAX_ID_BATCH_SIZE.
+     * 
+     * @param md5Checksums - list of md5 checksums
+     * @return set of all existing md5 checksums
+     */
+    public Set<String> existDocuments(Collection<String> md5Checksums) {
+        Set<String> result = new HashSet<String>();
+        List<String> sortedMD5s = new ArrayList<String>(new TreeSet<String>(md5Checksums));
+        for (int i = 0; i < sortedMD5s.size(); i += MAX_ID_BATCH_SIZE) {
+            List<String> batch = sortedMD5s.subList(i, Math.min(i + MAX_ID_BATCH_SIZE, sortedMD5s.size()));
+            StringBuilder values = new StringBuilder();
+            for (String md5 : batch) {
+                if (values.length() > 0) {
+                    values.append(",");
+                }
+                values.append("'").append(md5.replace("'", "")).append("'");
+            }
+            String sql = STATEMENT_SELECT_MD5S.replace("?", values.toString());
+            logger.finest("......search md5 checksums: " + sql);
+            ResultSet rs = clusterService.getSession().execute(sql);
+            for (Row row : rs) {
+                result.add(row.getString(COLUMN_MD5));
+            }
+        }
+        return result;
+    }
+
     /**
      * This method loads a snapshot form the cassandra cluster. The snapshot data
      * includes also the accociated document data. In case you need only the
@@ -275,6 +413,162 @@ public class DataService {
         return result;
     }
 
+    /**
+     * This method loads the latest snapshotID for a given unqiueID from the table
+     * latest_snapshot_by_uniqueid.
+     * 
+     * @param uniqueID
+     * @return latest snapshot id or null if no snapshot exists
+     */
+    public String loadLatestSnapshotID(String uniqueID) {
+        String sql = STATEMENT_SELECT_LATEST_SNAPSHOT_BY_UNIQUEID;
+        sql = sql.replace("'?'", "'" + uniqueID + "'");
+        logger.finest("......search latest snapshot id: " + sql);
+        Row row = clusterService.getSession().execute(sql).one();
+        if (row != null) {
+            return row.getString(COLUMN_SNAPSHOT);
+        }
+        return null;
+    }
+
+    /**
+     * This method loads the latest snapshotIDs for a list of unqiueIDs from the
+     * table latest_snapshot_by_uniqueid. The table is read in parallel by
+     * asynchronous queries. Documents without an entry are not contained in the
+     * result.
+     * 
+     * @param uniqueIDs
+     * @return latest snapshot ids by uniqueid
+     */
+    public Map<String, String> loadLatestSnapshotIDs(Collection<String> uniqueIDs) {
+        Map<String, ResultSetFuture> futures = new LinkedHashMap<String, ResultSetFuture>();
+        for (String uniqueID : uniqueIDs) {
+            String sql = STATEMENT_SELECT_LATEST_SNAPSHOT_BY_UNIQUEID;
+            sql = sql.replace("'?'", "'" + uniqueID.replace("'", "") + "'");
+            futures.put(uniqueID, clusterService.getSession().executeAsync(sql));
+        }
+        Map<String, String> result = new LinkedHashMap<String, String>();
+        for (Map.Entry<String, ResultSetFuture> entry : futures.entrySet()) {
+            Row row = entry.getValue().getUninterruptibly().one();
+            if (row != null) {
+                result.put(entry.getKey(), row.getString(COLUMN_SNAPSHOT));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * This method returns the latest snapshotIDs of all documents with a snapshot
+     * time within a given time range. The table latest_snapshot_by_uniqueid is
+     * read in pages while iterating the result.
+     * 
+     * @param from         - time range from
+     * @param to           - time range to
+     * @param lastUniqueID - optional uniqueID of the last document read. The
+     *                     result starts after this document in token order.
+     * @return latest snapshot ids
+     */
+    public Iterable<String> loadLatestSnapshotIDs(long from, long to, String lastUniqueID) {
+        SimpleStatement statement;
+        if (lastUniqueID != null && !lastUniqueID.isEmpty()) {
+            statement = new SimpleStatement(
+                    STATEMENT_SELECT_LATEST_SNAPSHOTS_AFTER.replace("'?'", "'" + lastUniqueID + "'"));
+        } else {
+            statement = new SimpleStatement(STATEMENT_SELECT_LATEST_SNAPSHOTS);
+        }
+        statement.setFetchSize(1000);
+        ResultSet rs = clusterService.getSession().execute(statement);
+        return () -> new Iterator<String>() {
+            private Iterator<Row> rows = rs.iterator();
+            private String next = null;
+
+            @Override
+            public boolean hasNext() {
+                while (next == null && rows.hasNext()) {
+                    String snapshotID = rows.next().getString(COLUMN_SNAPSHOT);
+                    long time = getSnapshotTime(snapshotID);
+                    if (time >= from && time <= to) {
+                        next = snapshotID;
+                    }
+                }
+                return next != null;
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                String result = next;
+                next = null;
+                return result;
+            }
+        };
+    }
+
+    /**
+     * Returns the item names stored for each snapshot in the table
+     * snapshot_items. The items are defined by the environment variable
+     * ARCHIVE_INDEX_ITEMS.
+     * 
+     * @return list of lower case item names
+     */
+    public List<String> getIndexItems() {
+        List<String> result = new ArrayList<String>();
+        if (indexItems != null && indexItems.isPresent()) {
+            for (String itemName : indexItems.get().split(",")) {
+                itemName = itemName.trim().toLowerCase();
+                if (!itemName.isEmpty() && !result.contains(itemName)) {
+                    result.add(itemName);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Loads the indexed items of a snapshot from the table snapshot_items. The
+     * snapshot data is not loaded. The method returns null if no items are stored
+     * for the snapshot (e.g. the snapshot was archived before the items were
+     * configured).
+     * 
+     * @param snapshotID
+     * @return ItemCollection with the indexed items or null
+     */
+    public ItemCollection loadSnapshotItems(String snapshotID) {
+        String sql = STATEMENT_SELECT_SNAPSHOT_ITEMS;
+        sql = sql.replace("'?'", "'" + snapshotID + "'");
+        ResultSet rs = clusterService.getSession().execute(sql);
+        ItemCollection result = null;
+        for (Row row : rs) {
+            if (result == null) {
+                result = new ItemCollection();
+            }
+            result.replaceItemValue(row.getString("item"), row.getList("item_value", String.class));
+        }
+        return result;
+    }
+
+    /**
+     * Updates the latest snapshot of a document in the table
+     * latest_snapshot_by_uniqueid. The write timestamp is derived from the
+     * snapshot time so that cassandra always keeps the newest snapshot - also if
+     * the entries are written concurrently or in the wrong order (e.g. by the
+     * backfill).
+     * 
+     * @param uniqueID   - uniqueID of the origin document
+     * @param snapshotID - snapshot id
+     * @param modified   - $modified timestamp of the snapshot
+     * @param writeTime  - cassandra write timestamp in microseconds
+     */
+    public void updateLatestSnapshot(String uniqueID, String snapshotID, Date modified, long writeTime) {
+        if (modified == null) {
+            modified = new Date(getSnapshotTime(snapshotID));
+        }
+        clusterService.getSession().execute(new SimpleStatement(STATEMENT_UPSET_LATEST_SNAPSHOT_BY_UNIQUEID,
+                uniqueID, snapshotID, modified, writeTime));
+    }
+
     /**
      * This method loads all exsting snapshotIDs for a given date.
      * 
@@ -302,6 +596,235 @@ public class DataService {
         return result;
     }
 
+    /**
+     * This method loads a page of snapshotIDs for a given date. The snapshotIDs are
+     * sorted. The page starts after the given snapshotID.
+     * 
+     * @param date
+     * @param lastSnapshotID - last snapshot id of the previous page or null
+     * @param pageSize       - max number of snapshot ids
+     * @return list of snapshotIDs
+     */
+    public List<String> loadSnapshotsByDate(java.time.LocalDate date, String lastSnapshotID, int pageSize) {
+        List<String> result = new ArrayList<String>();
+        String sql = DataService.STATEMENT_SELECT_SNAPSHOTS_BY_MODIFIED;
+        sql = sql.replace("'?'", "'" + date + "'");
+        if (lastSnapshotID != null && !lastSnapshotID.isEmpty()) {
+            sql = sql + " AND snapshot>'" + lastSnapshotID + "'";
+        }
+        sql = sql + " LIMIT " + pageSize;
+        logger.finest("......SQL: " + sql);
+        ResultSet rs = clusterService.getSession().execute(sql);
+        for (Row row : rs) {
+            result.add(row.getString(COLUMN_SNAPSHOT));
+        }
+        return result;
+    }
+
+    /**
+     * Updates the snapshot count and the size of a day in the table
+     * snapshot_stats_by_day. The size is the size of the snapshot data plus the
+     * size of all documents referred by the snapshot.
+     * 
+     * @param day   - the modified day of the snapshot
+     * @param count - count delta (1 or -1)
+     * @param size  - size delta in bytes
+     */
+    public void updateSnapshotStats(LocalDate day, long count, long size) {
+        clusterService.getSession().execute(new SimpleStatement(STATEMENT_UPDATE_SNAPSHOT_STATS_BY_DAY, count, size,
+                day.getYear(), day));
+    }
+
+    /**
+     * Loads the snapshot stats of all days within a date range from the table
+     * snapshot_stats_by_day. Each entry provides the items 'day', 'count' and
+     * 'size'. Days without snapshots are not part of the result.
+     * 
+     * @param from - first day
+     * @param to   - last day
+     * @return list of day stats sorted by day
+     */
+    public List<ItemCollection> loadSnapshotStats(java.time.LocalDate from, java.time.LocalDate to) {
+        List<ItemCollection> result = new ArrayList<ItemCollection>();
+        for (int year = from.getYear(); year <= to.getYear(); year++) {
+            String sql = STATEMENT_SELECT_SNAPSHOT_STATS_BY_DAY;
+            sql = sql.replace("<year>", "" + year);
+            sql = sql.replace("'<from>'", "'" + from + "'");
+            sql = sql.replace("'<to>'", "'" + to + "'");
+            logger.finest("......SQL: " + sql);
+            ResultSet rs = clusterService.getSession().execute(sql);
+            for (Row row : rs) {
+                ItemCollection stats = getSnapshotStats(row);
+                if (stats != null) {
+                    result.add(stats);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Loads the snapshot stats of all days from the table snapshot_stats_by_day.
+     * The result is not sorted.
+     * 
+     * @return list of day stats
+     */
+    public List<ItemCollection> loadSnapshotStats() {
+        List<ItemCollection> result = new ArrayList<ItemCollection>();
+        SimpleStatement statement = new SimpleStatement(STATEMENT_SELECT_SNAPSHOT_STATS);
+        statement.setFetchSize(1000);
+        ResultSet rs = clusterService.getSession().execute(statement);
+        for (Row row : rs) {
+            ItemCollection stats = getSnapshotStats(row);
+            if (stats != null) {
+                result.add(stats);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Converts a row of the table snapshot_stats_by_day. The method returns null
+     * if the day holds no snapshots.
+     */
+    private ItemCollection getSnapshotStats(Row row) {
+        long count = row.getLong(COLUMN_COUNT);
+        if (count <= 0) {
+            return null;
+        }
+        LocalDate day = row.getDate(COLUMN_DAY);
+        ItemCollection stats = new ItemCollection();
+        stats.setItemValue(COLUMN_DAY, new Date(day.getMillisSinceEpoch()));
+        stats.setItemValue(COLUMN_COUNT, count);
+        stats.setItemValue(COLUMN_SIZE, row.getLong(COLUMN_SIZE));
+        return stats;
+    }
+
+    /**
+     * Returns the size of the snapshot data stored in the table snapshots. The
+     * data of attached documents is not included. The size is read from the table
+     * snapshot_sizes. Only for snapshots archived before this table existed, the
+     * snapshot data is loaded once to compute the size. The method returns 0 if
+     * the snapshot does not exist.
+     * 
+     * @param snapshotID
+     * @return size in bytes
+     */
+    public long loadSnapshotDataSize(String snapshotID) {
+        String sql = STATEMENT_SELECT_SNAPSHOT_SIZE;
+        sql = sql.replace("'?'", "'" + snapshotID + "'");
+        Row row = clusterService.getSession().execute(sql).one();
+        if (row != null) {
+            return row.getLong(COLUMN_SIZE);
+        }
+        Map<String, Long> sizes = computeSnapshotDataSizes(List.of(snapshotID));
+        return sizes.getOrDefault(snapshotID, 0L);
+    }
+
+    /**
+     * Returns the size of the snapshot data of a list of snapshots. The sizes are
+     * read from the table snapshot_sizes in batches of MAX_ID_BATCH_SIZE without
+     * transferring the snapshot data. Snapshots which do not exist are not
+     * contained in the result.
+     * 
+     * @param snapshotIDs - list of snapshot ids
+     * @return snapshot data sizes by snapshot id
+     */
+    public Map<String, Long> loadSnapshotDataSizes(Collection<String> snapshotIDs) {
+        Map<String, Long> result = new LinkedHashMap<String, Long>();
+        List<String> sortedIDs = new ArrayList<String>(new TreeSet<String>(snapshotIDs));
+        for (int i = 0; i < sortedIDs.size(); i += MAX_ID_BATCH_SIZE) {
+            List<String> batch = sortedIDs.subList(i, Math.min(i + MAX_ID_BATCH_SIZE, sortedIDs.size()));
+            StringBuilder values = new StringBuilder();
+            for (String id : batch) {
+                if (values.length() > 0) {
+                    values.append(",");
+                }
+                values.append("'").append(id.replace("'", "")).append("'");
+            }
+            String sql = STATEMENT_SELECT_SNAPSHOT_SIZES.replace("?", values.toString());
+            ResultSet rs = clusterService.getSession().execute(sql);
+            for (Row row : rs) {
+                result.put(row.getString(COLUMN_SNAPSHOT), row.getLong(COLUMN_SIZE));
+            }
+        }
+        // snapshots archived before the table snapshot_sizes existed
+        List<String> missingIDs = new ArrayList<String>();
+        for (String id : sortedIDs) {
+            if (!result.containsKey(id)) {
+                missingIDs.add(id);
+            }
+        }
+        if (!missingIDs.isEmpty()) {
+            result.putAll(computeSnapshotDataSizes(missingIDs));
+        }
+        return result;
+    }
+
+    /**
+     * Computes the size of the snapshot data of snapshots without an entry in the
+     * table snapshot_sizes and writes the size into this table. The snapshot data
+     * is read by asynchronous queries with not more than MAX_ASYNC_READS queries
+     * in flight. Snapshots which do not exist are not contained in the result.
+     * 
+     * @param snapshotIDs - list of snapshot ids
+     * @return snapshot data sizes by snapshot id
+     */
+    private Map<String, Long> computeSnapshotDataSizes(List<String> snapshotIDs) {
+        Map<String, Long> result = new LinkedHashMap<String, Long>();
+        for (int i = 0; i < snapshotIDs.size(); i += MAX_ASYNC_READS) {
+            List<String> batch = snapshotIDs.subList(i, Math.min(i + MAX_ASYNC_READS, snapshotIDs.size()));
+            Map<String, ResultSetFuture> futures = new LinkedHashMap<String, ResultSetFuture>();
+            for (String id : batch) {
+                String sql = STATEMENT_SELECT_SNAPSHOT;
+                sql = sql.replace("'?'", "'" + id.replace("'", "") + "'");
+                futures.put(id, clusterService.getSession().executeAsync(sql));
+            }
+            for (Map.Entry<String, ResultSetFuture> entry : futures.entrySet()) {
+                Row row = entry.getValue().getUninterruptibly().one();
+                if (row != null) {
+                    ByteBuffer data = row.getBytes(COLUMN_DATA);
+                    long size = (data != null) ? data.remaining() : 0L;
+                    clusterService.getSession()
+                            .execute(new SimpleStatement(STATEMENT_UPSET_SNAPSHOT_SIZES, entry.getKey(), size));
+                    result.put(entry.getKey(), size);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the size of a document identified by its md5 checksum. As all data
+     * blocks except the last one have the full block size, only the last data
+     * block is read. The method returns 0 if the document does not exist.
+     * 
+     * @param md5
+     * @return size in bytes
+     */
+    public long loadDocumentSize(String md5) {
+        String sql = STATEMENT_SELECT_DOCUMENTS;
+        sql = sql.replace("'?'", "'" + md5 + "'");
+        ResultSet rs = clusterService.getSession().execute(sql);
+        int blocks = 0;
+        String lastDataID = null;
+        for (Row row : rs) {
+            blocks++;
+            lastDataID = row.getString(2);
+        }
+        if (lastDataID == null) {
+            return 0;
+        }
+        sql = STATEMENT_SELECT_DOCUMENTS_DATA;
+        sql = sql.replace("'?'", "'" + lastDataID + "'");
+        Row row = clusterService.getSession().execute(sql).one();
+        long size = (long) (blocks - 1) * DocumentSplitter.CHUNK_SIZE;
+        if (row != null && row.getBytes(1) != null) {
+            size = size + row.getBytes(1).remaining();
+        }
+        return size;
+    }
+
     /**
      * This helper method loades the content of a document defned by a FileData
      * object. A document is uniquely identified by its md5 checksum which is part
@@ -444,6 +967,8 @@ public class DataService {
 
         logger.finest("......delete snapshot and documents for:" + snapshotID);
         String uniqueID = this.getUniqueID(snapshotID);
+        // the size of the snapshot data is needed to update the snapshot stats
+        long dataSize = loadSnapshotDataSize(snapshotID);
         ItemCollection snapshot = loadSnapshot(snapshotID, false);
 
         String sql = STATEMENT_DELETE_SNAPSHOTS;
@@ -455,6 +980,32 @@ public class DataService {
         sql = sql.replace("'<snapshot>'", "'" + snapshotID + "'");
         clusterService.getSession().execute(sql);
 
+        sql = STATEMENT_DELETE_SNAPSHOT_ITEMS;
+        sql = sql.replace("'<snapshot>'", "'" + snapshotID + "'");
+        clusterService.getSession().execute(sql);
+
+        sql = STATEMENT_DELETE_SNAPSHOT_SIZES;
+        sql = sql.replace("'<snapshot>'", "'" + snapshotID + "'");
+        clusterService.getSession().execute(sql);
+
+        // correct latest_snapshot_by_uniqueid if the latest snapshot was deleted
+        if (snapshotID.equals(loadLatestSnapshotID(uniqueID))) {
+            // the correction must overwrite the deleted entry
+            long writeTime = getSnapshotTime(snapshotID) * 1000 + 1;
+            List<String> snapshotIDs = loadSnapshotsByUnqiueID(uniqueID, 1, true);
+            if (snapshotIDs.isEmpty()) {
+                sql = STATEMENT_DELETE_LATEST_SNAPSHOT_BY_UNIQUEID;
+                sql = sql.replace("<timestamp>", "" + writeTime);
+                sql = sql.replace("'<uniqueid>'", "'" + uniqueID + "'");
+                clusterService.getSession().execute(sql);
+            } else {
+                String previousID = snapshotIDs.get(0);
+                ItemCollection previous = loadSnapshot(previousID, false);
+                Date modified = (previous != null) ? previous.getItemValueDate("$modified") : null;
+                updateLatestSnapshot(uniqueID, previousID, modified, writeTime);
+            }
+        }
+
         long modifiedTime = 0;
         if (snapshot != null) {
             Date modified = null;
@@ -476,8 +1027,12 @@ public class DataService {
         sql = sql.replace("'<snapshot>'", "'" + snapshotID + "'");
         clusterService.getSession().execute(sql);
 
-        deleteDocuments(snapshot);
+        long documentSize = deleteDocuments(snapshot);
 
+        // update snapshot_stats_by_day only if the snapshot was stored
+        if (dataSize > 0) {
+            updateSnapshotStats(ld, -1, -(dataSize + documentSize));
+        }
     }
 
     /**
@@ -711,12 +1266,23 @@ public class DataService {
      * This helper method extracts the content of attached documents and stores the
      * content into the documents table space. A document is uniquely identified by
      * its md5 checksum.
+     * <p>
+     * If the file content is empty but a content stream for the md5 checksum is
+     * provided, the content is streamed directly into the documents table space.
+     * 
+     * <p>
+     * The method returns the size of all documents referred by the snapshot.
+     * Documents already stored by other snapshots are counted as well.
      * 
      * @param itemCol
+     * @param fileContents - optional content streams by md5 checksum
+     * @return size of the documents in bytes
      * @throws ArchiveException
      */
-    private void extractDocuments(ItemCollection itemCol) throws ArchiveException {
+    private long extractDocuments(ItemCollection itemCol, Map<String, InputStream> fileContents)
+            throws ArchiveException {
         boolean debug = logger.isLoggable(Level.FINE);
+        long size = 0;
         // empty data...
         byte[] empty = {};
         List<FileData> files = itemCol.getFileData();
@@ -727,9 +1293,20 @@ public class DataService {
                     logger.finest("... extract fileData objects: " + files.size() + " fileData objects found....");
                 }
 
+                String md5 = null;
+                InputStream contentStream = null;
                 if (fileData.getContent() != null && fileData.getContent().length > 0) {
-                    String md5 = fileData.generateMD5();
+                    md5 = fileData.generateMD5();
+                } else {
+                    String checksum = new ItemCollection(fileData.getAttributes())
+                            .getItemValueString(ITEM_MD5_CHECKSUM);
+                    contentStream = fileContents.get(checksum);
+                    if (contentStream != null) {
+                        md5 = checksum;
+                    }
+                }
 
+                if (md5 != null) {
                     // test if md5 already stored....
                     String sql = STATEMENT_SELECT_MD5;
                     sql = sql.replace("'?'", "'" + md5 + "'");
@@ -740,12 +1317,22 @@ public class DataService {
                     Row row = rs.one();
                     if (row == null) {
                         // not yet stored so extract the content
-                        storeDocument(md5, fileData.getContent());
+                        if (contentStream != null) {
+                            size = size + storeDocument(md5, contentStream);
+                        } else {
+                            storeDocument(md5, fileData.getContent());
+                            size = size + fileData.getContent().length;
+                        }
                     } else {
                         if (debug) {
                             logger.finest("......update fildata not necessary because object: " + md5
                                     + " is already stored!");
                         }
+                        if (contentStream != null) {
+                            size = size + loadDocumentSize(md5);
+                        } else {
+                            size = size + fileData.getContent().length;
+                        }
                     }
 
                     // updset documents_by_snapshot.... (needed for deletion)
@@ -753,33 +1340,41 @@ public class DataService {
                             new SimpleStatement(STATEMENT_UPSET_SNAPSHOTS_BY_DOCUMENT, md5, itemCol.getUniqueID()));
 
                     // remove file content from itemCol
-                    if (debug) {
-                        logger.finest("drop content for file '" + fileData.getName() + "'");
+                    if (contentStream == null) {
+                        if (debug) {
+                            logger.finest("drop content for file '" + fileData.getName() + "'");
+                        }
+                        itemCol.addFileData(new FileData(fileData.getName(), empty, fileData.getContentType(),
+                                fileData.getAttributes()));
                     }
-                    itemCol.addFileData(new FileData(fileData.getName(), empty, fileData.getContentType(),
-                            fileData.getAttributes()));
                 }
             } catch (NoSuchAlgorithmException e) {
                 throw new ArchiveException(ArchiveException.MD5_ERROR,
                         "can not compute md5 of document - " + e.getMessage());
             }
         }
+        return size;
     }
 
     /**
      * This helper method deletes the content of attached documents A document is
      * uniquely identified by its md5 checksum.
+     * <p>
+     * The method returns the size of all documents referred by the snapshot - also
+     * if the document data is still referred by other snapshots.
      * 
      * @param itemCol
+     * @return size of the documents in bytes
      * @throws ArchiveException
      */
-    private void deleteDocuments(ItemCollection itemCol) throws ArchiveException {
+    private long deleteDocuments(ItemCollection itemCol) throws ArchiveException {
 
         if (itemCol == null) {
             // no data!
-            return;
+            return 0;
         }
         boolean debug = logger.isLoggable(Level.FINE);
+        long size = 0;
         List<FileData> files = itemCol.getFileData();
         for (FileData fileData : files) {
             // first verify if content is already stored.
@@ -791,6 +1386,7 @@ public class DataService {
 
                 if (fileData.getContent() != null && fileData.getContent().length > 0) {
                     String md5 = fileData.generateMD5();
+                    size = size + fileData.getContent().length;
 
                     // delete documents_by_snapshot.... (needed for deletion)
                     String sql = STATEMENT_DELETE_SNAPSHOTS_BY_DOCUMENT;
@@ -809,7 +1405,7 @@ public class DataService {
                     Iterator<Row> resultIter = rs.iterator();
                     if (resultIter.hasNext()) {
                         // we have other snapshots refering this document so we can skipp!
-                        return;
+                        continue;
                     } else {
                         // we have no other refrerences - this means we can delete the document data!
                         // test if md5 exits...
@@ -852,6 +1448,7 @@ public class DataService {
                         "can not compute md5 of document - " + e.getMessage());
             }
         }
+        return size;
     }
 
     /**
@@ -890,6 +1487,64 @@ public class DataService {
         }
     }
 
+    /**
+     * This method stores a single document identified by the MD5 checksum from a
+     * content stream.
+     * <p>
+     * The method reads the stream in 1mb blocks stored in the table
+     * 'documents_data'. The md5 checksum is verified while reading. The blocks are
+     * only registered in the table 'documents' if the checksum matches.
+     * 
+     * @param md5
+     * @param contentStream
+     * @return size of the document in bytes
+     * @throws ArchiveException
+     */
+    private long storeDocument(String md5, InputStream contentStream) throws ArchiveException {
+        boolean debug = logger.isLoggable(Level.FINE);
+        List<String> dataIDs = new ArrayList<String>();
+        long size = 0;
+        try (DigestInputStream in = new DigestInputStream(contentStream, MessageDigest.getInstance("MD5"))) {
+            byte[] chunk = in.readNBytes(DocumentSplitter.CHUNK_SIZE);
+            while (chunk.length > 0) {
+                String data_id = WorkflowKernel.generateUniqueID();
+                if (debug) {
+                    logger.finest("......write new 1mb data block: sort_id=" + dataIDs.size() + " data_id=" + data_id);
+                }
+                // write 1MB chunk into cassandra....
+                clusterService.getSession()
+                        .execute(new SimpleStatement(STATEMENT_UPSET_DOCUMENTS_DATA, data_id, ByteBuffer.wrap(chunk)));
+                dataIDs.add(data_id);
+                size = size + chunk.length;
+                chunk = in.readNBytes(DocumentSplitter.CHUNK_SIZE);
+            }
+            // verify checksum
+            String checksum = DatatypeConverter.printHexBinary(in.getMessageDigest().digest());
+            if (!md5.equals(checksum)) {
+                // remove orphan data blocks
+                for (String data_id : dataIDs) {
+                    clusterService.getSession()
+                            .execute(STATEMENT_DELETE_DOCUMENTS_DATA.replace("<data_id>", data_id));
+                }
+                throw new ArchiveException(ArchiveException.MD5_ERROR,
+                        "md5 checksum mismatch for document " + md5 + " (received " + checksum + ")");
+            }
+        } catch (IOException | NoSuchAlgorithmException e) {
+            throw new ArchiveException(ArchiveException.MD5_ERROR,
+                    "failed to read document " + md5 + " - " + e.getMessage(), e);
+        }
+        // write sort_ids....
+        int sort_id = 0;
+        for (String data_id : dataIDs) {
+            clusterService.getSession().execute(new SimpleStatement(STATEMENT_UPSET_DOCUMENTS, md5, sort_id, data_id));
+            sort_id++;
+        }
+        if (debug) {
+            logger.finest("......stored filedata object: " + md5);
+        }
+        return size;
+    }
+
     /**
      * This helper method merges the content of attached documents into a
      * itemCollection. A document is uniquely identified by its md5 checksum. The
@@ -6,7 +6,7 @@ import java.util.NoSuchElementException;
 
 public class DocumentSplitter implements Iterable<byte[]> {
 
-    public int CHUNK_SIZE = 1048576; // 1mb
+    public static final int CHUNK_SIZE = 1048576; // 1mb
 
     private byte[] filedata = null;
 
@@ -0,0 +1,135 @@
+package org.imixs.archive.service.cassandra;
+
+import java.util.logging.Logger;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.imixs.archive.service.ArchiveException;
+import org.imixs.workflow.ItemCollection;
+
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.SimpleStatement;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.Resource;
+import jakarta.ejb.LocalBean;
+import jakarta.ejb.Singleton;
+import jakarta.ejb.Startup;
+import jakarta.ejb.Timeout;
+import jakarta.ejb.Timer;
+import jakarta.ejb.TimerConfig;
+import jakarta.inject.Inject;
+
+/**
+ * The LatestSnapshotBackfill fills the table latest_snapshot_by_uniqueid with
+ * the snapshots archived before the table was introduced. The job scans the
+ * table snapshots_by_uniqueid once and writes the last snapshot of each
+ * partition.
+ * <p>
+ * The entries are written with the snapshot time as the write timestamp. So
+ * the backfill never overwrites a newer snapshot written by the DataService in
+ * the meantime. For backfilled entries the modified timestamp is taken from
+ * the snapshot id.
+ * <p>
+ * After the job is completed the flag 'latest.backfill' is stored in the
+ * metadata.
+ *
+ * @author rsoika
+ * @version 1.0
+ */
+@Startup
+@Singleton
+@LocalBean
+public class LatestSnapshotBackfill {
+
+    public final static String ITEM_BACKFILL_COMPLETED = "latest.backfill";
+    public final static String ENV_BACKFILL_INITIALDELAY = "archive.latest.backfill.initialdelay";
+
+    public static final String STATEMENT_SELECT_SNAPSHOTS = "select uniqueid, snapshot from snapshots_by_uniqueid";
+
+    @Inject
+    @ConfigProperty(name = ENV_BACKFILL_INITIALDELAY, defaultValue = "60000")
+    long initialDelay;
+
+    @Inject
+    ClusterService clusterService;
+
+    @Inject
+    DataService dataService;
+
+    @Resource
+    jakarta.ejb.TimerService timerService;
+
+    private static Logger logger = Logger.getLogger(LatestSnapshotBackfill.class.getName());
+
+    @PostConstruct
+    public void init() {
+        final TimerConfig timerConfig = new TimerConfig();
+        timerConfig.setInfo("");
+        timerConfig.setPersistent(false);
+        timerService.createSingleActionTimer(initialDelay, timerConfig);
+    }
+
+    /**
+     * This method is called by the TimerService and runs the backfill if not yet
+     * completed.
+     * 
+     * @param timer
+     */
+    @Timeout
+    public void run(Timer timer) {
+        try {
+            ItemCollection metadata = dataService.loadMetadata();
+            if (metadata.getItemValueBoolean(ITEM_BACKFILL_COMPLETED)) {
+                return;
+            }
+            long startTime = System.currentTimeMillis();
+            logger.info("...backfill latest snapshots...");
+            long count = backfill();
+            // reload the metadata as it may be changed in the meantime
+            metadata = dataService.loadMetadata();
+            metadata.setItemValue(ITEM_BACKFILL_COMPLETED, true);
+            dataService.saveMetadata(metadata);
+            logger.info("...backfill latest snapshots completed: " + count + " documents in "
+                    + (System.currentTimeMillis() - startTime) + "ms");
+        } catch (ArchiveException | RuntimeException e) {
+            logger.warning("backfill of latest snapshots failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Scans the table snapshots_by_uniqueid and writes the last snapshot of each
+     * partition into the table latest_snapshot_by_uniqueid. The rows of a
+     * partition are returned in ascending order of the snapshot ids.
+     * 
+     * @return number of documents
+     */
+    long backfill() {
+        SimpleStatement statement = new SimpleStatement(STATEMENT_SELECT_SNAPSHOTS);
+        statement.setFetchSize(1000);
+        ResultSet rs = clusterService.getSession().execute(statement);
+        long count = 0;
+        String uniqueID = null;
+        String snapshotID = null;
+        for (Row row : rs) {
+            String rowUniqueID = row.getString(DataService.COLUMN_UNIQUEID);
+            if (uniqueID != null && !uniqueID.equals(rowUniqueID)) {
+                writeLatestSnapshot(uniqueID, snapshotID);
+                count++;
+            }
+            uniqueID = rowUniqueID;
+            snapshotID = row.getString(DataService.COLUMN_SNAPSHOT);
+        }
+        if (uniqueID != null) {
+            writeLatestSnapshot(uniqueID, snapshotID);
+            count++;
+        }
+        return count;
+    }
+
+    private void writeLatestSnapshot(String uniqueID, String snapshotID) {
+        dataService.updateLatestSnapshot(uniqueID, snapshotID, null,
+                dataService.getSnapshotTime(snapshotID) * 1000);
+    }
+
+}
@@ -0,0 +1,215 @@
+package org.imixs.archive.service.cassandra;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.imixs.archive.service.ArchiveException;
+import org.imixs.workflow.FileData;
+import org.imixs.workflow.ItemCollection;
+
+import com.datastax.driver.core.LocalDate;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.SimpleStatement;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.Resource;
+import jakarta.ejb.LocalBean;
+import jakarta.ejb.Singleton;
+import jakarta.ejb.Startup;
+import jakarta.ejb.Timeout;
+import jakarta.ejb.Timer;
+import jakarta.ejb.TimerConfig;
+import jakarta.inject.Inject;
+
+/**
+ * The SnapshotStatsBackfill fills the table snapshot_stats_by_day with the
+ * snapshots archived before the table was introduced. The job scans the days
+ * of the table snapshots_by_modified once and computes the snapshot count and
+ * size of each day.
+ * <p>
+ * As the columns of the table are counters, the job does not overwrite the
+ * stats of a day but adds the difference between the computed and the current
+ * values. So snapshots stored or deleted by the DataService in the meantime are
+ * not counted twice. Days without snapshots are reset to 0.
+ * <p>
+ * After the job is completed the flag 'stats.backfill' is stored in the
+ * metadata. Removing the flag starts the job again with the next deployment.
+ *
+ * @author rsoika
+ * @version 1.0
+ */
+@Startup
+@Singleton
+@LocalBean
+public class SnapshotStatsBackfill {
+
+    public final static String ITEM_BACKFILL_COMPLETED = "stats.backfill";
+    public final static String ENV_BACKFILL_INITIALDELAY = "archive.stats.backfill.initialdelay";
+
+    public static final String STATEMENT_SELECT_DAYS = "select distinct modified from snapshots_by_modified";
+    public static final String STATEMENT_SELECT_STATS = "select year, day, count, size from snapshot_stats_by_day";
+    public static final String STATEMENT_SELECT_STATS_OF_DAY = "select count, size from snapshot_stats_by_day where year=<year> and day='<day>'";
+
+    @Inject
+    @ConfigProperty(name = ENV_BACKFILL_INITIALDELAY, defaultValue = "60000")
+    long initialDelay;
+
+    @Inject
+    ClusterService clusterService;
+
+    @Inject
+    DataService dataService;
+
+    @Resource
+    jakarta.ejb.TimerService timerService;
+
+    private static Logger logger = Logger.getLogger(SnapshotStatsBackfill.class.getName());
+
+    @PostConstruct
+    public void init() {
+        final TimerConfig timerConfig = new TimerConfig();
+        timerConfig.setInfo("");
+        timerConfig.setPersistent(false);
+        timerService.createSingleActionTimer(initialDelay, timerConfig);
+    }
+
+    /**
+     * This method is called by the TimerService and runs the backfill if not yet
+     * completed.
+     *
+     * @param timer
+     */
+    @Timeout
+    public void run(Timer timer) {
+        try {
+            ItemCollection metadata = dataService.loadMetadata();
+            if (metadata.getItemValueBoolean(ITEM_BACKFILL_COMPLETED)) {
+                return;
+            }
+            long startTime = System.currentTimeMillis();
+            logger.info("...backfill snapshot stats...");
+            long count = backfill();
+            // reload the metadata as it may be changed in the meantime
+            metadata = dataService.loadMetadata();
+            metadata.setItemValue(ITEM_BACKFILL_COMPLETED, true);
+            dataService.saveMetadata(metadata);
+            logger.info("...backfill snapshot stats completed: " + count + " days in "
+                    + (System.currentTimeMillis() - startTime) + "ms");
+        } catch (ArchiveException | RuntimeException e) {
+            logger.warning("backfill of snapshot stats failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Computes the stats of each day of the table snapshots_by_modified and
+     * corrects the stats of days without snapshots.
+     *
+     * @return number of days
+     * @throws ArchiveException
+     */
+    long backfill() throws ArchiveException {
+        SimpleStatement statement = new SimpleStatement(STATEMENT_SELECT_DAYS);
+        statement.setFetchSize(1000);
+        ResultSet rs = clusterService.getSession().execute(statement);
+        Set<LocalDate> days = new HashSet<LocalDate>();
+        for (Row row : rs) {
+            days.add(row.getDate(DataService.COLUMN_MODIFIED));
+        }
+        for (LocalDate day : days) {
+            backfillDay(day);
+        }
+
+        // reset days without snapshots
+        statement = new SimpleStatement(STATEMENT_SELECT_STATS);
+        statement.setFetchSize(1000);
+        rs = clusterService.getSession().execute(statement);
+        for (Row row : rs) {
+            LocalDate day = row.getDate(DataService.COLUMN_DAY);
+            long count = row.getLong(DataService.COLUMN_COUNT);
+            long size = row.getLong(DataService.COLUMN_SIZE);
+            if (!days.contains(day) && (count != 0 || size != 0)) {
+                dataService.updateSnapshotStats(day, -count, -size);
+            }
+        }
+        return days.size();
+    }
+
+    /**
+     * Computes the snapshot count and size of a single day and updates the
+     * difference to the current stats.
+     *
+     * @param day
+     * @throws ArchiveException
+     */
+    private void backfillDay(LocalDate day) throws ArchiveException {
+        java.time.LocalDate date = java.time.LocalDate.of(day.getYear(), day.getMonth(), day.getDay());
+        Map<String, Long> documentSizes = new HashMap<String, Long>();
+        long count = 0;
+        long size = 0;
+        String lastSnapshotID = null;
+        while (true) {
+            List<String> snapshotIDs = dataService.loadSnapshotsByDate(date, lastSnapshotID, 1000);
+            for (String snapshotID : snapshotIDs) {
+                size = size + computeSnapshotSize(snapshotID, documentSizes);
+                count++;
+            }
+            if (snapshotIDs.size() < 1000) {
+                break;
+            }
+            lastSnapshotID = snapshotIDs.get(snapshotIDs.size() - 1);
+        }
+
+        String sql = STATEMENT_SELECT_STATS_OF_DAY;
+        sql = sql.replace("<year>", "" + day.getYear());
+        sql = sql.replace("'<day>'", "'" + day + "'");
+        Row row = clusterService.getSession().execute(sql).one();
+        if (row != null) {
+            count = count - row.getLong(DataService.COLUMN_COUNT);
+            size = size - row.getLong(DataService.COLUMN_SIZE);
+        }
+        if (count != 0 || size != 0) {
+            dataService.updateSnapshotStats(day, count, size);
+        }
+    }
+
+    /**
+     * Returns the size of the snapshot data plus the size of all documents
+     * referred by the snapshot.
+     */
+    private long computeSnapshotSize(String snapshotID, Map<String, Long> documentSizes)
+            throws ArchiveException {
+        String sql = DataService.STATEMENT_SELECT_SNAPSHOT;
+        sql = sql.replace("'?'", "'" + snapshotID + "'");
+        Row row = clusterService.getSession().execute(sql).one();
+        if (row == null) {
+            return 0;
+        }
+        ByteBuffer data = row.getBytes(DataService.COLUMN_DATA);
+        if (data == null || !data.hasArray()) {
+            return 0;
+        }
+        long size = data.remaining();
+        ItemCollection snapshot = dataService.getItemCollection(data.array());
+        for (FileData fileData : snapshot.getFileData()) {
+            String md5 = new ItemCollection(fileData.getAttributes())
+                    .getItemValueString(DataService.ITEM_MD5_CHECKSUM);
+            if (!md5.isEmpty()) {
+                Long documentSize = documentSizes.get(md5);
+                if (documentSize == null) {
+                    documentSize = dataService.loadDocumentSize(md5);
+                    documentSizes.put(md5, documentSize);
+                }
+                size = size + documentSize;
+            }
+        }
+        return size;
+    }
+
+}
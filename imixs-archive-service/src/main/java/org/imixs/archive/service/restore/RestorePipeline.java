@@ -0,0 +1,475 @@
+/*******************************************************************************
+ *  Imixs Workflow Technology
+ *  Copyright (C) 2001, 2008 Imixs Software Solutions GmbH,  
+ *  http://www.imixs.com
+ *  
+ *  This program is free software; you can redistribute it and/or 
+ *  modify it under the terms of the GNU General Public License 
+ *  as published by the Free Software Foundation; either version 2 
+ *  of the License, or (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful, 
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ *  General Public License for more details.
+ *  
+ *  You can receive a copy of the GNU General Public
+ *  License at http://www.gnu.org/licenses/gpl.html
+ *  
+ *  Contributors:  
+ *  	Imixs Software Solutions GmbH - initial API and implementation
+ *  	Ralph Soika
+ *******************************************************************************/
+package org.imixs.archive.service.restore;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import org.imixs.archive.service.ArchiveException;
+import org.imixs.archive.service.util.SnapshotRestoreHelper;
+import org.imixs.archive.service.util.VisitedIDSet;
+import org.imixs.melman.DocumentClient;
+import org.imixs.workflow.ItemCollection;
+import org.imixs.workflow.xml.XMLDocumentAdapter;
+
+import jakarta.enterprise.concurrent.ManagedThreadFactory;
+
+/**
+ * The RestorePipeline restores a list of snapshot IDs in a staged pipeline.
+ * Each stage is processed by a configurable number of worker threads. The
+ * stages are connected by bounded queues:
+ * <ol>
+ * <li>resolve - find the latest snapshot ID within the restore time range</li>
+ * <li>filter - verify the restore filter options</li>
+ * <li>remote - verify if the snapshot is already restored</li>
+ * <li>load - load the snapshot data from the archive</li>
+ * <li>post - restore the snapshot into the workflow instance</li>
+ * </ol>
+ * The post stage collects the snapshots into batches which are restored in one
+ * request.
+ * The worker threads are created by a ManagedThreadFactory so that the stages
+ * do not block each other in a shared thread pool.
+ * <p>
+ * The latest snapshot of a document within the restore time range is the same
+ * for all snapshots of the document. For that reason the pipeline remembers
+ * the $uniqueIDs already processed and passes each document only once per
+ * restore run into the pipeline.
+ * <p>
+ * If a worker fails with an unexpected error, or the restore is canceled, the
+ * pipeline is aborted. All workers stop and the method process throws an
+ * ArchiveException, so that no checkpoint is stored for unprocessed snapshots.
+ * 
+ * @version 1.0
+ * @author rsoika
+ */
+public class RestorePipeline {
+
+	// signals the end of a queue
+	private static final Object END = new Object();
+	// max bytes of snapshot data posted in one request
+	public static final long MAX_BATCH_DATA_SIZE = 8 * 1024 * 1024;
+	// interval to verify the abort flag while waiting on a queue
+	private static final long POLL_INTERVAL = 1000; // ms
+
+	private static Logger logger = Logger.getLogger(RestorePipeline.class.getName());
+
+	private RestoreScheduler restoreScheduler;
+	private DocumentClient documentClient;
+	private ManagedThreadFactory threadFactory;
+	private List<ItemCollection> options;
+	private long restoreFrom;
+	private long restoreTo;
+	private int queueSize;
+	private int[] workers;
+	private int batchSize = 1;
+
+	private List<Thread> threads = new CopyOnWriteArrayList<Thread>();
+	// $uniqueIDs already processed in this restore run
+	private VisitedIDSet visitedIDs = new VisitedIDSet();
+	private long skipped = 0;
+
+	private AtomicInteger count = new AtomicInteger();
+	private AtomicInteger errors = new AtomicInteger();
+	private AtomicLong size = new AtomicLong();
+	private volatile boolean aborted = false;
+
+	/**
+	 * Functional interface of a pipeline stage. A stage returns the item for the
+	 * next stage or null if the item should be skipped.
+	 */
+	private interface Stage {
+		Object process(Object item) throws Exception;
+	}
+
+	/**
+	 * Creates a new pipeline.
+	 * 
+	 * @param restoreScheduler - the scheduler providing the services
+	 * @param documentClient   - rest client
+	 * @param threadFactory    - factory for the worker threads
+	 * @param restoreFrom      - time range from
+	 * @param restoreTo        - time range to
+	 * @param options          - restore filter options
+	 * @param queueSize        - capacity of each queue
+	 * @param workers          - number of workers for the stages resolve,
+	 *                         filter, remote, load and post
+	 */
+	public RestorePipeline(RestoreScheduler restoreScheduler, DocumentClient documentClient,
+			ManagedThreadFactory threadFactory, long restoreFrom, long restoreTo, List<ItemCollection> options,
+			int queueSize, int... workers) {
+		super();
+		this.restoreScheduler = restoreScheduler;
+		this.documentClient = documentClient;
+		this.threadFactory = threadFactory;
+		this.restoreFrom = restoreFrom;
+		this.restoreTo = restoreTo;
+		this.options = options;
+		this.queueSize = Math.max(1, queueSize);
+		this.workers = workers;
+	}
+
+	/**
+	 * Set the number of snapshots posted in one request.
+	 */
+	public void setBatchSize(int batchSize) {
+		this.batchSize = Math.max(1, batchSize);
+	}
+
+	public int getCount() {
+		return count.get();
+	}
+
+	public int getErrors() {
+		return errors.get();
+	}
+
+	public long getSize() {
+		return size.get();
+	}
+
+	/**
+	 * Returns the number of snapshot IDs skipped because the document was already
+	 * processed.
+	 */
+	public long getSkipped() {
+		return skipped;
+	}
+
+	/**
+	 * Returns true if the pipeline was aborted.
+	 */
+	public boolean isAborted() {
+		return aborted;
+	}
+
+	/**
+	 * Aborts the pipeline. All worker threads are interrupted and stop processing.
+	 * A pipeline can not be restarted after it was aborted.
+	 */
+	public void abort() {
+		aborted = true;
+		for (Thread thread : threads) {
+			thread.interrupt();
+		}
+	}
+
+	/**
+	 * Restores a list of snapshot IDs. The method blocks until all snapshot IDs
+	 * are processed by all stages.
+	 * 
+	 * @param snapshotIDs
+	 * @throws InterruptedException
+	 * @throws ArchiveException     if the pipeline was aborted
+	 */
+	public void process(Iterable<String> snapshotIDs) throws InterruptedException, ArchiveException {
+		process(snapshotIDs, true);
+	}
+
+	/**
+	 * Restores a list of snapshot IDs. If the param resolve is false, the snapshot
+	 * IDs are already the latest snapshots within the restore time range (e.g.
+	 * read from the table latest_snapshot_by_uniqueid) and the resolve stage
+	 * passes them unchanged to the next stage.
+	 * 
+	 * @param snapshotIDs
+	 * @param resolve     - true if the latest snapshot ID should be resolved
+	 * @throws InterruptedException
+	 * @throws ArchiveException     if the pipeline was aborted
+	 */
+	public void process(Iterable<String> snapshotIDs, boolean resolve)
+			throws InterruptedException, ArchiveException {
+		if (aborted) {
+			throw new ArchiveException(ArchiveException.SYNC_ERROR, "restore pipeline aborted");
+		}
+		threads.clear();
+
+		List<BlockingQueue<Object>> queues = new ArrayList<BlockingQueue<Object>>();
+		for (int i = 0; i < 5; i++) {
+			queues.add(new ArrayBlockingQueue<Object>(queueSize));
+		}
+
+		// resolve latest snapshot
+		startStage("resolve", 0, queues, item -> {
+			if (!resolve) {
+				return item;
+			}
+			String latestSnapshot = restoreScheduler.findLatestSnapshotID((String) item, restoreFrom, restoreTo);
+			return latestSnapshot;
+		});
+		// filter options
+		startStage("filter", 1, queues, item -> {
+			if (!restoreScheduler.matchFilterOptions((String) item, options)) {
+				logger.fine(".... no snapshot found matching requested restore time range and options");
+				return null;
+			}
+			return item;
+		});
+		// remote check
+		startStage("remote", 2, queues, item -> {
+			String latestSnapshot = (String) item;
+			String remoteSnapshotID = null;
+			try {
+				remoteSnapshotID = restoreScheduler.remoteAPIService
+						.readSnapshotIDByUniqueID(restoreScheduler.dataService.getUniqueID(latestSnapshot),
+								documentClient);
+			} catch (ArchiveException ae) {
+				// expected if not found
+			}
+			if (remoteSnapshotID != null && latestSnapshot.equals(remoteSnapshotID)) {
+				logger.finest("......no need to restore - snapshot:" + latestSnapshot + " is up to date!");
+				return null;
+			}
+			return latestSnapshot;
+		});
+		// load snapshot
+		startStage("load", 3, queues, item -> {
+			logger.info("......restore snapshot " + item + " ...");
+			return restoreScheduler.dataService.loadSnapshot((String) item);
+		});
+		// post snapshots
+		startPostStage(4, queues);
+
+		// feed the pipeline
+		BlockingQueue<Object> input = queues.get(0);
+		for (String snapshotID : snapshotIDs) {
+			// process each document only once
+			if (visitedIDs.add(restoreScheduler.dataService.getUniqueID(snapshotID))) {
+				if (!put(input, snapshotID)) {
+					break;
+				}
+			} else {
+				skipped++;
+			}
+		}
+		signalEnd(input, getWorkers(0));
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		if (aborted) {
+			throw new ArchiveException(ArchiveException.SYNC_ERROR, "restore pipeline aborted");
+		}
+	}
+
+	/**
+	 * Starts the worker threads of a stage. Each worker takes items from the
+	 * input queue of the stage and puts the result into the input queue of the
+	 * next stage. The last worker of a stage signals the end to all workers of the
+	 * next stage, also if the worker fails with an unexpected error. In this case
+	 * the pipeline is aborted.
+	 */
+	private void startStage(String name, int index, List<BlockingQueue<Object>> queues, Stage stage) {
+		BlockingQueue<Object> input = queues.get(index);
+		BlockingQueue<Object> output = (index + 1 < queues.size()) ? queues.get(index + 1) : null;
+		int stageWorkers = getWorkers(index);
+		AtomicInteger running = new AtomicInteger(stageWorkers);
+		for (int i = 0; i < stageWorkers; i++) {
+			Thread thread = threadFactory.newThread(() -> {
+				try {
+					while (true) {
+						Object item = take(input);
+						if (item == END) {
+							break;
+						}
+						try {
+							Object result = stage.process(item);
+							if (result != null && output != null && !put(output, result)) {
+								break;
+							}
+						} catch (InterruptedException e) {
+							throw e;
+						} catch (Exception e) {
+							logger.severe("...Failed to restore '" + item + "' in stage " + name + " - "
+									+ e.getMessage());
+							errors.incrementAndGet();
+						}
+					}
+				} catch (Throwable e) {
+					fail(name, e);
+				} finally {
+					if (running.decrementAndGet() == 0 && output != null) {
+						signalEnd(output, getWorkers(index + 1));
+					}
+				}
+			});
+			thread.setName("restore-" + name + "-" + i);
+			threads.add(thread);
+			thread.start();
+		}
+	}
+
+	/**
+	 * Starts the worker threads of the post stage. Each worker collects the
+	 * snapshots into a batch and restores the batch if the batch size or the max
+	 * data size is reached or the stage ends.
+	 */
+	private void startPostStage(int index, List<BlockingQueue<Object>> queues) {
+		BlockingQueue<Object> input = queues.get(index);
+		for (int i = 0; i < getWorkers(index); i++) {
+			Thread thread = threadFactory.newThread(() -> {
+				List<ItemCollection> batch = new ArrayList<ItemCollection>();
+				Map<String, Long> sizes = new HashMap<String, Long>();
+				long batchDataSize = 0;
+				try {
+					while (true) {
+						Object item = take(input);
+						if (item == END) {
+							break;
+						}
+						ItemCollection snapshot = (ItemCollection) item;
+						long _tmpSize;
+						try {
+							_tmpSize = restoreScheduler.dataService
+									.calculateSize(XMLDocumentAdapter.getDocument(snapshot));
+						} catch (Exception e) {
+							logger.severe("...Failed to restore '" + snapshot.getUniqueID() + "' in stage post - "
+									+ e.getMessage());
+							errors.incrementAndGet();
+							continue;
+						}
+						logger.finest("......size=: " + _tmpSize);
+						batch.add(snapshot);
+						sizes.put(snapshot.getUniqueID(), _tmpSize);
+						batchDataSize = batchDataSize + _tmpSize;
+						if (batch.size() >= batchSize || batchDataSize >= MAX_BATCH_DATA_SIZE) {
+							post(batch, sizes);
+							batchDataSize = 0;
+						}
+					}
+					if (!aborted) {
+						post(batch, sizes);
+					}
+				} catch (Throwable e) {
+					fail("post", e);
+				}
+			});
+			thread.setName("restore-post-" + i);
+			threads.add(thread);
+			thread.start();
+		}
+	}
+
+	/**
+	 * Restores a batch of snapshots and updates the counters. The batch is cleared
+	 * after.
+	 */
+	private void post(List<ItemCollection> batch, Map<String, Long> sizes) {
+		if (batch.isEmpty()) {
+			return;
+		}
+		try {
+			List<ItemCollection> results = restoreScheduler.remoteAPIService.restoreSnapshots(batch,
+					documentClient);
+			for (ItemCollection result : results) {
+				String snapshotID = result.getItemValueString(SnapshotRestoreHelper.ITEM_SNAPSHOTID);
+				if (SnapshotRestoreHelper.hasError(result)) {
+					logger.severe("...Failed to restore '" + snapshotID + "' in stage post - "
+							+ result.getItemValueString(SnapshotRestoreHelper.ITEM_ERROR_MESSAGE));
+					errors.incrementAndGet();
+				} else {
+					size.addAndGet(sizes.getOrDefault(snapshotID, 0L));
+					count.incrementAndGet();
+				}
+			}
+		} catch (Exception e) {
+			// a failed batch must not stop the worker - otherwise the pipeline blocks
+			logger.severe("...Failed to restore " + batch.size() + " snapshots in stage post - " + e.getMessage());
+			errors.addAndGet(batch.size());
+		} finally {
+			batch.clear();
+			sizes.clear();
+		}
+	}
+
+	/**
+	 * Takes the next item from a queue. Returns END if the pipeline was aborted.
+	 */
+	private Object take(BlockingQueue<Object> queue) throws InterruptedException {
+		while (!aborted) {
+			Object item = queue.poll(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+			if (item != null) {
+				return item;
+			}
+		}
+		return END;
+	}
+
+	/**
+	 * Puts an item into a queue. Returns false if the pipeline was aborted, so
+	 * that a producer can not block on a queue without consumers.
+	 */
+	private boolean put(BlockingQueue<Object> queue, Object item) throws InterruptedException {
+		while (!aborted) {
+			if (queue.offer(item, POLL_INTERVAL, TimeUnit.MILLISECONDS)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Signals the end of a queue to all workers of the next stage.
+	 */
+	private void signalEnd(BlockingQueue<Object> queue, int workers) {
+		try {
+			for (int i = 0; i < workers; i++) {
+				if (!put(queue, END)) {
+					return;
+				}
+			}
+		} catch (InterruptedException e) {
+			abort();
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Aborts the pipeline after a worker failed with an unexpected error or was
+	 * interrupted.
+	 */
+	private void fail(String name, Throwable e) {
+		if (!aborted) {
+			logger.severe("...Restore stage " + name + " failed - pipeline aborted: " + e);
+		}
+		abort();
+		if (e instanceof InterruptedException) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private int getWorkers(int index) {
+		if (workers == null || index >= workers.length) {
+			return 1;
+		}
+		return Math.max(1, workers[index]);
+	}
+
+}
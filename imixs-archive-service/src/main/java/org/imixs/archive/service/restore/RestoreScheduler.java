@@ -24,24 +24,30 @@ package org.imixs.archive.service.restore;
 
 import java.time.LocalDateTime;
 import java.time.ZoneId;
+import java.time.ZoneOffset;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
 
+import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.imixs.archive.service.ArchiveException;
 import org.imixs.archive.service.RemoteAPIService;
 import org.imixs.archive.service.cassandra.ClusterService;
 import org.imixs.archive.service.cassandra.DataService;
+import org.imixs.archive.service.cassandra.LatestSnapshotBackfill;
+import org.imixs.archive.service.cassandra.SnapshotStatsBackfill;
 import org.imixs.archive.service.util.MessageService;
 import org.imixs.archive.service.util.RestClientHelper;
 import org.imixs.melman.DocumentClient;
 import org.imixs.workflow.ItemCollection;
 import org.imixs.workflow.exceptions.QueryException;
-import org.imixs.workflow.xml.XMLDocumentAdapter;
 
 import com.datastax.driver.core.Cluster;
 import com.datastax.driver.core.ResultSet;
@@ -52,10 +58,13 @@ import jakarta.annotation.Resource;
 import jakarta.annotation.security.DeclareRoles;
 import jakarta.annotation.security.RunAs;
 import jakarta.ejb.LocalBean;
+import jakarta.ejb.Lock;
+import jakarta.ejb.LockType;
 import jakarta.ejb.Singleton;
 import jakarta.ejb.Startup;
 import jakarta.ejb.Timeout;
 import jakarta.ejb.Timer;
+import jakarta.enterprise.concurrent.ManagedThreadFactory;
 import jakarta.inject.Inject;
 
 /**
@@ -74,12 +83,23 @@ import jakarta.inject.Inject;
  * <strong>restore.point</strong>: the current snapshot syncpoint. This date is
  * used to select snapshots by date in a cassandra partion.
  * <p>
+ * <strong>restore.point.id</strong>: the last snapshot processed within the
+ * current day, or the last document processed if the latest snapshots are
+ * restored. A restart resumes after this checkpoint.
+ * <p>
  * <strong>restore.count</strong>: count of restored snapshots
  * <p>
  * <strong>restore.size</strong>: bytes of restored snapshot data
  * <p>
  * The timer is stopped after all snapshots in the restore time range
  * (restore.from - restore.to) are restored.
+ * <p>
+ * The snapshots of a day are restored by the RestorePipeline. The number of
+ * workers for each stage of the pipeline can be configured by the properties
+ * 'archive.restore.workers.*'.
+ * <p>
+ * If the snapshot stats are available, days without snapshots are skipped
+ * without querying the table snapshots_by_modified.
  * 
  * 
  * @version 1.0
@@ -98,6 +118,8 @@ public class RestoreScheduler {
 	public final static String ITEM_RESTORE_FROM = "restore.from";
 	public final static String ITEM_RESTORE_TO = "restore.to";
 	public final static String ITEM_RESTORE_SYNCPOINT = "restore.point";
+	public final static String ITEM_RESTORE_SYNCPOINT_ID = "restore.point.id";
+	public final static String ITEM_RESTORE_LATEST = "restore.latest";
 	public final static String ITEM_RESTORE_SYNCCOUNT = "restore.count";
 	public final static String ITEM_RESTORE_SYNCERRORS = "restore.errors";
 	public final static String ITEM_RESTORE_SYNCSIZE = "restore.size";
@@ -105,8 +127,56 @@ public class RestoreScheduler {
 
 	public final static String MESSAGE_TOPIC = "restore";
 
+	public final static String ENV_RESTORE_QUEUE_SIZE = "archive.restore.queue.size";
+	public final static String ENV_RESTORE_WORKERS_RESOLVE = "archive.restore.workers.resolve";
+	public final static String ENV_RESTORE_WORKERS_FILTER = "archive.restore.workers.filter";
+	public final static String ENV_RESTORE_WORKERS_REMOTE = "archive.restore.workers.remote";
+	public final static String ENV_RESTORE_WORKERS_LOAD = "archive.restore.workers.load";
+	public final static String ENV_RESTORE_WORKERS_POST = "archive.restore.workers.post";
+	public final static String ENV_RESTORE_BATCH_SIZE = "archive.restore.batch.size";
+	public final static String ENV_RESTORE_CHECKPOINT_SIZE = "archive.restore.checkpoint.size";
+
+	// capacity of the queues between the pipeline stages
+	@Inject
+	@ConfigProperty(name = ENV_RESTORE_QUEUE_SIZE, defaultValue = "100")
+	int queueSize;
+
+	@Inject
+	@ConfigProperty(name = ENV_RESTORE_WORKERS_RESOLVE, defaultValue = "2")
+	int resolveWorkers;
+
+	@Inject
+	@ConfigProperty(name = ENV_RESTORE_WORKERS_FILTER, defaultValue = "2")
+	int filterWorkers;
+
+	@Inject
+	@ConfigProperty(name = ENV_RESTORE_WORKERS_REMOTE, defaultValue = "2")
+	int remoteWorkers;
+
+	@Inject
+	@ConfigProperty(name = ENV_RESTORE_WORKERS_LOAD, defaultValue = "2")
+	int loadWorkers;
+
+	@Inject
+	@ConfigProperty(name = ENV_RESTORE_WORKERS_POST, defaultValue = "2")
+	int postWorkers;
+
+	// number of snapshots posted in one request
+	@Inject
+	@ConfigProperty(name = ENV_RESTORE_BATCH_SIZE, defaultValue = "10")
+	int batchSize;
+
+	// number of snapshots processed between two checkpoints
+	@Inject
+	@ConfigProperty(name = ENV_RESTORE_CHECKPOINT_SIZE, defaultValue = "1000")
+	int checkpointSize;
+
 	private static Logger logger = Logger.getLogger(RestoreScheduler.class.getName());
 
+	// the pipeline of the running restore, aborted by cancel
+	private volatile RestorePipeline activePipeline = null;
+	private final AtomicBoolean running = new AtomicBoolean(false);
+
 	@Inject
 	DataService dataService;
 
@@ -122,6 +192,9 @@ public class RestoreScheduler {
 	@Resource
 	jakarta.ejb.TimerService timerService;
 
+	@Resource
+	ManagedThreadFactory threadFactory;
+
 	@Inject
 	RestClientHelper restClientHelper;
 
@@ -172,6 +245,10 @@ public class RestoreScheduler {
 			metaData.setItemValue(ITEM_RESTORE_FROM, restoreFrom);
 			metaData.setItemValue(ITEM_RESTORE_TO, restoreTo);
 			metaData.setItemValue(ITEM_RESTORE_SYNCPOINT, restoreFrom);
+			metaData.setItemValue(ITEM_RESTORE_SYNCPOINT_ID, "");
+			// a restore of the current state can scan the latest snapshots directly
+			metaData.setItemValue(ITEM_RESTORE_LATEST, restoreTo >= System.currentTimeMillis()
+					&& metaData.getItemValueBoolean(LatestSnapshotBackfill.ITEM_BACKFILL_COMPLETED));
 			metaData.setItemValue(ITEM_RESTORE_SYNCCOUNT, 0);
 			metaData.setItemValue(ITEM_RESTORE_SYNCSIZE, 0);
 			metaData.setItemValue(ITEM_RESTORE_OPTIONS, options);
@@ -200,14 +277,20 @@ public class RestoreScheduler {
 	}
 
 	/**
-	 * Stops the current restore process
+	 * Stops the current restore process. A running restore pipeline is aborted.
+	 * The method uses a read lock, so it is not blocked by a running timer.
 	 * 
 	 * @throws ArchiveException
 	 */
+	@Lock(LockType.READ)
 	public void cancel() throws ArchiveException {
 		messageService.logMessage(MESSAGE_TOPIC, "... restore process canceled!");
 
 		stop(findTimer());
+		RestorePipeline pipeline = activePipeline;
+		if (pipeline != null) {
+			pipeline.abort();
+		}
 	}
 
 	/**
@@ -236,14 +319,38 @@ public class RestoreScheduler {
 	 * <p>
 	 * If snapshotIDs for a day exists, than the method tests if a snapshot is the
 	 * latest one for the requested restore timerange. If so, than the snapshot will
-	 * be resotored.
+	 * be resotored. The snapshotIDs of a day are processed by the RestorePipeline.
+	 * <p>
+	 * The snapshotIDs of a day are read in pages. After each page the last
+	 * snapshotID is stored as a checkpoint together with the statistics, so that a
+	 * restarted restore resumes within the day.
+	 * <p>
+	 * The method uses a read lock, so that a running restore can be canceled. A
+	 * timeout is skipped if the previous restore is still running.
 	 * 
 	 * @param timer
 	 * @throws Exception
 	 * @throws QueryException
 	 */
 	@Timeout
+	@Lock(LockType.READ)
 	void onTimeout(jakarta.ejb.Timer timer) throws Exception {
+		if (!running.compareAndSet(false, true)) {
+			logger.info("...restore still running - timeout skipped");
+			return;
+		}
+		try {
+			restore(timer);
+		} finally {
+			activePipeline = null;
+			running.set(false);
+		}
+	}
+
+	/**
+	 * Restores the snapshots of the restore time range.
+	 */
+	private void restore(jakarta.ejb.Timer timer) throws Exception {
 		DocumentClient documentClient = null;
 		Session session = null;
 		Cluster cluster = null;
@@ -257,7 +364,7 @@ public class RestoreScheduler {
 
 		try {
 			// init rest clients....
-			documentClient = restClientHelper.createDocumentClient();
+			documentClient = restClientHelper.createBulkDocumentClient();
 
 			// read the metadata
 			metadata = dataService.loadMetadata();
@@ -279,79 +386,111 @@ public class RestoreScheduler {
 			logger.info("......restore:    from " + dataService.getSyncPointISO(restoreFrom) + " to "
 					+ dataService.getSyncPointISO(restoreTo));
 			logger.info("......restore.point:  " + dataService.getSyncPointISO(syncpoint));
+			String checkpointID = metadata.getItemValueString(ITEM_RESTORE_SYNCPOINT_ID);
+			if (!checkpointID.isEmpty()) {
+				logger.info("......restore.point.id: " + checkpointID);
+			}
+			RestorePipeline pipeline = new RestorePipeline(this, documentClient, threadFactory, restoreFrom,
+					restoreTo, options, queueSize, resolveWorkers, filterWorkers, remoteWorkers, loadWorkers,
+					postWorkers);
+			pipeline.setBatchSize(batchSize);
+			activePipeline = pipeline;
+			if (metadata.getItemValueBoolean(ITEM_RESTORE_LATEST)) {
+				// restore the latest snapshots of all documents
+				logger.info("......restore latest snapshots...");
+				Iterator<String> latestSnapshotIDs = dataService
+						.loadLatestSnapshotIDs(restoreFrom, restoreTo, checkpointID).iterator();
+				List<String> snapshotIDs = new ArrayList<String>();
+				while (latestSnapshotIDs.hasNext()) {
+					snapshotIDs.add(latestSnapshotIDs.next());
+					if (snapshotIDs.size() >= checkpointSize || !latestSnapshotIDs.hasNext()) {
+						pipeline.process(snapshotIDs, false);
+						checkpointID = dataService.getUniqueID(snapshotIDs.get(snapshotIDs.size() - 1));
+						saveCheckpoint(metadata, syncpoint, checkpointID, restoreCount, restoreSize, restoreErrors,
+								pipeline);
+						snapshotIDs = new ArrayList<String>();
+					}
+				}
+				localDateSyncPoint = localDateRestoreTo;
+				syncpoint = restoreTo;
+				metadata.setItemValue(ITEM_RESTORE_LATEST, false);
+				saveCheckpoint(metadata, syncpoint, "", restoreCount, restoreSize, restoreErrors, pipeline);
+			}
+			// the snapshot stats are used to skip days without snapshots
+			NavigableSet<java.time.LocalDate> snapshotDays = null;
+			if (metadata.getItemValueBoolean(SnapshotStatsBackfill.ITEM_BACKFILL_COMPLETED)) {
+				snapshotDays = new TreeSet<java.time.LocalDate>();
+				for (ItemCollection stats : dataService.loadSnapshotStats(localDateSyncPoint.toLocalDate(),
+						localDateRestoreTo.toLocalDate())) {
+					snapshotDays.add(stats.getItemValueDate(DataService.COLUMN_DAY).toInstant()
+							.atZone(ZoneOffset.UTC).toLocalDate());
+				}
+			}
 			// we search for snapshotIDs until we found one or the syncdate is after the
 			// restore.to point.
 			while (localDateRestoreTo.isAfter(localDateSyncPoint)) {
-				List<String> snapshotIDs = dataService.loadSnapshotsByDate(localDateSyncPoint.toLocalDate());
-				// verify all snapshots of this day....
-				if (!snapshotIDs.isEmpty()) {
+				if (snapshotDays != null && !snapshotDays.contains(localDateSyncPoint.toLocalDate())) {
+					// skip empty days
+					java.time.LocalDate nextDay = snapshotDays.ceiling(localDateSyncPoint.toLocalDate());
+					if (nextDay == null) {
+						localDateSyncPoint = localDateRestoreTo;
+						syncpoint = restoreTo;
+					} else {
+						localDateSyncPoint = nextDay.atTime(localDateSyncPoint.toLocalTime());
+						syncpoint = Date.from(localDateSyncPoint.atZone(ZoneId.systemDefault()).toInstant())
+								.getTime();
+					}
+					checkpointID = "";
+					saveCheckpoint(metadata, syncpoint, checkpointID, restoreCount, restoreSize, restoreErrors,
+							pipeline);
+					continue;
+				}
+				// verify all snapshots of this day in pages. After each page the last
+				// snapshot is stored as a checkpoint.
+				while (true) {
+					List<String> snapshotIDs = dataService.loadSnapshotsByDate(localDateSyncPoint.toLocalDate(),
+							checkpointID, checkpointSize);
+					if (snapshotIDs.isEmpty()) {
+						break;
+					}
 					logger.info("......validate snapshot date " + localDateSyncPoint + "...");
-					// print out the snapshotIDs we found
-					for (String snapshotID : snapshotIDs) {
-						String latestSnapshot = findLatestSnapshotID(snapshotID, restoreFrom, restoreTo);
-						ItemCollection snapshot;
-						String remoteSnapshotID = null;
-						if (latestSnapshot != null && matchFilterOptions(latestSnapshot, options)) {
-							// yes, lets see if this snapshot is already restored or synced?
-							try {
-								remoteSnapshotID = remoteAPIService
-										.readSnapshotIDByUniqueID(dataService.getUniqueID(latestSnapshot),
-												documentClient);
-							} catch (ArchiveException ae) {
-								// expected if not found
-							}
-							if (remoteSnapshotID != null && latestSnapshot.equals(remoteSnapshotID)) {
-								logger.finest(
-										"......no need to restore - snapshot:" + latestSnapshot + " is up to date!");
-							} else {
-								// start restore...
-								long _tmpSize = -1;
-								try {
-									logger.info("......restore snapshot " + latestSnapshot + " ...");
-									snapshot = dataService.loadSnapshot(latestSnapshot);
-									_tmpSize = dataService.calculateSize(XMLDocumentAdapter.getDocument(snapshot));
-									logger.finest("......size=: " + _tmpSize);
-									remoteAPIService.restoreSnapshot(snapshot, documentClient);
-									restoreSize = restoreSize + _tmpSize;
-									restoreCount++;
-									snapshot = null;
-								} catch (Exception e) {
-									logger.severe("...Failed to restore '" + latestSnapshot + "' ("
-											+ messageService.userFriendlyBytes(_tmpSize) + ") - " + e.getMessage());
-									restoreErrors++;
-								}
-							}
-						} else {
-							logger.fine(
-									".... no snapshot found matching requested restore time range and options");
-						}
+					pipeline.process(snapshotIDs);
+					checkpointID = snapshotIDs.get(snapshotIDs.size() - 1);
+					saveCheckpoint(metadata, syncpoint, checkpointID, restoreCount, restoreSize, restoreErrors,
+							pipeline);
+					if (snapshotIDs.size() < checkpointSize) {
+						break;
 					}
 				}
 
 				// adjust snyncdate for one day....
 				localDateSyncPoint = localDateSyncPoint.plusDays(1);
 				// update metadata...
-				Date date = Date.from(localDateSyncPoint.atZone(ZoneId.systemDefault()).toInstant());
-				metadata.setItemValue(ITEM_RESTORE_SYNCPOINT, date.getTime());
-				metadata.setItemValue(ITEM_RESTORE_SYNCCOUNT, restoreCount);
-				metadata.setItemValue(ITEM_RESTORE_SYNCSIZE, restoreSize);
-				metadata.setItemValue(ITEM_RESTORE_SYNCERRORS, restoreErrors);
-
-				dataService.saveMetadata(metadata);
+				syncpoint = Date.from(localDateSyncPoint.atZone(ZoneId.systemDefault()).toInstant()).getTime();
+				checkpointID = "";
+				saveCheckpoint(metadata, syncpoint, checkpointID, restoreCount, restoreSize, restoreErrors, pipeline);
 			}
 
+			restoreCount = restoreCount + pipeline.getCount();
+			restoreSize = restoreSize + pipeline.getSize();
+			restoreErrors = restoreErrors + pipeline.getErrors();
 			logger.info("...restore finished in: " + (System.currentTimeMillis() - startTime) + "ms");
 			logger.info(".......final syncpoint: " + localDateSyncPoint);
 			logger.info(".......total count:" + restoreCount);
 			logger.info(".......total size:" + messageService.userFriendlyBytes(restoreSize));
 			logger.info(".......total errors:" + restoreErrors);
+			logger.info(".......skipped duplicates:" + pipeline.getSkipped());
 
 			timer.cancel();
 
 		} catch (Exception e) {
 			logger.severe("Failed to restore data: " + e.getMessage());
 			// cancle timer
-			timer.cancel();
+			try {
+				timer.cancel();
+			} catch (Exception ce) {
+				// already canceled
+			}
 		} finally {
 			// close session and cluster object
 			if (session != null) {
@@ -364,6 +503,21 @@ public class RestoreScheduler {
 
 	}
 
+	/**
+	 * Stores the current restore position and the statistics into the metadata.
+	 * The counters of the pipeline are added to the counters read at the
+	 * beginning of the current run.
+	 */
+	private void saveCheckpoint(ItemCollection metadata, long syncpoint, String checkpointID, int restoreCount,
+			long restoreSize, int restoreErrors, RestorePipeline pipeline) throws ArchiveException {
+		metadata.setItemValue(ITEM_RESTORE_SYNCPOINT, syncpoint);
+		metadata.setItemValue(ITEM_RESTORE_SYNCPOINT_ID, checkpointID);
+		metadata.setItemValue(ITEM_RESTORE_SYNCCOUNT, restoreCount + pipeline.getCount());
+		metadata.setItemValue(ITEM_RESTORE_SYNCSIZE, restoreSize + pipeline.getSize());
+		metadata.setItemValue(ITEM_RESTORE_SYNCERRORS, restoreErrors + pipeline.getErrors());
+		dataService.saveMetadata(metadata);
+	}
+
 	/**
 	 * The method finds for a given SnapshotID the corresponding latest snapshotID
 	 * within a time range. Therefor the method loads the complete list of
@@ -416,6 +570,10 @@ public class RestoreScheduler {
 	 * temporary snapshot data with out the documents and compares all filter
 	 * options. If no options are defined, or all options match the temporary
 	 * snapshot data , the method returns true.
+	 * <p>
+	 * If all filter items are stored in the table snapshot_items (see
+	 * ARCHIVE_INDEX_ITEMS) the options are verified against these items and the
+	 * snapshot data is not loaded.
 	 * 
 	 * @param snapshotID - a snapshot id
 	 * @param options    - a list of options
@@ -433,8 +591,30 @@ public class RestoreScheduler {
 			return true;
 		}
 
-		// load snapshot data without document data and verify the options
-		_tmp_snapshot_data = dataService.loadSnapshot(snapshotID, false);
+		// verify the options against the indexed items if all items are indexed.
+		// Otherwise load snapshot data without document data
+		List<String> indexItems = dataService.getIndexItems();
+		boolean indexed = !indexItems.isEmpty();
+		for (ItemCollection option : options) {
+			if (!indexItems.contains(option.getItemValueString("name").trim().toLowerCase())) {
+				indexed = false;
+				break;
+			}
+		}
+		if (indexed) {
+			_tmp_snapshot_data = dataService.loadSnapshotItems(snapshotID);
+			if (_tmp_snapshot_data != null) {
+				for (ItemCollection option : options) {
+					if (!_tmp_snapshot_data.hasItem(option.getItemValueString("name"))) {
+						_tmp_snapshot_data = null;
+						break;
+					}
+				}
+			}
+		}
+		if (_tmp_snapshot_data == null) {
+			_tmp_snapshot_data = dataService.loadSnapshot(snapshotID, false);
+		}
 		for (ItemCollection option : options) {
 			String itemName = option.getItemValueString("name");
 			Pattern regexPattern = Pattern.compile(option.getItemValueString("filter").trim());
@@ -0,0 +1,111 @@
+package org.imixs.archive.service.resync;
+
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.logging.Logger;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.imixs.archive.service.ArchiveException;
+import org.imixs.archive.service.util.RestClientHelper;
+import org.imixs.melman.DocumentClient;
+import org.imixs.melman.RestAPIException;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.Resource;
+import jakarta.annotation.security.DeclareRoles;
+import jakarta.annotation.security.RunAs;
+import jakarta.ejb.LocalBean;
+import jakarta.ejb.Singleton;
+import jakarta.ejb.Startup;
+import jakarta.ejb.Timeout;
+import jakarta.ejb.Timer;
+import jakarta.ejb.TimerConfig;
+import jakarta.inject.Inject;
+
+/**
+ * The AntiEntropyScheduler starts a TimerService to verify the snapshots of the
+ * last days between the workflow instance and the archive.
+ *
+ * @see AntiEntropyService
+ * @author rsoika
+ * @version 1.0
+ */
+@Startup
+@Singleton
+@LocalBean
+@DeclareRoles({ "org.imixs.ACCESSLEVEL.MANAGERACCESS" })
+@RunAs("org.imixs.ACCESSLEVEL.MANAGERACCESS")
+public class AntiEntropyScheduler {
+
+    public final static String ENV_ANTIENTROPY_ENABLED = "archive.antientropy.enabled";
+    public final static String ENV_ANTIENTROPY_DAYS = "archive.antientropy.days";
+    public final static String ENV_ANTIENTROPY_INTERVAL = "archive.antientropy.interval";
+    public final static String ENV_ANTIENTROPY_INITIALDELAY = "archive.antientropy.initialdelay";
+
+    @Inject
+    @ConfigProperty(name = ENV_ANTIENTROPY_ENABLED, defaultValue = "false")
+    boolean enabled;
+
+    // number of days verified
+    @Inject
+    @ConfigProperty(name = ENV_ANTIENTROPY_DAYS, defaultValue = "7")
+    int days;
+
+    // timeout interval in ms
+    @Inject
+    @ConfigProperty(name = ENV_ANTIENTROPY_INTERVAL, defaultValue = "86400000")
+    long interval;
+
+    @Inject
+    @ConfigProperty(name = ENV_ANTIENTROPY_INITIALDELAY, defaultValue = "60000")
+    long initialDelay;
+
+    @Inject
+    AntiEntropyService antiEntropyService;
+
+    @Inject
+    ResyncService resyncService;
+
+    @Inject
+    RestClientHelper restClientHelper;
+
+    @Resource
+    jakarta.ejb.TimerService timerService;
+
+    private static Logger logger = Logger.getLogger(AntiEntropyScheduler.class.getName());
+
+    @PostConstruct
+    public void init() {
+        if (enabled) {
+            logger.info("Starting Archive AntiEntropyScheduler - initalDelay=" + initialDelay + "ms  inverval="
+                    + interval + "ms ....");
+            final TimerConfig timerConfig = new TimerConfig();
+            timerConfig.setInfo("");
+            timerConfig.setPersistent(false);
+            timerService.createIntervalTimer(initialDelay, interval, timerConfig);
+        }
+    }
+
+    /**
+     * This method is called by the TimerService and verifies the snapshots of the
+     * last days. The check is skipped if a resync is running.
+     * 
+     * @param timer
+     */
+    @Timeout
+    public void run(Timer timer) {
+        if (resyncService.isRunning()) {
+            logger.info("...resync is running - skip anti-entropy check");
+            return;
+        }
+        try {
+            DocumentClient documentClient = restClientHelper.createBulkDocumentClient();
+            LocalDate to = LocalDate.now(ZoneOffset.UTC);
+            LocalDate from = to.minusDays(Math.max(1, days) - 1);
+            antiEntropyService.verify(from, to, documentClient);
+        } catch (ArchiveException | RestAPIException e) {
+            logger.warning("anti-entropy check failed: " + e.getMessage());
+        }
+    }
+
+}
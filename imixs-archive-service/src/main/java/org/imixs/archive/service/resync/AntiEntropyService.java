@@ -0,0 +1,230 @@
+/*******************************************************************************
+ *  Imixs Workflow Technology
+ *  Copyright (C) 2001, 2008 Imixs Software Solutions GmbH,  
+ *  http://www.imixs.com
+ *  
+ *  This program is free software; you can redistribute it and/or 
+ *  modify it under the terms of the GNU General Public License 
+ *  as published by the Free Software Foundation; either version 2 
+ *  of the License, or (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful, 
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ *  General Public License for more details.
+ *  
+ *  You can receive a copy of the GNU General Public
+ *  License at http://www.gnu.org/licenses/gpl.html
+ *  
+ *  Contributors:  
+ *  	Imixs Software Solutions GmbH - initial API and implementation
+ *  	Ralph Soika
+ *******************************************************************************/
+package org.imixs.archive.service.resync;
+
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import org.imixs.archive.service.ArchiveException;
+import org.imixs.archive.service.RemoteAPIService;
+import org.imixs.archive.service.SyncService;
+import org.imixs.archive.service.cassandra.DataService;
+import org.imixs.archive.service.util.MessageService;
+import org.imixs.archive.service.util.SnapshotDigest;
+import org.imixs.melman.DocumentClient;
+import org.imixs.melman.RestAPIException;
+import org.imixs.workflow.ItemCollection;
+
+import jakarta.ejb.Stateless;
+import jakarta.inject.Inject;
+
+/**
+ * The AntiEntropyService compares the snapshots of the workflow instance with
+ * the snapshots stored in the archive. The comparison is based on the digests
+ * computed by the SnapshotDigest over the snapshot IDs of each day and hour.
+ * <p>
+ * The digests are compared top-down. Only if the digest of a day differs, the
+ * digests of the hours are compared. Only if the digest of an hour differs, the
+ * snapshot IDs of this hour are loaded and missing snapshots are pulled into the
+ * archive.
+ * <p>
+ * The workflow instance removes deprecated snapshots (snapshot history) which
+ * are still kept by the archive. For this reason both sides compute the digests
+ * only over the latest snapshot of each document. The archive verifies this
+ * with the table latest_snapshot_by_uniqueid. Other snapshots stored only in
+ * the archive are ignored.
+ * <p>
+ * Both sides assign a snapshot to the day of the timestamp contained in its
+ * snapshot ID. The archive stores the snapshots by their modified date, which
+ * is not before this timestamp. For this reason the snapshots of the following
+ * day are read too.
+ * 
+ * @version 1.0
+ * @author rsoika
+ */
+@Stateless
+public class AntiEntropyService {
+
+    @Inject
+    DataService dataService;
+
+    @Inject
+    RemoteAPIService remoteAPIService;
+
+    @Inject
+    SyncService syncService;
+
+    @Inject
+    MessageService messageService;
+
+    private static Logger logger = Logger.getLogger(AntiEntropyService.class.getName());
+
+    /**
+     * Verifies all snapshots between two days and pulls missing snapshots into the
+     * archive. The days are requested in blocks of max 31 days.
+     * 
+     * @param from           - first day
+     * @param to             - last day
+     * @param documentClient
+     * @return number of snapshots pulled
+     * @throws ArchiveException
+     */
+    public int verify(LocalDate from, LocalDate to, DocumentClient documentClient) throws ArchiveException {
+        long l = System.currentTimeMillis();
+        int days = 0;
+        int hours = 0;
+        int pulled = 0;
+        LocalDate blockStart = from;
+        Map<LocalDate, List<String>> snapshotsByModified = new HashMap<LocalDate, List<String>>();
+        while (!blockStart.isAfter(to)) {
+            LocalDate blockEnd = blockStart.plusDays(30);
+            if (blockEnd.isAfter(to)) {
+                blockEnd = to;
+            }
+            List<ItemCollection> remoteDigests = remoteAPIService.readDigests(blockStart, blockEnd, documentClient);
+            for (ItemCollection remoteDigest : remoteDigests) {
+                LocalDate day = LocalDate.parse(remoteDigest.getItemValueString(SnapshotDigest.ITEM_DATE));
+                List<String> localIDs = getLatestSnapshotIDs(loadSnapshotIDs(day, snapshotsByModified));
+                ItemCollection localDigest = buildDigest(day, localIDs);
+                if (remoteDigest.getItemValueString(SnapshotDigest.ITEM_DIGEST)
+                        .equals(localDigest.getItemValueString(SnapshotDigest.ITEM_DIGEST))) {
+                    continue;
+                }
+                days++;
+                List<?> remoteHourCounts = remoteDigest.getItemValue(SnapshotDigest.ITEM_HOUR_COUNT);
+                List<?> remoteHourDigests = remoteDigest.getItemValue(SnapshotDigest.ITEM_HOUR_DIGEST);
+                List<?> localHourDigests = localDigest.getItemValue(SnapshotDigest.ITEM_HOUR_DIGEST);
+                for (int hour = 0; hour < 24 && hour < remoteHourDigests.size(); hour++) {
+                    if (((Number) remoteHourCounts.get(hour)).intValue() == 0
+                            || remoteHourDigests.get(hour).equals(localHourDigests.get(hour))) {
+                        continue;
+                    }
+                    hours++;
+                    pulled = pulled + pullMissingSnapshots(day, hour, localIDs, documentClient);
+                }
+            }
+            blockStart = blockEnd.plusDays(1);
+        }
+        messageService.logMessage(ResyncService.MESSAGE_TOPIC,
+                "...anti-entropy check " + from + " - " + to + ": " + days + " days and " + hours
+                        + " hours differ, " + pulled + " snapshots pulled in "
+                        + (System.currentTimeMillis() - l) + "ms");
+        return pulled;
+    }
+
+    /**
+     * Loads the snapshot IDs of a single hour from the workflow instance and pulls
+     * all snapshots not yet stored in the archive.
+     * 
+     * @return number of snapshots pulled
+     */
+    private int pullMissingSnapshots(LocalDate day, int hour, List<String> localIDs, DocumentClient documentClient)
+            throws ArchiveException {
+        int result = 0;
+        Set<String> localHourIDs = new HashSet<String>(SnapshotDigest.getSnapshotIDsByHour(localIDs, hour));
+        List<String> missingIDs = new ArrayList<String>();
+        for (String id : remoteAPIService.readDigestSnapshotIDs(day, hour, documentClient)) {
+            if (!localHourIDs.contains(id)) {
+                missingIDs.add(id);
+            }
+        }
+        // a snapshot can be stored under a later day (e.g. a delayed snapshot)
+        missingIDs.removeAll(dataService.existSnapshots(missingIDs));
+        for (String id : missingIDs) {
+            try {
+                if (syncService.pullSnapshot(id, documentClient) != null) {
+                    result++;
+                }
+            } catch (RestAPIException | RuntimeException e) {
+                logger.warning("Failed to pull snapshot id '" + id + "' - error: " + e.getMessage());
+            }
+        }
+        logger.info("...pulled " + result + " of " + missingIDs.size() + " missing snapshots at " + day + " hour "
+                + hour);
+        return result;
+    }
+
+    /**
+     * Returns the snapshot IDs with a timestamp at the given day. The snapshot IDs
+     * stored by their modified date are read for the day and the following day.
+     * The following day is kept for the next call, older days are removed.
+     * 
+     * @param day                 - day of the snapshot IDs
+     * @param snapshotsByModified - snapshot IDs already read by modified date
+     * @return snapshot IDs
+     */
+    private List<String> loadSnapshotIDs(LocalDate day, Map<LocalDate, List<String>> snapshotsByModified) {
+        List<String> result = new ArrayList<String>();
+        for (LocalDate modified : new LocalDate[] { day, day.plusDays(1) }) {
+            List<String> ids = snapshotsByModified.computeIfAbsent(modified, k -> dataService.loadSnapshotsByDate(k));
+            for (String id : ids) {
+                if (day.equals(SnapshotDigest.getDate(id))) {
+                    result.add(id);
+                }
+            }
+        }
+        snapshotsByModified.keySet().removeIf(modified -> !modified.isAfter(day));
+        return result;
+    }
+
+    /**
+     * Returns the snapshot IDs of a day which are the latest snapshot of their
+     * document. A snapshot without an entry in the table
+     * latest_snapshot_by_uniqueid or newer than the entry is kept.
+     * 
+     * @param snapshotIDs - snapshot IDs of a day
+     * @return latest snapshot IDs
+     */
+    private List<String> getLatestSnapshotIDs(List<String> snapshotIDs) {
+        Set<String> candidates = SnapshotDigest.getLatestSnapshotIDs(snapshotIDs);
+        Set<String> uniqueIDs = new HashSet<String>();
+        for (String id : candidates) {
+            uniqueIDs.add(SnapshotDigest.getUniqueID(id));
+        }
+        Map<String, String> latestIDs = dataService.loadLatestSnapshotIDs(uniqueIDs);
+        List<String> result = new ArrayList<String>();
+        for (String id : candidates) {
+            String latestID = latestIDs.get(SnapshotDigest.getUniqueID(id));
+            if (latestID == null || latestID.compareTo(id) <= 0) {
+                result.add(id);
+            }
+        }
+        return result;
+    }
+
+    private ItemCollection buildDigest(LocalDate day, List<String> snapshotIDs) throws ArchiveException {
+        try {
+            return SnapshotDigest.build(day.toString(), snapshotIDs);
+        } catch (NoSuchAlgorithmException e) {
+            throw new ArchiveException(ArchiveException.MD5_ERROR, "failed to compute digest: " + e.getMessage(), e);
+        }
+    }
+
+}
@@ -22,18 +22,27 @@
  *******************************************************************************/
 package org.imixs.archive.service.resync;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.logging.Logger;
 
+import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.imixs.archive.service.ArchiveException;
 import org.imixs.archive.service.RemoteAPIService;
+import org.imixs.archive.service.SyncService;
 import org.imixs.archive.service.cassandra.ClusterService;
 import org.imixs.archive.service.cassandra.DataService;
 import org.imixs.archive.service.util.MessageService;
 import org.imixs.archive.service.util.RestClientHelper;
 import org.imixs.melman.DocumentClient;
+import org.imixs.melman.RestAPIException;
 import org.imixs.workflow.ItemCollection;
 import org.imixs.workflow.exceptions.QueryException;
 import org.imixs.workflow.xml.XMLDataCollection;
@@ -57,6 +66,17 @@ import jakarta.inject.Inject;
  * synchronized (syncpoint == last snapshot), the service terminates.
  * <p>
  * To access the data form the Imixs-Workflow instance uses RemoteAPIService.
+ * <p>
+ * If the property 'archive.resync.slices' is greater than 1, the time range
+ * between the syncpoint and now is split into time slices which are
+ * synchronized concurrently by the ResyncSliceWorker. The cursor of each slice
+ * is stored in the metadata so that an interrupted resync can be resumed. The
+ * syncpoint is only moved forward if all previous slices are complete.
+ * <p>
+ * If the property 'archive.resync.manifest' is true, the service reads only a
+ * manifest with the snapshot IDs from the workflow instance. The IDs are
+ * verified in batches against the archive and only missing snapshots are
+ * loaded.
  * 
  * @version 1.0
  * @author rsoika
@@ -68,13 +88,54 @@ public class ResyncService {
     public final static String TIMER_ID_SYNCSERVICE = "IMIXS_ARCHIVE_RESYNC_TIMER";
 
     public final static String ITEM_SYNCPOINT = "sync.point";
+    public final static String ITEM_SYNCPOINT_ID = "sync.point.id";
     public final static String ITEM_SYNCCOUNT = "sync.count";
     public final static String ITEM_SYNCSIZE = "sync.size";
+    public final static String ITEM_SLICE_START = "sync.slice.start";
+    public final static String ITEM_SLICE_END = "sync.slice.end";
+    public final static String ITEM_SLICE_POINT = "sync.slice.point";
+    public final static String ITEM_SLICE_ID = "sync.slice.id";
+    public final static String ITEM_SLICE_FINISHED = "sync.slice.finished";
     public final static String DEFAULT_SCHEDULER_DEFINITION = "hour=*";
 
     public final static String MESSAGE_TOPIC = "sync";
     private final static int MAX_COUNT = 500;
 
+    public final static String ENV_RESYNC_PAGESIZE = "archive.resync.pagesize";
+
+    // max number of snapshots read in one request
+    @Inject
+    @ConfigProperty(name = ENV_RESYNC_PAGESIZE, defaultValue = "50")
+    int pageSize;
+
+    public final static String ENV_RESYNC_CHECKPOINT_COUNT = "archive.resync.checkpoint.count";
+    public final static String ENV_RESYNC_CHECKPOINT_INTERVAL = "archive.resync.checkpoint.interval";
+
+    // max number of snapshots processed before the metadata is saved
+    @Inject
+    @ConfigProperty(name = ENV_RESYNC_CHECKPOINT_COUNT, defaultValue = "100")
+    int checkpointCount;
+
+    // max time in ms before the metadata is saved
+    @Inject
+    @ConfigProperty(name = ENV_RESYNC_CHECKPOINT_INTERVAL, defaultValue = "10000")
+    long checkpointInterval;
+
+    public final static String ENV_RESYNC_MANIFEST = "archive.resync.manifest";
+    public final static int MANIFEST_PAGE_SIZE = 1000;
+
+    // read a manifest of snapshot ids first
+    @Inject
+    @ConfigProperty(name = ENV_RESYNC_MANIFEST, defaultValue = "false")
+    boolean manifest;
+
+    public final static String ENV_RESYNC_SLICES = "archive.resync.slices";
+
+    // number of time slices synchronized concurrently
+    @Inject
+    @ConfigProperty(name = ENV_RESYNC_SLICES, defaultValue = "1")
+    int slices;
+
     @Resource
     jakarta.ejb.TimerService timerService;
 
@@ -96,6 +157,12 @@ public class ResyncService {
     @Inject
     RestClientHelper restClientHelper;
 
+    @Inject
+    ResyncSliceWorker resyncSliceWorker;
+
+    @Inject
+    SyncService syncService;
+
     private static Logger logger = Logger.getLogger(ResyncService.class.getName());
 
     /**
@@ -199,7 +266,9 @@ public class ResyncService {
      * This is the method which processes the timeout event depending on the running
      * timer settings.
      * <p>
-     * The method reads MAX_COUNT snapshot workitems from a imixs workflow instance.
+     * The method reads the snapshot workitems from a imixs workflow instance in
+     * pages. The page cursor is defined by the modified timestamp and the id of the
+     * last snapshot read.
      * 
      * 
      * @param timer
@@ -208,6 +277,12 @@ public class ResyncService {
      */
     @Timeout
     void onTimeout(jakarta.ejb.Timer timer) throws Exception {
+        syncStatusHandler.setStatus(ResyncStatusHandler.STAUS_RUNNING);
+        if (slices > 1) {
+            resyncPartitioned(timer);
+            return;
+        }
+
         long syncPoint = 0;
         int syncUpdates = 0;
         int syncBlockRead = 0;
@@ -216,18 +291,26 @@ public class ResyncService {
         long totalSize = 0;
         ItemCollection metaData = null;
         String lastUniqueID = null;
+        // id of the last snapshot read at the current syncpoint
+        String lastSyncID = "";
+        // number of snapshots processed since the last checkpoint
+        int uncommitted = 0;
+        // true if the failure occurred while saving the metadata
+        boolean metadataFailed = false;
+        long lastCheckpoint = System.currentTimeMillis();
 
         // start time....
         long lProfiler = System.currentTimeMillis();
 
         try {
             // init rest clients....
-            DocumentClient documentClient = restClientHelper.createDocumentClient();
+            DocumentClient documentClient = restClientHelper.createBulkDocumentClient();
             // load metadata and get last syncpoint
             metaData = dataService.loadMetadata();
             syncPoint = metaData.getItemValueLong(ITEM_SYNCPOINT);
             totalCount = metaData.getItemValueLong(ITEM_SYNCCOUNT);
             totalSize = metaData.getItemValueLong(ITEM_SYNCSIZE);
+            lastSyncID = metaData.getItemValueString(ITEM_SYNCPOINT_ID);
 
             // ...start sync
             logger.info("...start synchronizing at syncPoint " + new Date(syncPoint) + "...");
@@ -239,16 +322,32 @@ public class ResyncService {
                 logger.warning("...current syncpoint (" + syncPoint + ") is in the future! Adjust Syncpoint to now ("
                         + now.getTime() + ")....");
                 syncPoint = now.getTime();
+                lastSyncID = "";
             }
 
             while (true) {
                 long lReadTime = System.currentTimeMillis();
-                long lTotalTime = System.currentTimeMillis();
-                XMLDataCollection xmlDataCollection = remoteAPIService.readSyncData(syncPoint, documentClient);
+                XMLDataCollection xmlDataCollection = null;
+                if (manifest) {
+                    xmlDataCollection = remoteAPIService.readSyncManifest(syncPoint, lastSyncID, MANIFEST_PAGE_SIZE,
+                            documentClient);
+                } else {
+                    xmlDataCollection = remoteAPIService.readSyncPage(syncPoint, lastSyncID, pageSize, true,
+                            documentClient);
+                }
                 if (xmlDataCollection != null) {
                     logger.info("...found " + xmlDataCollection.getDocument().length + " snapshots at syncpoint "
                             + new Date(syncPoint) + " in " + (System.currentTimeMillis() - lReadTime) + "ms");
+                    long pageSyncPoint = syncPoint;
+                    String pageSyncID = lastSyncID;
                     List<XMLDocument> snapshotList = Arrays.asList(xmlDataCollection.getDocument());
+                    // verify the manifest against the archive
+                    Set<String> existingIDs = null;
+                    if (manifest) {
+                        existingIDs = dataService.existSnapshots(getSnapshotIDs(snapshotList));
+                        logger.info("..." + (snapshotList.size() - existingIDs.size()) + " of "
+                                + snapshotList.size() + " snapshots missing");
+                    }
                     for (XMLDocument xmlDocument : snapshotList) {
                         long lSyncTime = System.currentTimeMillis();
                         ItemCollection snapshot = XMLDocumentAdapter.putDocument(xmlDocument);
@@ -256,18 +355,33 @@ public class ResyncService {
                         // update snypoint
                         Date syncpointdate = snapshot.getItemValueDate("$modified");
                         syncPoint = syncpointdate.getTime();
+                        lastSyncID = snapshot.getUniqueID();
                         logger.fine("......data found - new syncpoint=" + syncPoint);
                         // verify if this snapshot is already stored - if so, we do not overwrite
                         // the origin data
-                        if (!dataService.existSnapshot(snapshot.getUniqueID())) {
+                        boolean exists = manifest ? existingIDs.contains(snapshot.getUniqueID())
+                                : dataService.existSnapshot(snapshot.getUniqueID());
+                        if (!exists) {
                             // store data into archive
                             try {
                                 lastUniqueID = snapshot.getUniqueID();
-                                dataService.saveSnapshot(snapshot);
-                                syncUpdates++;
-                                totalCount++;
-                                totalSize = totalSize + dataService.calculateSize(xmlDocument);
-                            } catch (RuntimeException e) {
+                                XMLDocument snapshotDocument = xmlDocument;
+                                if (manifest) {
+                                    // load the missing snapshot
+                                    ItemCollection fullSnapshot = syncService.pullSnapshot(snapshot.getUniqueID(),
+                                            documentClient);
+                                    snapshotDocument = (fullSnapshot != null)
+                                            ? XMLDocumentAdapter.getDocument(fullSnapshot)
+                                            : null;
+                                } else {
+                                    dataService.saveSnapshot(snapshot);
+                                }
+                                if (snapshotDocument != null) {
+                                    syncUpdates++;
+                                    totalCount++;
+                                    totalSize = totalSize + dataService.calculateSize(snapshotDocument);
+                                }
+                            } catch (RestAPIException | RuntimeException e) {
                                 logger.warning("Failed to resync snapshot id '" + snapshot.getUniqueID() + "' - error: "
                                         + e.getMessage());
                                 // we continue....
@@ -288,13 +402,19 @@ public class ResyncService {
 
                         // update metadata
                         metaData.setItemValue(ITEM_SYNCPOINT, syncPoint);
+                        metaData.setItemValue(ITEM_SYNCPOINT_ID, lastSyncID);
                         metaData.setItemValue(ITEM_SYNCCOUNT, totalCount);
                         metaData.setItemValue(ITEM_SYNCSIZE, totalSize);
-                        lastUniqueID = "0";
-                        dataService.saveMetadata(metaData);
-                        logger.info(
-                                "...snapshot '" + snapshot.getUniqueID() + "' synchronized in "
-                                        + (System.currentTimeMillis() - lTotalTime) + "ms");
+                        uncommitted++;
+                        // write checkpoint
+                        if (uncommitted >= checkpointCount
+                                || (System.currentTimeMillis() - lastCheckpoint) >= checkpointInterval) {
+                            metadataFailed = true;
+                            dataService.saveMetadata(metaData);
+                            metadataFailed = false;
+                            uncommitted = 0;
+                            lastCheckpoint = System.currentTimeMillis();
+                        }
 
                         if (syncStatusHandler.getStatus() == ResyncStatusHandler.STAUS_CANCELED) {
                             break;
@@ -316,6 +436,12 @@ public class ResyncService {
                         break;
                     }
 
+                    // verify that the cursor was moved forward
+                    if (pageSyncPoint == syncPoint && lastSyncID.equals(pageSyncID)) {
+                        logger.warning("...syncpoint " + new Date(syncPoint) + " was not moved forward!");
+                        break;
+                    }
+
                 } else {
                     // no more syncpoints
                     logger.finest("......no more data found for syncpoint: " + syncPoint);
@@ -323,6 +449,13 @@ public class ResyncService {
                 }
             }
 
+            // write final checkpoint
+            if (uncommitted > 0) {
+                metadataFailed = true;
+                dataService.saveMetadata(metaData);
+                metadataFailed = false;
+            }
+
             messageService.logMessage(MESSAGE_TOPIC,
                     "...no more data found at syncpoint " + new Date(syncPoint) + " -> finishing synchroization.");
             stop(timer);
@@ -330,14 +463,249 @@ public class ResyncService {
         } catch (ArchiveException | RuntimeException e) {
             // print the stack trace
             e.printStackTrace();
+            // try to write the last checkpoint reached
+            if (uncommitted > 0) {
+                try {
+                    dataService.saveMetadata(metaData);
+                } catch (ArchiveException | RuntimeException e1) {
+                    logger.warning("...failed to write checkpoint: " + e1.getMessage());
+                }
+            }
             messageService.logMessage(MESSAGE_TOPIC, "sync failed "
-                    + ("0".equals(lastUniqueID) ? " (failed to save metadata)" : "(last uniqueid=" + lastUniqueID + ")")
+                    + (metadataFailed ? " (failed to save metadata)" : "(last uniqueid=" + lastUniqueID + ")")
                     + " : " + e.getMessage());
 
             stop(timer);
         }
     }
 
+    /**
+     * Returns the snapshot ids of a page of snapshots or manifest entries.
+     * 
+     * @param snapshotList
+     * @return list of snapshot ids
+     */
+    static List<String> getSnapshotIDs(List<XMLDocument> snapshotList) {
+        List<String> result = new ArrayList<String>();
+        for (XMLDocument xmlDocument : snapshotList) {
+            result.add(XMLDocumentAdapter.putDocument(xmlDocument).getUniqueID());
+        }
+        return result;
+    }
+
+    /**
+     * This method processes a partitioned resync. The time range between the
+     * syncpoint and now is split into time slices. Each slice is synchronized by
+     * the ResyncSliceWorker in a separate thread. An interrupted resync continues
+     * with the slices stored in the metadata.
+     * <p>
+     * The method writes a checkpoint with the cursor of each slice in the
+     * configured checkpoint interval. The syncpoint is set to the cursor of the
+     * first slice not yet finished.
+     * 
+     * @param timer
+     */
+    private void resyncPartitioned(Timer timer) throws ArchiveException {
+        long lProfiler = System.currentTimeMillis();
+        List<ResyncSlice> sliceList = null;
+        try {
+            ItemCollection metaData = dataService.loadMetadata();
+            long totalCount = metaData.getItemValueLong(ITEM_SYNCCOUNT);
+            long totalSize = metaData.getItemValueLong(ITEM_SYNCSIZE);
+            sliceList = loadSlices(metaData);
+            if (sliceList.isEmpty()) {
+                sliceList = createSlices(metaData);
+            }
+            if (sliceList.isEmpty()) {
+                messageService.logMessage(MESSAGE_TOPIC, "...no more data found at syncpoint "
+                        + new Date(metaData.getItemValueLong(ITEM_SYNCPOINT)) + " -> finishing synchroization.");
+                stop(timer);
+                return;
+            }
+            syncStatusHandler.setSlices(sliceList);
+            messageService.logMessage(MESSAGE_TOPIC, "...start synchronizing " + sliceList.size()
+                    + " slices at syncPoint " + sliceList.get(0).getStart() + "...");
+
+            List<Future<ResyncSlice>> futures = new ArrayList<Future<ResyncSlice>>();
+            for (ResyncSlice slice : sliceList) {
+                if (!slice.isFinished()) {
+                    futures.add(resyncSliceWorker.resync(slice, pageSize, manifest));
+                }
+            }
+
+            // write checkpoints until all slices are completed
+            boolean completed = false;
+            while (!completed) {
+                completed = true;
+                for (Future<ResyncSlice> future : futures) {
+                    try {
+                        future.get(checkpointInterval, TimeUnit.MILLISECONDS);
+                    } catch (TimeoutException e) {
+                        completed = false;
+                        break;
+                    } catch (ExecutionException e) {
+                        logger.warning("...slice failed: " + e.getMessage());
+                    }
+                }
+                saveSlices(metaData, sliceList, totalCount, totalSize);
+            }
+
+            long syncRead = 0;
+            long syncUpdates = 0;
+            boolean finished = true;
+            for (ResyncSlice slice : sliceList) {
+                syncRead = syncRead + slice.getRead();
+                syncUpdates = syncUpdates + slice.getUpdates();
+                finished = finished && slice.isFinished();
+            }
+            if (finished) {
+                // all slices completed - remove the slice cursors
+                metaData.removeItem(ITEM_SLICE_START);
+                metaData.removeItem(ITEM_SLICE_END);
+                metaData.removeItem(ITEM_SLICE_POINT);
+                metaData.removeItem(ITEM_SLICE_ID);
+                metaData.removeItem(ITEM_SLICE_FINISHED);
+                dataService.saveMetadata(metaData);
+                messageService.logMessage(MESSAGE_TOPIC,
+                        "... " + syncRead + " snapshots verified (" + syncUpdates + " updates) in: "
+                                + formatDuration((System.currentTimeMillis()) - lProfiler)
+                                + " -> finishing synchroization.");
+            } else {
+                messageService.logMessage(MESSAGE_TOPIC,
+                        "... " + syncRead + " snapshots verified (" + syncUpdates + " updates) in: "
+                                + formatDuration((System.currentTimeMillis()) - lProfiler)
+                                + " -> sync interrupted at syncpoint "
+                                + new Date(metaData.getItemValueLong(ITEM_SYNCPOINT)));
+            }
+        } catch (InterruptedException e) {
+            syncStatusHandler.setStatus(ResyncStatusHandler.STAUS_CANCELED);
+            Thread.currentThread().interrupt();
+            messageService.logMessage(MESSAGE_TOPIC, "sync interrupted : " + e.getMessage());
+        } catch (ArchiveException | RuntimeException e) {
+            e.printStackTrace();
+            // stop all running slices
+            syncStatusHandler.setStatus(ResyncStatusHandler.STAUS_CANCELED);
+            messageService.logMessage(MESSAGE_TOPIC, "sync failed : " + e.getMessage());
+        }
+        stop(timer);
+    }
+
+    /**
+     * Creates new time slices between the first snapshot after the current
+     * syncpoint and now. The last slice has no end so that it also covers
+     * snapshots created during the resync.
+     * 
+     * @param metaData
+     * @return list of slices or an empty list if no data exists
+     */
+    private List<ResyncSlice> createSlices(ItemCollection metaData) throws ArchiveException {
+        List<ResyncSlice> result = new ArrayList<ResyncSlice>();
+        long syncPoint = metaData.getItemValueLong(ITEM_SYNCPOINT);
+        String syncID = metaData.getItemValueString(ITEM_SYNCPOINT_ID);
+        long now = System.currentTimeMillis();
+        // Daylight Saving Time Correction - issue #53
+        if (syncPoint > now) {
+            logger.warning("...current syncpoint (" + syncPoint + ") is in the future! Adjust Syncpoint to now ("
+                    + now + ")....");
+            syncPoint = now;
+            syncID = "";
+        }
+        // read the first snapshot
+        DocumentClient documentClient;
+        try {
+            documentClient = restClientHelper.createBulkDocumentClient();
+        } catch (RestAPIException e) {
+            throw new ArchiveException(ResyncService.class.getName(), ArchiveException.SYNC_ERROR,
+                    "failed to create document client: " + e.getMessage(), e);
+        }
+        XMLDataCollection xmlDataCollection = remoteAPIService.readSyncPage(syncPoint, syncID, 1, false,
+                documentClient);
+        if (xmlDataCollection == null) {
+            return result;
+        }
+        ItemCollection snapshot = XMLDocumentAdapter.putDocument(xmlDataCollection.getDocument()[0]);
+        long start = snapshot.getItemValueDate("$modified").getTime();
+        long width = Math.max(1, (now - start) / slices);
+        for (int i = 0; i < slices; i++) {
+            long sliceStart = start + (i * width);
+            long sliceEnd = (i == slices - 1) ? Long.MAX_VALUE : sliceStart + width;
+            if (i == 0) {
+                // the first slice continues at the current cursor
+                result.add(new ResyncSlice(i, sliceStart, sliceEnd, syncPoint, syncID, false));
+            } else {
+                result.add(new ResyncSlice(i, sliceStart, sliceEnd, sliceStart, "", false));
+            }
+        }
+        logger.info("...created " + slices + " slices starting at " + new Date(start));
+        return result;
+    }
+
+    /**
+     * Loads the slices of an interrupted resync from the metadata.
+     * 
+     * @param metaData
+     * @return list of slices or an empty list if no slices are stored
+     */
+    @SuppressWarnings("unchecked")
+    private List<ResyncSlice> loadSlices(ItemCollection metaData) {
+        List<ResyncSlice> result = new ArrayList<ResyncSlice>();
+        List<Object> starts = metaData.getItemValue(ITEM_SLICE_START);
+        List<Object> ends = metaData.getItemValue(ITEM_SLICE_END);
+        List<Object> points = metaData.getItemValue(ITEM_SLICE_POINT);
+        List<Object> ids = metaData.getItemValue(ITEM_SLICE_ID);
+        List<Object> finished = metaData.getItemValue(ITEM_SLICE_FINISHED);
+        if (starts.isEmpty() || starts.size() != ends.size() || starts.size() != points.size()
+                || starts.size() != ids.size() || starts.size() != finished.size()) {
+            return result;
+        }
+        for (int i = 0; i < starts.size(); i++) {
+            result.add(new ResyncSlice(i, ((Number) starts.get(i)).longValue(), ((Number) ends.get(i)).longValue(),
+                    ((Number) points.get(i)).longValue(), (String) ids.get(i), (Boolean) finished.get(i)));
+        }
+        logger.info("...resume " + result.size() + " slices");
+        return result;
+    }
+
+    /**
+     * Writes a checkpoint with the cursors of all slices. The syncpoint is set to
+     * the cursor of the first slice not yet finished.
+     */
+    private void saveSlices(ItemCollection metaData, List<ResyncSlice> sliceList, long totalCount, long totalSize)
+            throws ArchiveException {
+        List<Long> starts = new ArrayList<Long>();
+        List<Long> ends = new ArrayList<Long>();
+        List<Long> points = new ArrayList<Long>();
+        List<String> ids = new ArrayList<String>();
+        List<Boolean> finished = new ArrayList<Boolean>();
+        ResyncSlice current = null;
+        for (ResyncSlice slice : sliceList) {
+            starts.add(slice.getStartTime());
+            ends.add(slice.getEndTime());
+            points.add(slice.getSyncPoint());
+            ids.add(slice.getSyncID());
+            finished.add(slice.isFinished());
+            totalCount = totalCount + slice.getUpdates();
+            totalSize = totalSize + slice.getSize();
+            if (current == null && !slice.isFinished()) {
+                current = slice;
+            }
+        }
+        if (current == null) {
+            // all slices finished
+            current = sliceList.get(sliceList.size() - 1);
+        }
+        metaData.setItemValue(ITEM_SLICE_START, starts);
+        metaData.setItemValue(ITEM_SLICE_END, ends);
+        metaData.setItemValue(ITEM_SLICE_POINT, points);
+        metaData.setItemValue(ITEM_SLICE_ID, ids);
+        metaData.setItemValue(ITEM_SLICE_FINISHED, finished);
+        metaData.setItemValue(ITEM_SYNCPOINT, current.getSyncPoint());
+        metaData.setItemValue(ITEM_SYNCPOINT_ID, current.getSyncID());
+        metaData.setItemValue(ITEM_SYNCCOUNT, totalCount);
+        metaData.setItemValue(ITEM_SYNCSIZE, totalSize);
+        dataService.saveMetadata(metaData);
+    }
+
     private static String formatDuration(long durationInMillis) {
         long durationInSeconds = durationInMillis / 1000;
         long durationInMinutes = durationInSeconds / 60;
@@ -0,0 +1,172 @@
+/*******************************************************************************
+ *  Imixs Workflow Technology
+ *  Copyright (C) 2001, 2008 Imixs Software Solutions GmbH,  
+ *  http://www.imixs.com
+ *  
+ *  This program is free software; you can redistribute it and/or 
+ *  modify it under the terms of the GNU General Public License 
+ *  as published by the Free Software Foundation; either version 2 
+ *  of the License, or (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful, 
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ *  General Public License for more details.
+ *  
+ *  You can receive a copy of the GNU General Public
+ *  License at http://www.gnu.org/licenses/gpl.html
+ *  
+ *  Contributors:  
+ *  	Imixs Software Solutions GmbH - initial API and implementation
+ *  	Ralph Soika
+ *******************************************************************************/
+package org.imixs.archive.service.resync;
+
+import java.util.Date;
+
+/**
+ * A ResyncSlice holds the state of a time slice processed by a partitioned
+ * resync. A slice covers all snapshots with a modified timestamp between the
+ * start (inclusive) and the end (exclusive) of the slice. The cursor of a slice
+ * is defined by the modified timestamp and the id of the last snapshot read.
+ * <p>
+ * The slice is updated by the ResyncSliceWorker and read by the ResyncService
+ * to write checkpoints. For that reason all methods are synchronized.
+ * 
+ * @version 1.0
+ * @author rsoika
+ */
+public class ResyncSlice {
+
+    private int index;
+    private long start;
+    private long end;
+    private long syncPoint;
+    private String syncID;
+    private boolean finished;
+    private boolean failed;
+    private long read = 0;
+    private long updates = 0;
+    private long size = 0;
+
+    public ResyncSlice(int index, long start, long end, long syncPoint, String syncID, boolean finished) {
+        super();
+        this.index = index;
+        this.start = start;
+        this.end = end;
+        this.syncPoint = syncPoint;
+        this.syncID = syncID;
+        this.finished = finished;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public Date getStart() {
+        return new Date(start);
+    }
+
+    public long getStartTime() {
+        return start;
+    }
+
+    /**
+     * Returns the end of the slice. The last slice has no end.
+     * 
+     * @return end time in milliseconds or Long.MAX_VALUE
+     */
+    public long getEndTime() {
+        return end;
+    }
+
+    public Date getEnd() {
+        if (end == Long.MAX_VALUE) {
+            return null;
+        }
+        return new Date(end);
+    }
+
+    public synchronized long getSyncPoint() {
+        return syncPoint;
+    }
+
+    public synchronized Date getSyncDate() {
+        return new Date(syncPoint);
+    }
+
+    public synchronized String getSyncID() {
+        return syncID;
+    }
+
+    public synchronized boolean isFinished() {
+        return finished;
+    }
+
+    public synchronized boolean isFailed() {
+        return failed;
+    }
+
+    public synchronized long getRead() {
+        return read;
+    }
+
+    public synchronized long getUpdates() {
+        return updates;
+    }
+
+    public synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * Returns the progress of the slice in percent based on the time range
+     * covered.
+     * 
+     * @return progress between 0 and 100
+     */
+    public synchronized int getProgress() {
+        if (finished) {
+            return 100;
+        }
+        if (end == Long.MAX_VALUE || end <= start || syncPoint <= start) {
+            return 0;
+        }
+        return (int) Math.min(99, (syncPoint - start) * 100 / (end - start));
+    }
+
+    /**
+     * Moves the cursor of the slice forward.
+     * 
+     * @param syncPoint - modified timestamp of the last snapshot read
+     * @param syncID    - id of the last snapshot read
+     * @param updated   - true if the snapshot was written into the archive
+     * @param size      - size of the snapshot written
+     */
+    public synchronized void update(long syncPoint, String syncID, boolean updated, long size) {
+        this.syncPoint = syncPoint;
+        this.syncID = syncID;
+        this.read++;
+        if (updated) {
+            this.updates++;
+            this.size = this.size + size;
+        }
+    }
+
+    /**
+     * Marks the slice as finished. If the slice has an end, the cursor is moved to
+     * the end of the slice.
+     */
+    public synchronized void finish() {
+        if (end != Long.MAX_VALUE) {
+            this.syncPoint = end;
+            this.syncID = "";
+        }
+        this.finished = true;
+    }
+
+    public synchronized void fail() {
+        this.failed = true;
+    }
+
+}
@@ -0,0 +1,170 @@
+/*******************************************************************************
+ *  Imixs Workflow Technology
+ *  Copyright (C) 2001, 2008 Imixs Software Solutions GmbH,  
+ *  http://www.imixs.com
+ *  
+ *  This program is free software; you can redistribute it and/or 
+ *  modify it under the terms of the GNU General Public License 
+ *  as published by the Free Software Foundation; either version 2 
+ *  of the License, or (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful, 
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ *  General Public License for more details.
+ *  
+ *  You can receive a copy of the GNU General Public
+ *  License at http://www.gnu.org/licenses/gpl.html
+ *  
+ *  Contributors:  
+ *  	Imixs Software Solutions GmbH - initial API and implementation
+ *  	Ralph Soika
+ *******************************************************************************/
+package org.imixs.archive.service.resync;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+import org.imixs.archive.service.ArchiveException;
+import org.imixs.archive.service.RemoteAPIService;
+import org.imixs.archive.service.SyncService;
+import org.imixs.archive.service.cassandra.DataService;
+import org.imixs.archive.service.util.RestClientHelper;
+import org.imixs.melman.DocumentClient;
+import org.imixs.melman.RestAPIException;
+import org.imixs.workflow.ItemCollection;
+import org.imixs.workflow.xml.XMLDataCollection;
+import org.imixs.workflow.xml.XMLDocument;
+import org.imixs.workflow.xml.XMLDocumentAdapter;
+
+import jakarta.ejb.Asynchronous;
+import jakarta.ejb.Stateless;
+import jakarta.inject.Inject;
+
+/**
+ * The ResyncSliceWorker synchronizes a single time slice of a partitioned
+ * resync. The method resync() is called asynchronously by the ResyncService for
+ * each slice so that all slices run concurrently.
+ * <p>
+ * The worker only updates the cursor of the slice. The metadata is written by
+ * the ResyncService.
+ * 
+ * @version 1.0
+ * @author rsoika
+ */
+@Stateless
+public class ResyncSliceWorker {
+
+    @Inject
+    DataService dataService;
+
+    @Inject
+    RemoteAPIService remoteAPIService;
+
+    @Inject
+    ResyncStatusHandler syncStatusHandler;
+
+    @Inject
+    RestClientHelper restClientHelper;
+
+    @Inject
+    SyncService syncService;
+
+    private static Logger logger = Logger.getLogger(ResyncSliceWorker.class.getName());
+
+    /**
+     * Reads the snapshots of a slice in pages starting at the cursor of the slice
+     * until the end of the slice is reached.
+     * 
+     * @param slice    - the time slice to be synchronized
+     * @param pageSize - max number of snapshots read in one request
+     * @param manifest - read a manifest of snapshot ids first
+     * @return the slice
+     */
+    @Asynchronous
+    public Future<ResyncSlice> resync(ResyncSlice slice, int pageSize, boolean manifest) {
+        logger.info("...start synchronizing slice " + slice.getIndex() + " at syncPoint " + slice.getStart() + "...");
+        try {
+            DocumentClient documentClient = restClientHelper.createBulkDocumentClient();
+            while (syncStatusHandler.getStatus() != ResyncStatusHandler.STAUS_CANCELED) {
+                long pageSyncPoint = slice.getSyncPoint();
+                String pageSyncID = slice.getSyncID();
+                XMLDataCollection xmlDataCollection = null;
+                if (manifest) {
+                    xmlDataCollection = remoteAPIService.readSyncManifest(pageSyncPoint, pageSyncID,
+                            ResyncService.MANIFEST_PAGE_SIZE, documentClient);
+                } else {
+                    xmlDataCollection = remoteAPIService.readSyncPage(pageSyncPoint, pageSyncID, pageSize, true,
+                            documentClient);
+                }
+                if (xmlDataCollection == null) {
+                    // no more snapshots
+                    slice.finish();
+                    break;
+                }
+                List<XMLDocument> snapshotList = Arrays.asList(xmlDataCollection.getDocument());
+                Set<String> existingIDs = null;
+                if (manifest) {
+                    existingIDs = dataService.existSnapshots(ResyncService.getSnapshotIDs(snapshotList));
+                }
+                for (XMLDocument xmlDocument : snapshotList) {
+                    ItemCollection snapshot = XMLDocumentAdapter.putDocument(xmlDocument);
+                    long syncPoint = snapshot.getItemValueDate("$modified").getTime();
+                    if (syncPoint >= slice.getEndTime()) {
+                        // end of slice reached
+                        slice.finish();
+                        break;
+                    }
+                    boolean updated = false;
+                    long size = 0;
+                    // verify if this snapshot is already stored - see issue #40
+                    boolean exists = manifest ? existingIDs.contains(snapshot.getUniqueID())
+                            : dataService.existSnapshot(snapshot.getUniqueID());
+                    if (!exists) {
+                        try {
+                            if (manifest) {
+                                // load the missing snapshot
+                                ItemCollection fullSnapshot = syncService.pullSnapshot(snapshot.getUniqueID(),
+                                        documentClient);
+                                if (fullSnapshot != null) {
+                                    updated = true;
+                                    size = dataService.calculateSize(XMLDocumentAdapter.getDocument(fullSnapshot));
+                                }
+                            } else {
+                                dataService.saveSnapshot(snapshot);
+                                updated = true;
+                                size = dataService.calculateSize(xmlDocument);
+                            }
+                        } catch (RestAPIException | RuntimeException e) {
+                            logger.warning("Failed to resync snapshot id '" + snapshot.getUniqueID() + "' - error: "
+                                    + e.getMessage());
+                            // we continue....
+                        }
+                    }
+                    slice.update(syncPoint, snapshot.getUniqueID(), updated, size);
+                    if (syncStatusHandler.getStatus() == ResyncStatusHandler.STAUS_CANCELED) {
+                        break;
+                    }
+                }
+                if (slice.isFinished()) {
+                    break;
+                }
+                // verify that the cursor was moved forward
+                if (pageSyncPoint == slice.getSyncPoint() && pageSyncID.equals(slice.getSyncID())) {
+                    logger.warning("...syncpoint of slice " + slice.getIndex() + " was not moved forward!");
+                    slice.fail();
+                    break;
+                }
+            }
+        } catch (ArchiveException | RestAPIException | RuntimeException e) {
+            logger.severe("...failed to synchronize slice " + slice.getIndex() + " : " + e.getMessage());
+            slice.fail();
+        }
+        return CompletableFuture.completedFuture(slice);
+    }
+
+}
@@ -22,10 +22,16 @@
  *******************************************************************************/
 package org.imixs.archive.service.resync;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import jakarta.ejb.Singleton;
 
 /**
- * The ImportStatusHandler provides a status flag for the ImportService
+ * The ImportStatusHandler provides a status flag for the ImportService.
+ * <p>
+ * In case of a partitioned resync the handler also holds the slices currently
+ * processed.
  * 
  * @version 1.0
  * @author rsoika
@@ -38,6 +44,7 @@ public class ResyncStatusHandler {
     public static final byte STAUS_CANCELED = 2;
 
     private byte status = 0;
+    private List<ResyncSlice> slices = new ArrayList<ResyncSlice>();
 
     public byte getStatus() {
         return status;
@@ -47,4 +54,12 @@ public class ResyncStatusHandler {
         this.status = status;
     }
 
+    public List<ResyncSlice> getSlices() {
+        return slices;
+    }
+
+    public void setSlices(List<ResyncSlice> slices) {
+        this.slices = slices;
+    }
+
 }
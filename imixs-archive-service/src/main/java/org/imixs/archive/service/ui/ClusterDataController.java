@@ -1,6 +1,8 @@
 package org.imixs.archive.service.ui;
 
 import java.io.Serializable;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
@@ -13,6 +15,7 @@ import org.imixs.archive.service.ArchiveException;
 import org.imixs.archive.service.SyncService;
 import org.imixs.archive.service.cassandra.ClusterService;
 import org.imixs.archive.service.cassandra.DataService;
+import org.imixs.archive.service.cassandra.SnapshotStatsBackfill;
 import org.imixs.archive.service.resync.ResyncService;
 import org.imixs.archive.service.util.MessageService;
 import org.imixs.workflow.ItemCollection;
@@ -36,8 +39,11 @@ public class ClusterDataController implements Serializable {
 
     private static Logger logger = Logger.getLogger(ClusterDataController.class.getName());
 
+    public static final int STATS_DAYS = 31;
+
     String syncSizeUnit = null;
     ItemCollection metaData = null;
+    List<ItemCollection> snapshotStats = null;
 
     @Inject
     ClusterService clusterService;
@@ -130,6 +136,82 @@ public class ClusterDataController implements Serializable {
         return syncSizeUnit;
     }
 
+    /**
+     * Returns true if the snapshot stats of the table snapshot_stats_by_day are
+     * completed by the backfill.
+     * 
+     * @return true if the stats are available
+     */
+    public boolean isStatsAvailable() {
+        return metaData != null && metaData.getItemValueBoolean(SnapshotStatsBackfill.ITEM_BACKFILL_COMPLETED);
+    }
+
+    /**
+     * Returns the total number of snapshots stored in the archive.
+     * 
+     * @return snapshot count
+     */
+    public long getSnapshotCount() {
+        long result = 0;
+        for (ItemCollection stats : loadSnapshotStats()) {
+            result = result + stats.getItemValueLong(DataService.COLUMN_COUNT);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the total size of the snapshot data and the attached documents
+     * stored in the archive.
+     * 
+     * @return user friendly size
+     */
+    public String getSnapshotSize() {
+        long result = 0;
+        for (ItemCollection stats : loadSnapshotStats()) {
+            result = result + stats.getItemValueLong(DataService.COLUMN_SIZE);
+        }
+        return messageService.userFriendlyBytes(result);
+    }
+
+    /**
+     * Returns the snapshot stats of the last days in descending order. Each entry
+     * provides the items 'day', 'count' and 'size' formatted for display.
+     * 
+     * @return list of day stats
+     */
+    public List<ItemCollection> getDailyStats() {
+        List<ItemCollection> result = new ArrayList<ItemCollection>();
+        if (!isStatsAvailable()) {
+            return result;
+        }
+        LocalDate today = LocalDate.now(ZoneOffset.UTC);
+        for (ItemCollection stats : dataService.loadSnapshotStats(today.minusDays(STATS_DAYS - 1), today)) {
+            ItemCollection entry = new ItemCollection();
+            entry.setItemValue(DataService.COLUMN_DAY, stats.getItemValueDate(DataService.COLUMN_DAY).toInstant()
+                    .atZone(ZoneOffset.UTC).toLocalDate().toString());
+            entry.setItemValue(DataService.COLUMN_COUNT, stats.getItemValueLong(DataService.COLUMN_COUNT));
+            entry.setItemValue(DataService.COLUMN_SIZE,
+                    messageService.userFriendlyBytes(stats.getItemValueLong(DataService.COLUMN_SIZE)));
+            result.add(entry);
+        }
+        Collections.reverse(result);
+        return result;
+    }
+
+    /**
+     * Loads the stats of all days once per request.
+     */
+    private List<ItemCollection> loadSnapshotStats() {
+        if (snapshotStats == null) {
+            if (isStatsAvailable()) {
+                snapshotStats = dataService.loadSnapshotStats();
+            } else {
+                snapshotStats = new ArrayList<ItemCollection>();
+            }
+        }
+        return snapshotStats;
+    }
+
     public String getContactPoints() {
         return contactPoint.get();
     }
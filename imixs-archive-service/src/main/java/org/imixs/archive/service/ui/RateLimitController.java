@@ -0,0 +1,78 @@
+package org.imixs.archive.service.ui;
+
+import java.io.Serializable;
+import java.util.logging.Logger;
+
+import org.imixs.archive.service.util.RateLimiter;
+import org.imixs.archive.service.util.RestClientHelper;
+
+import jakarta.enterprise.context.RequestScoped;
+import jakarta.inject.Inject;
+import jakarta.inject.Named;
+
+/**
+ * CDI Bean to control the RateLimiter of the resync and restore processes at
+ * runtime.
+ * 
+ * @author rsoika
+ *
+ */
+@Named
+@RequestScoped
+public class RateLimitController implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+    private static Logger logger = Logger.getLogger(RateLimitController.class.getName());
+
+    @Inject
+    RestClientHelper restClientHelper;
+
+    boolean enabled;
+    double maxRate;
+    long targetLatency;
+
+    public RateLimitController() {
+        super();
+    }
+
+    public RateLimiter getRateLimiter() {
+        return restClientHelper.getRateLimiter();
+    }
+
+    public boolean isEnabled() {
+        return getRateLimiter().isEnabled();
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public double getMaxRate() {
+        return getRateLimiter().getMaxRate();
+    }
+
+    public void setMaxRate(double maxRate) {
+        this.maxRate = maxRate;
+    }
+
+    public long getTargetLatency() {
+        return getRateLimiter().getTargetLatency();
+    }
+
+    public void setTargetLatency(long targetLatency) {
+        this.targetLatency = targetLatency;
+    }
+
+    /**
+     * Updates the settings of the RateLimiter
+     */
+    public void update() {
+        logger.info("......update rate limit: enabled=" + enabled + " rate=" + maxRate + " latency=" + targetLatency
+                + "ms");
+        RateLimiter rateLimiter = getRateLimiter();
+        rateLimiter.setMaxRate(maxRate);
+        rateLimiter.setTargetLatency(targetLatency);
+        rateLimiter.setEnabled(enabled);
+    }
+
+}
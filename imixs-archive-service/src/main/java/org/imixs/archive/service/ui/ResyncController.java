@@ -4,12 +4,15 @@ import java.io.Serializable;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.List;
 import java.util.logging.Logger;
 
 import org.imixs.archive.service.ArchiveException;
 import org.imixs.archive.service.cassandra.ClusterService;
 import org.imixs.archive.service.cassandra.DataService;
 import org.imixs.archive.service.resync.ResyncService;
+import org.imixs.archive.service.resync.ResyncSlice;
+import org.imixs.archive.service.resync.ResyncStatusHandler;
 import org.imixs.archive.service.util.MessageService;
 import org.imixs.workflow.ItemCollection;
 
@@ -49,6 +52,9 @@ public class ResyncController implements Serializable {
     @Inject
     DataService dataService;
 
+    @Inject
+    ResyncStatusHandler resyncStatusHandler;
+
     @Inject
     MessageService messageService;
 
@@ -114,6 +120,13 @@ public class ResyncController implements Serializable {
             Date syncDate = dt.parse(newSyncPoint);
             logger.info("......updateing syncpoint=" + this.newSyncPoint);
             metaData.setItemValue(ResyncService.ITEM_SYNCPOINT, syncDate.getTime());
+            metaData.removeItem(ResyncService.ITEM_SYNCPOINT_ID);
+            // reset the slices of a partitioned resync
+            metaData.removeItem(ResyncService.ITEM_SLICE_START);
+            metaData.removeItem(ResyncService.ITEM_SLICE_END);
+            metaData.removeItem(ResyncService.ITEM_SLICE_POINT);
+            metaData.removeItem(ResyncService.ITEM_SLICE_ID);
+            metaData.removeItem(ResyncService.ITEM_SLICE_FINISHED);
             dataService.saveMetadata(metaData);
 
             // restart sync?
@@ -136,6 +149,15 @@ public class ResyncController implements Serializable {
         return resyncService.isRunning();
     }
 
+    /**
+     * Returns the slices of the last partitioned resync
+     * 
+     * @return
+     */
+    public List<ResyncSlice> getSlices() {
+        return resyncStatusHandler.getSlices();
+    }
+
     /**
      * This method cancels a current running sny process
      * 
@@ -0,0 +1,198 @@
+package org.imixs.archive.service.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+import org.imixs.melman.EventLogClient;
+import org.imixs.melman.RestAPIException;
+import org.imixs.workflow.ItemCollection;
+import org.imixs.workflow.xml.XMLDataCollectionAdapter;
+import org.imixs.workflow.xml.XMLDocument;
+import org.imixs.workflow.xml.XMLDocumentAdapter;
+
+import jakarta.ws.rs.ProcessingException;
+import jakarta.ws.rs.client.Client;
+import jakarta.ws.rs.client.Entity;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+
+/**
+ * The EventLogBatchHelper provides methods to lock, delete and create a page of
+ * event log entries in one request. The methods use the batch resources
+ * 'snapshot/eventlog/*' provided by the Imixs-Archive API.
+ * <p>
+ * If the workflow instance does not provide the batch resources, the helper
+ * falls back to single requests for each event log entry.
+ *
+ * @author rsoika
+ */
+public class EventLogBatchHelper {
+
+    public static final String EVENTLOG_BATCH_RESOURCE = "snapshot/eventlog/";
+
+    private static Logger logger = Logger.getLogger(EventLogBatchHelper.class.getName());
+
+    /**
+     * Locks a list of event log entries and returns the ids of all successfully
+     * locked entries.
+     *
+     * @param eventLogClient
+     * @param ids            - event log ids
+     * @return locked ids
+     * @throws RestAPIException
+     */
+    public static List<String> lockEventLogEntries(EventLogClient eventLogClient, List<String> ids)
+            throws RestAPIException {
+        if (ids.isEmpty()) {
+            return ids;
+        }
+        List<String> result = postIDs(eventLogClient, "lock", ids);
+        if (result == null) {
+            // fallback
+            result = new ArrayList<String>();
+            for (String id : ids) {
+                try {
+                    eventLogClient.lockEventLogEntry(id);
+                    result.add(id);
+                } catch (RestAPIException e) {
+                    logger.warning("unable to lock event log entry " + id + ": " + e.getMessage());
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Deletes a list of event log entries. In the fallback mode a failed deletion
+     * of a single entry is logged and the remaining entries are deleted.
+     *
+     * @param eventLogClient
+     * @param ids            - event log ids
+     * @throws RestAPIException
+     */
+    public static void deleteEventLogEntries(EventLogClient eventLogClient, List<String> ids)
+            throws RestAPIException {
+        if (ids.isEmpty()) {
+            return;
+        }
+        if (postIDs(eventLogClient, "delete", ids) == null) {
+            // fallback
+            for (String id : ids) {
+                try {
+                    eventLogClient.deleteEventLogEntry(id);
+                } catch (RestAPIException e) {
+                    logger.warning("unable to delete event log entry " + id + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates a list of event log entries. Each entry provides the items 'topic'
+     * and 'ref'.
+     *
+     * @param eventLogClient
+     * @param entries        - list of event log entries
+     * @throws RestAPIException
+     */
+    public static void createEventLogEntries(EventLogClient eventLogClient, List<ItemCollection> entries)
+            throws RestAPIException {
+        if (entries.isEmpty()) {
+            return;
+        }
+        if (!postEntries(eventLogClient, "create", entries)) {
+            // fallback
+            for (ItemCollection entry : entries) {
+                eventLogClient.createEventLogEntry(entry.getItemValueString("topic"),
+                        entry.getItemValueString("ref"), null);
+            }
+        }
+    }
+
+    /**
+     * Posts a list of ids to a batch resource and returns the processed ids. The
+     * method returns null if the batch resource is not available.
+     */
+    private static List<String> postIDs(EventLogClient eventLogClient, String operation, List<String> ids)
+            throws RestAPIException {
+        ItemCollection request = new ItemCollection();
+        request.replaceItemValue("id", ids);
+        Client rsClient = eventLogClient.newClient();
+        Response response = null;
+        try {
+            response = post(rsClient, eventLogClient, operation,
+                    Entity.entity(XMLDocumentAdapter.getDocument(request), MediaType.APPLICATION_XML));
+            if (response == null) {
+                return null;
+            }
+            ItemCollection result = XMLDocumentAdapter.putDocument(response.readEntity(XMLDocument.class));
+            return result.getItemValueList("id", String.class);
+        } catch (ProcessingException e) {
+            throw new RestAPIException(EventLogClient.class.getSimpleName(),
+                    RestAPIException.RESPONSE_PROCESSING_EXCEPTION,
+                    "error processing event log batch '" + operation + "' -> " + e.getMessage(), e);
+        } finally {
+            if (response != null) {
+                response.close();
+            }
+            rsClient.close();
+        }
+    }
+
+    /**
+     * Posts a list of entries to a batch resource. The method returns false if the
+     * batch resource is not available.
+     */
+    private static boolean postEntries(EventLogClient eventLogClient, String operation,
+            List<ItemCollection> entries) throws RestAPIException {
+        Client rsClient = eventLogClient.newClient();
+        Response response = null;
+        try {
+            response = post(rsClient, eventLogClient, operation,
+                    Entity.entity(XMLDataCollectionAdapter.getDataCollection(entries), MediaType.APPLICATION_XML));
+            return (response != null);
+        } catch (ProcessingException e) {
+            throw new RestAPIException(EventLogClient.class.getSimpleName(),
+                    RestAPIException.RESPONSE_PROCESSING_EXCEPTION,
+                    "error processing event log batch '" + operation + "' -> " + e.getMessage(), e);
+        } finally {
+            if (response != null) {
+                response.close();
+            }
+            rsClient.close();
+        }
+    }
+
+    /**
+     * Posts an entity to a batch resource. The method returns null if the batch
+     * resource is not available or not accessible. In this case the client should
+     * fallback to single requests.
+     */
+    private static Response post(Client rsClient, EventLogClient eventLogClient, String operation,
+            Entity<?> entity) throws RestAPIException {
+        String url = eventLogClient.getBaseURI();
+        if (!url.endsWith("/")) {
+            url = url + "/";
+        }
+        url = url + EVENTLOG_BATCH_RESOURCE + operation;
+        Response response = rsClient.target(url).request(MediaType.APPLICATION_XML).post(entity);
+        int status = response.getStatus();
+        if (status == Response.Status.NOT_FOUND.getStatusCode()
+                || status == Response.Status.UNAUTHORIZED.getStatusCode()
+                || status == Response.Status.FORBIDDEN.getStatusCode()
+                || status == Response.Status.METHOD_NOT_ALLOWED.getStatusCode()) {
+            logger.finest("......event log batch resource '" + operation + "' not available (" + status + ")");
+            response.close();
+            return null;
+        }
+        if (status < 200 || status > 299) {
+            response.close();
+            throw new RestAPIException(EventLogClient.class.getSimpleName(),
+                    RestAPIException.RESPONSE_PROCESSING_EXCEPTION,
+                    "error processing event log batch '" + operation + "' -> HTTP status " + status);
+        }
+        return response;
+    }
+
+}
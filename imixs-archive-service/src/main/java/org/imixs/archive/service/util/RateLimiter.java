@@ -0,0 +1,196 @@
+package org.imixs.archive.service.util;
+
+import java.io.IOException;
+import java.util.logging.Logger;
+
+import jakarta.ws.rs.client.ClientRequestContext;
+import jakarta.ws.rs.client.ClientRequestFilter;
+import jakarta.ws.rs.client.ClientResponseContext;
+import jakarta.ws.rs.client.ClientResponseFilter;
+
+/**
+ * The RateLimiter limits the requests of the resync and restore processes to
+ * the workflow instance. The limiter is registered as a request and response
+ * filter of the rest client used by these processes.
+ * <p>
+ * The limiter is based on a token bucket. Each request takes a token and waits
+ * if the bucket is empty. The rate adapts to the workflow instance (AIMD): each
+ * successful response increases the rate additively up to the max rate. A
+ * response slower than the target latency or a response with the HTTP status
+ * 429 or 5xx halves the rate.
+ * <p>
+ * The max rate and the target latency can be changed at runtime.
+ *
+ * @author rsoika
+ */
+public class RateLimiter implements ClientRequestFilter, ClientResponseFilter {
+
+    public static final String PROPERTY_START_TIME = "org.imixs.archive.ratelimit.start";
+    public static final double MIN_RATE = 1.0;
+    // min time between two decreases in ms
+    public static final long DECREASE_INTERVAL = 1000;
+
+    private static Logger logger = Logger.getLogger(RateLimiter.class.getName());
+
+    private boolean enabled;
+    private double maxRate;
+    private long targetLatency;
+
+    private double rate;
+    private double tokens = 0;
+    private long lastRefill = System.nanoTime();
+    private long lastDecrease = 0;
+
+    private long requests = 0;
+    private long throttled = 0;
+    private long decreases = 0;
+
+    /**
+     * Creates a new limiter.
+     *
+     * @param enabled       - true if requests are limited
+     * @param maxRate       - max requests per second
+     * @param targetLatency - target response time in ms
+     */
+    public RateLimiter(boolean enabled, double maxRate, long targetLatency) {
+        super();
+        this.enabled = enabled;
+        this.maxRate = Math.max(MIN_RATE, maxRate);
+        this.targetLatency = targetLatency;
+        this.rate = this.maxRate;
+    }
+
+    /**
+     * Takes a token from the bucket. The method blocks until a token is available.
+     *
+     * @throws InterruptedException
+     */
+    public synchronized void acquire() throws InterruptedException {
+        requests++;
+        if (!enabled) {
+            return;
+        }
+        boolean waited = false;
+        while (true) {
+            refill();
+            if (tokens >= 1) {
+                tokens = tokens - 1;
+                break;
+            }
+            waited = true;
+            long waitTime = (long) Math.ceil((1 - tokens) * 1000 / rate);
+            wait(Math.max(1, waitTime));
+        }
+        if (waited) {
+            throttled++;
+        }
+    }
+
+    /**
+     * Adapts the rate to a response of the workflow instance.
+     *
+     * @param latency - response time in ms
+     * @param status  - HTTP status
+     */
+    public synchronized void update(long latency, int status) {
+        if (status == 429 || status >= 500 || (targetLatency > 0 && latency > targetLatency)) {
+            long now = System.currentTimeMillis();
+            if (now - lastDecrease >= DECREASE_INTERVAL) {
+                lastDecrease = now;
+                rate = Math.max(MIN_RATE, rate / 2);
+                decreases++;
+                logger.fine("......rate decreased to " + getRate() + " req/s (status=" + status + ", latency="
+                        + latency + "ms)");
+            }
+        } else if (rate < maxRate) {
+            // increase about 1 request per second each second
+            rate = Math.min(maxRate, rate + 1 / rate);
+        }
+    }
+
+    /**
+     * Adds the tokens for the time since the last refill. The bucket holds max
+     * one second of tokens.
+     */
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(rate, tokens + (now - lastRefill) * rate / 1000000000.0);
+        lastRefill = now;
+    }
+
+    @Override
+    public void filter(ClientRequestContext requestContext) throws IOException {
+        try {
+            acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        requestContext.setProperty(PROPERTY_START_TIME, System.currentTimeMillis());
+    }
+
+    @Override
+    public void filter(ClientRequestContext requestContext, ClientResponseContext responseContext)
+            throws IOException {
+        Object startTime = requestContext.getProperty(PROPERTY_START_TIME);
+        if (startTime instanceof Long) {
+            update(System.currentTimeMillis() - (Long) startTime, responseContext.getStatus());
+        }
+    }
+
+    public synchronized boolean isEnabled() {
+        return enabled;
+    }
+
+    public synchronized void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        notifyAll();
+    }
+
+    public synchronized double getMaxRate() {
+        return maxRate;
+    }
+
+    /**
+     * Sets the max requests per second. The current rate is reset to the max rate
+     * and adapts again.
+     */
+    public synchronized void setMaxRate(double maxRate) {
+        this.maxRate = Math.max(MIN_RATE, maxRate);
+        this.rate = this.maxRate;
+        notifyAll();
+    }
+
+    public synchronized long getTargetLatency() {
+        return targetLatency;
+    }
+
+    public synchronized void setTargetLatency(long targetLatency) {
+        this.targetLatency = targetLatency;
+    }
+
+    /**
+     * Returns the current rate in requests per second.
+     */
+    public synchronized double getRate() {
+        return Math.round(rate * 10) / 10.0;
+    }
+
+    public synchronized long getRequests() {
+        return requests;
+    }
+
+    /**
+     * Returns the number of requests which had to wait for a token.
+     */
+    public synchronized long getThrottled() {
+        return throttled;
+    }
+
+    /**
+     * Returns the number of rate decreases caused by slow or failed responses.
+     */
+    public synchronized long getDecreases() {
+        return decreases;
+    }
+
+}
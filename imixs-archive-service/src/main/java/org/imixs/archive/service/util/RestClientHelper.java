@@ -38,6 +38,10 @@ public class RestClientHelper implements Serializable {
 
     private static final long serialVersionUID = 1L;
 
+    public static final String ENV_RATELIMIT_ENABLED = "archive.ratelimit.enabled";
+    public static final String ENV_RATELIMIT_RATE = "archive.ratelimit.rate";
+    public static final String ENV_RATELIMIT_LATENCY = "archive.ratelimit.latency";
+
     @Inject
     @ConfigProperty(name = SyncService.ENV_WORKFLOW_SERVICE_ENDPOINT)
     Optional<String> instanceEndpoint;
@@ -66,8 +70,24 @@ public class RestClientHelper implements Serializable {
     @ConfigProperty(name = SyncService.ENV_OIDC_AUTH_CLIENT_SECRET)
     Optional<String> oidcAuthClientSecret;
 
+    @Inject
+    @ConfigProperty(name = ENV_RATELIMIT_ENABLED, defaultValue = "false")
+    boolean rateLimitEnabled;
+
+    // max requests per second
+    @Inject
+    @ConfigProperty(name = ENV_RATELIMIT_RATE, defaultValue = "50")
+    double rateLimitRate;
+
+    // target response time in ms
+    @Inject
+    @ConfigProperty(name = ENV_RATELIMIT_LATENCY, defaultValue = "1000")
+    long rateLimitLatency;
+
     DocumentClient documentClient = null;
+    DocumentClient bulkDocumentClient = null;
     EventLogClient eventLogClient = null;
+    RateLimiter rateLimiter = null;
 
     /**
      * This method creates a new DocumentClient instance.
@@ -130,6 +150,47 @@ public class RestClientHelper implements Serializable {
 
     }
 
+    /**
+     * This method creates a DocumentClient for bulk operations like a resync or a
+     * restore. The requests of this client are limited by the RateLimiter to
+     * protect the workflow instance.
+     *
+     * If an instance already exists, we return the existing instance.
+     *
+     * @return
+     * @throws RestAPIException
+     */
+    public DocumentClient createBulkDocumentClient() throws RestAPIException {
+        // test if we have already an instance
+        if (bulkDocumentClient != null) {
+            return bulkDocumentClient;
+        }
+        DocumentClient client = createDocumentClient();
+        if (client == null) {
+            return null;
+        }
+        logger.info("├── RestClientHelper create bulk DocumentClient....");
+        bulkDocumentClient = new WorkflowClient(client.getBaseURI());
+        // register all filters from workfow client
+        for (ClientRequestFilter filter : client.getRequestFilterList()) {
+            bulkDocumentClient.registerClientRequestFilter(filter);
+        }
+        bulkDocumentClient.registerClientRequestFilter(getRateLimiter());
+        return bulkDocumentClient;
+    }
+
+    /**
+     * Returns the RateLimiter shared by all bulk operations.
+     *
+     * @return
+     */
+    public synchronized RateLimiter getRateLimiter() {
+        if (rateLimiter == null) {
+            rateLimiter = new RateLimiter(rateLimitEnabled, rateLimitRate, rateLimitLatency);
+        }
+        return rateLimiter;
+    }
+
     /**
      * Creates a EventLogClient form a given DocumentClient instance
      *
@@ -163,6 +224,7 @@ public class RestClientHelper implements Serializable {
      */
     public void reset() {
         documentClient = null;
+        bulkDocumentClient = null;
         eventLogClient = null;
     }
 
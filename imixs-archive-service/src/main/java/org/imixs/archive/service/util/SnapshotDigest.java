@@ -0,0 +1,194 @@
+package org.imixs.archive.service.util;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.imixs.workflow.ItemCollection;
+
+import jakarta.xml.bind.DatatypeConverter;
+
+/**
+ * The SnapshotDigest computes hierarchical digests over the snapshot IDs of a
+ * day. The snapshots are assigned to the day and hour of the timestamp
+ * contained in the snapshot ID (UTC). For each hour the digest is the md5
+ * checksum of the sorted snapshot IDs. The digest of the day is the md5 checksum
+ * of the 24 hour digests.
+ * <p>
+ * The modified date of a snapshot is not used, as a restored snapshot gets a
+ * new modified date in the workflow instance but keeps its day in the archive.
+ * The timestamp of a snapshot ID is never after its modified date.
+ * <p>
+ * The digests are computed by the workflow instance and by the archive service
+ * in the same way. If two digests differ, the snapshots of the corresponding
+ * day or hour differ.
+ * <p>
+ * As the workflow instance removes deprecated snapshots (snapshot history),
+ * both sides compute the digests only over the latest snapshot of each
+ * document (see getLatestSnapshotIDs).
+ * <p>
+ * Note: The class is duplicated as
+ * org.imixs.archive.core.api.SnapshotDigest in the module imixs-archive-api.
+ * The archive service does not depend on the Imixs-Archive API, which
+ * requires the Imixs-Workflow engine. Both copies must compute identical
+ * digests and must be changed together.
+ *
+ * @author rsoika
+ */
+public class SnapshotDigest {
+
+    public static final String ITEM_DATE = "date";
+    public static final String ITEM_COUNT = "count";
+    public static final String ITEM_DIGEST = "digest";
+    public static final String ITEM_HOUR_COUNT = "hour.count";
+    public static final String ITEM_HOUR_DIGEST = "hour.digest";
+    public static final String ITEM_ID = "id";
+
+    /**
+     * Computes the digest of a day and the digests of each hour.
+     *
+     * @param date        - the day in ISO format (yyyy-MM-dd)
+     * @param snapshotIDs - all snapshot IDs of the day
+     * @return ItemCollection with the day and hour digests
+     * @throws NoSuchAlgorithmException
+     */
+    public static ItemCollection build(String date, Collection<String> snapshotIDs) throws NoSuchAlgorithmException {
+        // group the sorted ids by hour
+        List<List<String>> hours = new ArrayList<List<String>>();
+        for (int hour = 0; hour < 24; hour++) {
+            hours.add(new ArrayList<String>());
+        }
+        for (String id : new TreeSet<String>(snapshotIDs)) {
+            hours.get(getHour(id)).add(id);
+        }
+        List<Integer> hourCounts = new ArrayList<Integer>();
+        List<String> hourDigests = new ArrayList<String>();
+        for (List<String> hourIDs : hours) {
+            hourCounts.add(hourIDs.size());
+            hourDigests.add(hourIDs.isEmpty() ? "" : md5(hourIDs));
+        }
+        ItemCollection result = new ItemCollection();
+        result.setItemValue(ITEM_DATE, date);
+        result.setItemValue(ITEM_COUNT, snapshotIDs.size());
+        result.setItemValue(ITEM_DIGEST, snapshotIDs.isEmpty() ? "" : md5(hourDigests));
+        result.setItemValue(ITEM_HOUR_COUNT, hourCounts);
+        result.setItemValue(ITEM_HOUR_DIGEST, hourDigests);
+        return result;
+    }
+
+    /**
+     * Returns the sorted snapshot IDs of a given hour.
+     *
+     * @param snapshotIDs
+     * @param hour        - hour of the day (0-23)
+     * @return sorted list of snapshot IDs
+     */
+    public static List<String> getSnapshotIDsByHour(Collection<String> snapshotIDs, int hour) {
+        List<String> result = new ArrayList<String>();
+        for (String id : new TreeSet<String>(snapshotIDs)) {
+            if (getHour(id) == hour) {
+                result.add(id);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the snapshot IDs of a collection which are not superseded by a newer
+     * snapshot of the same document within the collection.
+     *
+     * @param snapshotIDs
+     * @return set of the latest snapshot ID of each document
+     */
+    public static Set<String> getLatestSnapshotIDs(Collection<String> snapshotIDs) {
+        Map<String, String> latest = new HashMap<String, String>();
+        for (String id : snapshotIDs) {
+            String uniqueID = getUniqueID(id);
+            String latestID = latest.get(uniqueID);
+            if (latestID == null || latestID.compareTo(id) < 0) {
+                latest.put(uniqueID, id);
+            }
+        }
+        return new HashSet<String>(latest.values());
+    }
+
+    /**
+     * Returns the $uniqueid of the origin document of a snapshot ID.
+     *
+     * @param snapshotID
+     * @return $uniqueid
+     */
+    public static String getUniqueID(String snapshotID) {
+        int pos = snapshotID.lastIndexOf("-");
+        return (pos > 0) ? snapshotID.substring(0, pos) : snapshotID;
+    }
+
+    /**
+     * Returns the hour (UTC) of the timestamp contained in a snapshot ID. If the
+     * ID contains no timestamp the method returns 0.
+     *
+     * @param snapshotID
+     * @return hour of the day (0-23)
+     */
+    public static int getHour(String snapshotID) {
+        long time = getTime(snapshotID);
+        if (time < 0) {
+            return 0;
+        }
+        return Instant.ofEpochMilli(time).atZone(ZoneOffset.UTC).getHour();
+    }
+
+    /**
+     * Returns the day (UTC) of the timestamp contained in a snapshot ID or null
+     * if the ID contains no timestamp.
+     *
+     * @param snapshotID
+     * @return day of the snapshot or null
+     */
+    public static LocalDate getDate(String snapshotID) {
+        long time = getTime(snapshotID);
+        if (time < 0) {
+            return null;
+        }
+        return Instant.ofEpochMilli(time).atZone(ZoneOffset.UTC).toLocalDate();
+    }
+
+    /**
+     * Returns the timestamp contained in a snapshot ID or -1 if the ID contains
+     * no timestamp.
+     *
+     * @param snapshotID
+     * @return timestamp in milliseconds
+     */
+    public static long getTime(String snapshotID) {
+        try {
+            return Long.parseLong(snapshotID.substring(snapshotID.lastIndexOf("-") + 1));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Computes the md5 checksum of a list of values.
+     */
+    private static String md5(List<String> values) throws NoSuchAlgorithmException {
+        MessageDigest md = MessageDigest.getInstance("MD5");
+        for (String value : values) {
+            md.update(value.getBytes(StandardCharsets.UTF_8));
+            md.update((byte) '\n');
+        }
+        return DatatypeConverter.printHexBinary(md.digest());
+    }
+
+}
@@ -0,0 +1,149 @@
+package org.imixs.archive.service.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import org.imixs.melman.DocumentClient;
+import org.imixs.melman.RestAPIException;
+import org.imixs.workflow.ItemCollection;
+import org.imixs.workflow.xml.XMLDocument;
+import org.imixs.workflow.xml.XMLDocumentAdapter;
+
+import jakarta.ws.rs.ProcessingException;
+import jakarta.ws.rs.client.Client;
+import jakarta.ws.rs.core.EntityPart;
+import jakarta.ws.rs.core.GenericType;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+
+/**
+ * The SnapshotMultipartReader loads a snapshot from the multipart resource
+ * 'snapshot/{id}/multipart' provided by the Imixs-Archive API.
+ * <p>
+ * In difference to the XML representation the file content is not base64
+ * encoded. The first part contains the snapshot with empty file contents. All
+ * other parts contain the raw file content and are named by the md5 checksum
+ * of the content.
+ * <p>
+ * The reader holds the underlying http connection until it is closed.
+ *
+ * @author rsoika
+ */
+public class SnapshotMultipartReader implements AutoCloseable {
+
+    public static final String MULTIPART_RESOURCE = "snapshot/<id>/multipart";
+    public static final String MULTIPART_DOCUMENT = "document";
+    public static final String ITEM_MD5_CHECKSUM = "md5checksum";
+
+    private static Logger logger = Logger.getLogger(SnapshotMultipartReader.class.getName());
+
+    private DocumentClient documentClient;
+    private Client rsClient = null;
+    private Response response = null;
+    private ItemCollection snapshot = null;
+    private Map<String, EntityPart> fileParts = new HashMap<String, EntityPart>();
+
+    public SnapshotMultipartReader(DocumentClient documentClient) {
+        super();
+        this.documentClient = documentClient;
+    }
+
+    /**
+     * Reads the multipart stream of a snapshot. The method returns false if the
+     * workflow instance does not support the multipart resource or the snapshot
+     * does not exist. In this case the client should fallback to the XML
+     * representation.
+     *
+     * @param snapshotID
+     * @return true if the snapshot was read
+     * @throws RestAPIException
+     */
+    public boolean read(String snapshotID) throws RestAPIException {
+        String url = documentClient.getBaseURI();
+        if (!url.endsWith("/")) {
+            url = url + "/";
+        }
+        url = url + MULTIPART_RESOURCE.replace("<id>", snapshotID);
+        try {
+            rsClient = documentClient.newClient();
+            response = rsClient.target(url).request(MediaType.MULTIPART_FORM_DATA).get();
+            int status = response.getStatus();
+            if (status == Response.Status.NOT_FOUND.getStatusCode()
+                    || status == Response.Status.NOT_ACCEPTABLE.getStatusCode()) {
+                logger.finest("......multipart resource not available for " + snapshotID);
+                return false;
+            }
+            if (status < 200 || status > 299) {
+                throw new RestAPIException(DocumentClient.class.getSimpleName(),
+                        RestAPIException.RESPONSE_PROCESSING_EXCEPTION,
+                        "error requesting snapshot " + snapshotID + " -> HTTP status " + status);
+            }
+            List<EntityPart> parts = response.readEntity(new GenericType<List<EntityPart>>() {
+            });
+            for (EntityPart part : parts) {
+                if (MULTIPART_DOCUMENT.equals(part.getName())) {
+                    snapshot = XMLDocumentAdapter.putDocument(part.getContent(XMLDocument.class));
+                } else {
+                    fileParts.put(part.getName(), part);
+                }
+            }
+        } catch (ProcessingException | IOException e) {
+            String message = null;
+            if (e.getCause() != null) {
+                message = e.getCause().getMessage();
+            } else {
+                message = e.getMessage();
+            }
+            throw new RestAPIException(DocumentClient.class.getSimpleName(),
+                    RestAPIException.RESPONSE_PROCESSING_EXCEPTION,
+                    "error requesting snapshot " + snapshotID + " -> " + message, e);
+        }
+        if (snapshot == null) {
+            throw new RestAPIException(DocumentClient.class.getSimpleName(),
+                    RestAPIException.RESPONSE_PROCESSING_EXCEPTION,
+                    "missing document part for snapshot " + snapshotID);
+        }
+        return true;
+    }
+
+    /**
+     * Returns the snapshot read from the document part. The file content of the
+     * snapshot is empty.
+     *
+     * @return snapshot
+     */
+    public ItemCollection getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Returns the raw file content streams by their md5 checksum.
+     *
+     * @return map of md5 checksums and content streams
+     */
+    public Map<String, InputStream> getFileContents() {
+        Map<String, InputStream> result = new HashMap<String, InputStream>();
+        for (Map.Entry<String, EntityPart> entry : fileParts.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().getContent());
+        }
+        return result;
+    }
+
+    /**
+     * Closes the http connection.
+     */
+    @Override
+    public void close() {
+        if (response != null) {
+            response.close();
+        }
+        if (rsClient != null) {
+            rsClient.close();
+        }
+    }
+
+}
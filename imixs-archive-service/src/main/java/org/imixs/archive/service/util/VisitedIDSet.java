@@ -0,0 +1,171 @@
+/*******************************************************************************
+ *  Imixs Workflow Technology
+ *  Copyright (C) 2001, 2008 Imixs Software Solutions GmbH,  
+ *  http://www.imixs.com
+ *  
+ *  This program is free software; you can redistribute it and/or 
+ *  modify it under the terms of the GNU General Public License 
+ *  as published by the Free Software Foundation; either version 2 
+ *  of the License, or (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful, 
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ *  General Public License for more details.
+ *  
+ *  You can receive a copy of the GNU General Public
+ *  License at http://www.gnu.org/licenses/gpl.html
+ *  
+ *  Contributors:  
+ *  	Imixs Software Solutions GmbH - initial API and implementation
+ *  	Ralph Soika
+ *******************************************************************************/
+package org.imixs.archive.service.util;
+
+import java.util.Arrays;
+
+/**
+ * The VisitedIDSet is a compact set to remember a large number of IDs (e.g.
+ * the $uniqueIDs processed during a restore). Instead of the string values the
+ * set stores a 64-bit hash of each ID in an open addressing hash table. This
+ * reduces the memory to less than 32 bytes per ID so that tens of millions of
+ * IDs can be held in memory.
+ * <p>
+ * Because only the hash is stored, two different IDs may collide. With a
+ * 64-bit hash the probability is negligible even for hundred millions of IDs.
+ * <p>
+ * The methods are synchronized so that the set can be shared between threads.
+ * 
+ * @author rsoika
+ */
+public class VisitedIDSet {
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private long[] table;
+    private int size = 0;
+    private boolean containsZero = false;
+
+    public VisitedIDSet() {
+        this(1024);
+    }
+
+    /**
+     * Creates a new set with an initial capacity.
+     * 
+     * @param capacity - expected number of IDs
+     */
+    public VisitedIDSet(int capacity) {
+        int tableSize = 16;
+        while (tableSize < capacity * 2 && tableSize < (1 << 30)) {
+            tableSize = tableSize << 1;
+        }
+        table = new long[tableSize];
+    }
+
+    /**
+     * Adds an ID to the set.
+     * 
+     * @param id
+     * @return true if the ID was not yet contained in the set
+     */
+    public synchronized boolean add(String id) {
+        long hash = hash(id);
+        if (hash == 0) {
+            // 0 marks an empty slot
+            if (containsZero) {
+                return false;
+            }
+            containsZero = true;
+            size++;
+            return true;
+        }
+        if (!insert(table, hash)) {
+            return false;
+        }
+        size++;
+        if (size * 2 > table.length) {
+            resize();
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if the ID is contained in the set.
+     */
+    public synchronized boolean contains(String id) {
+        long hash = hash(id);
+        if (hash == 0) {
+            return containsZero;
+        }
+        int mask = table.length - 1;
+        int index = (int) (mix(hash) & mask);
+        while (table[index] != 0) {
+            if (table[index] == hash) {
+                return true;
+            }
+            index = (index + 1) & mask;
+        }
+        return false;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized void clear() {
+        Arrays.fill(table, 0);
+        size = 0;
+        containsZero = false;
+    }
+
+    /**
+     * Inserts a hash into a table. Returns false if the hash already exists.
+     */
+    private static boolean insert(long[] target, long hash) {
+        int mask = target.length - 1;
+        int index = (int) (mix(hash) & mask);
+        while (target[index] != 0) {
+            if (target[index] == hash) {
+                return false;
+            }
+            index = (index + 1) & mask;
+        }
+        target[index] = hash;
+        return true;
+    }
+
+    private void resize() {
+        long[] newTable = new long[table.length << 1];
+        for (long hash : table) {
+            if (hash != 0) {
+                insert(newTable, hash);
+            }
+        }
+        table = newTable;
+    }
+
+    /**
+     * Computes a 64-bit FNV-1a hash of a string.
+     */
+    private static long hash(String id) {
+        long hash = FNV_OFFSET;
+        for (int i = 0; i < id.length(); i++) {
+            hash ^= id.charAt(i);
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
+
+    /**
+     * Spreads the bits of a hash to compute the slot index.
+     */
+    private static long mix(long hash) {
+        hash ^= (hash >>> 33);
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= (hash >>> 33);
+        return hash;
+    }
+
+}
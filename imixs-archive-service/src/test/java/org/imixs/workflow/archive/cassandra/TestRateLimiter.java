@@ -0,0 +1,63 @@
+package org.imixs.workflow.archive.cassandra;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.imixs.archive.service.util.RateLimiter;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Test class for the RateLimiter used by the resync and restore processes
+ * 
+ * @author rsoika
+ * 
+ */
+public class TestRateLimiter {
+
+	/**
+	 * Test the multiplicative decrease on errors and slow responses
+	 */
+	@Test
+	public void testDecrease() {
+		RateLimiter rateLimiter = new RateLimiter(true, 40, 500);
+		assertEquals(40.0, rateLimiter.getRate());
+		rateLimiter.update(100, 503);
+		assertEquals(20.0, rateLimiter.getRate());
+		// only one decrease per interval
+		rateLimiter.update(1000, 200);
+		assertEquals(20.0, rateLimiter.getRate());
+		assertEquals(1, rateLimiter.getDecreases());
+	}
+
+	/**
+	 * Test the additive increase up to the max rate
+	 */
+	@Test
+	public void testIncrease() {
+		RateLimiter rateLimiter = new RateLimiter(true, 4, 500);
+		rateLimiter.update(100, 429);
+		assertEquals(2.0, rateLimiter.getRate());
+		rateLimiter.update(100, 200);
+		assertEquals(2.5, rateLimiter.getRate());
+		for (int i = 0; i < 100; i++) {
+			rateLimiter.update(100, 200);
+		}
+		assertEquals(4.0, rateLimiter.getRate());
+	}
+
+	/**
+	 * Test that a disabled limiter does not block
+	 */
+	@Test
+	public void testDisabled() throws InterruptedException {
+		RateLimiter rateLimiter = new RateLimiter(false, 1, 500);
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < 10; i++) {
+			rateLimiter.acquire();
+		}
+		assertTrue(System.currentTimeMillis() - start < 500);
+		assertEquals(10, rateLimiter.getRequests());
+		assertEquals(0, rateLimiter.getThrottled());
+	}
+
+}
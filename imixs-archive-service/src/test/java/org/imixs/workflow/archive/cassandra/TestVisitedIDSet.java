@@ -0,0 +1,50 @@
+package org.imixs.workflow.archive.cassandra;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.imixs.archive.service.util.VisitedIDSet;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Test class for the VisitedIDSet used to deduplicate uniqueIDs during a
+ * restore
+ * 
+ * @author rsoika
+ * 
+ */
+public class TestVisitedIDSet {
+
+	/**
+	 * Test add and contains
+	 */
+	@Test
+	public void testAdd() {
+		VisitedIDSet set = new VisitedIDSet();
+		assertTrue(set.add("2de78aec-6f14-4345-8acf-dd37ae84875d"));
+		assertFalse(set.add("2de78aec-6f14-4345-8acf-dd37ae84875d"));
+		assertTrue(set.contains("2de78aec-6f14-4345-8acf-dd37ae84875d"));
+		assertFalse(set.contains("2de78aec-6f14-4345-8acf-dd37ae84875e"));
+		assertEquals(1, set.size());
+	}
+
+	/**
+	 * Test growing the set beyond the initial capacity
+	 */
+	@Test
+	public void testResize() {
+		VisitedIDSet set = new VisitedIDSet(16);
+		for (int i = 0; i < 100000; i++) {
+			assertTrue(set.add("id-" + i));
+		}
+		assertEquals(100000, set.size());
+		for (int i = 0; i < 100000; i++) {
+			assertFalse(set.add("id-" + i));
+		}
+		set.clear();
+		assertEquals(0, set.size());
+		assertFalse(set.contains("id-1"));
+	}
+
+}